@@ -0,0 +1,397 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Single-threaded string sorter implementation that does not retain the strings written. Instead,
+ * their UTF-16 code units are copied into large character segments, and each element is recorded
+ * within primitive index arrays by it's position and it's length. Sorting caches the first four
+ * code units of every element following the prefix shared by all elements within a primitive key,
+ * and permutes a primitive index order, resolving most comparisons by said keys alone. Strings are
+ * materialized only once they are read. Therefore, the heap holds a few large arrays instead of
+ * millions of small string objects, which keeps garbage collection cheap regardless of the number
+ * of elements. Standard size segments are pooled among all instances. Note that all elements are
+ * still stored within the RAM of a single process.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class ArenaSorter implements MergeSorter<String> {
+	static private final int SEGMENT_SIZE = 0x100000;
+	static private final int MAX_POOLED_SEGMENTS = 0x20;
+	static private final int INITIAL_CAPACITY = 0x100;
+	static private final int INSERTION_THRESHOLD = 0x10;
+	static private final int PREFIX_LENGTH = 4;
+	static private final Queue<char[]> SEGMENT_POOL = new ConcurrentLinkedQueue<>();
+	static private final AtomicInteger SEGMENT_POOL_SIZE = new AtomicInteger();
+
+	private final int retainedCapacity;
+	private final List<char[]> segments;
+	private char[] segment;
+	private int segmentPosition;
+	private long[] positions;
+	private int[] lengths;
+	private long[] prefixes;
+	private int[] order, orderBuffer;
+	private int commonPrefixLength;
+	private int size;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link MergeSorter.State#WRITE} state that releases it's index
+	 * storage after each request.
+	 */
+	public ArenaSorter () {
+		this(0);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link MergeSorter.State#WRITE} state that retains it's index
+	 * storage across requests, as long as it's capacity does not exceed the given number of
+	 * elements.
+	 * @param retainedCapacity the maximum number of elements whose index storage is retained
+	 * @throws IllegalArgumentException if the given capacity is negative
+	 */
+	public ArenaSorter (final int retainedCapacity) throws IllegalArgumentException {
+		if (retainedCapacity < 0) throw new IllegalArgumentException();
+
+		this.retainedCapacity = retainedCapacity;
+		this.segments = new ArrayList<>();
+		this.positions = new long[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+		this.prefixes = new long[INITIAL_CAPACITY];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the number of character segments currently used.
+	 * @return the segment count
+	 */
+	public int getSegmentCount () {
+		return this.segments.size();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		this.clear();
+		this.state = State.CLOSED;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String element) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.state = State.SORT;
+		} else {
+			this.append(element);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			if (batch[index] == null) throw new NullPointerException();
+		}
+		for (int index = offset; index < offset + length; ++index) {
+			this.append(batch[index]);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		if (this.order == null || this.order.length < this.size) {
+			this.order = new int[this.size];
+			this.orderBuffer = new int[this.size];
+		}
+		for (int index = 0; index < this.size; ++index) {
+			this.order[index] = this.orderBuffer[index] = index;
+		}
+
+		this.commonPrefixLength = this.commonPrefixLength();
+		for (int index = 0; index < this.size; ++index) {
+			this.prefixes[index] = this.prefix(index);
+		}
+		this.sort(this.orderBuffer, this.order, 0, this.size);
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readIndex < this.size) return this.materialize(this.order[this.readIndex++]);
+
+		this.clear();
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.size - this.readIndex);
+		for (int index = 0; index < count; ++index) {
+			buffer[index] = this.materialize(this.order[this.readIndex++]);
+		}
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Copies the given element's code units into the current segment, starting a new one if
+	 * the element does not fit, and records it within the index arrays.
+	 * @param element the element
+	 */
+	private void append (final String element) {
+		final int length = element.length();
+		if (this.segment == null || this.segment.length - this.segmentPosition < length) {
+			this.segment = length > SEGMENT_SIZE ? new char[length] : acquireSegment();
+			this.segments.add(this.segment);
+			this.segmentPosition = 0;
+		}
+
+		if (this.size == this.positions.length) {
+			final int capacity = this.size << 1;
+			this.positions = Arrays.copyOf(this.positions, capacity);
+			this.lengths = Arrays.copyOf(this.lengths, capacity);
+			this.prefixes = Arrays.copyOf(this.prefixes, capacity);
+		}
+
+		element.getChars(0, length, this.segment, this.segmentPosition);
+		this.positions[this.size] = ((long) (this.segments.size() - 1) << 32) | this.segmentPosition;
+		this.lengths[this.size] = length;
+		this.size += 1;
+		this.segmentPosition += length;
+	}
+
+
+	/**
+	 * Returns the length of the prefix shared by all elements.
+	 * @return the common prefix length
+	 */
+	private int commonPrefixLength () {
+		if (this.size == 0) return 0;
+
+		final long firstPosition = this.positions[0];
+		final char[] firstSegment = this.segments.get((int) (firstPosition >>> 32));
+		int result = this.lengths[0];
+		for (int element = 1; element < this.size && result > 0; ++element) {
+			final long position = this.positions[element];
+			final char[] segment = this.segments.get((int) (position >>> 32));
+			final int length = Math.min(result, this.lengths[element]);
+
+			int index = 0;
+			while (index < length && segment[(int) position + index] == firstSegment[(int) firstPosition + index]) ++index;
+			result = index;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the key of the given element, containing the code units following the common
+	 * prefix, padded with zeros.
+	 * @param element the element index
+	 * @return the element's key
+	 */
+	private long prefix (final int element) {
+		final long position = this.positions[element];
+		final char[] segment = this.segments.get((int) (position >>> 32));
+		final int length = this.lengths[element];
+
+		long result = 0;
+		for (int index = this.commonPrefixLength; index < this.commonPrefixLength + PREFIX_LENGTH; ++index) {
+			result = (result << 16) | (index < length ? segment[(int) position + index] : 0);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns a new string containing the code units of the given element.
+	 * @param element the element index
+	 * @return the element's string
+	 */
+	private String materialize (final int element) {
+		final long position = this.positions[element];
+		return new String(this.segments.get((int) (position >>> 32)), (int) position, this.lengths[element]);
+	}
+
+
+	/**
+	 * Returns the relative order of the given elements, which is consistent with the natural order
+	 * of their strings. Requires the keys to be computed.
+	 * @param left the left element index
+	 * @param right the right element index
+	 * @return a negative value, zero, or a positive value if the left element precedes, equals,
+	 *         or follows the right one
+	 */
+	private int compare (final int left, final int right) {
+		final int prefixComparison = Long.compareUnsigned(this.prefixes[left], this.prefixes[right]);
+		if (prefixComparison != 0) return prefixComparison;
+
+		final int leftLength = this.lengths[left], rightLength = this.lengths[right];
+		final int length = Math.min(leftLength, rightLength), skipLength = this.commonPrefixLength + PREFIX_LENGTH;
+		if (length > skipLength) {
+			final long leftPosition = this.positions[left], rightPosition = this.positions[right];
+			final char[] leftSegment = this.segments.get((int) (leftPosition >>> 32));
+			final char[] rightSegment = this.segments.get((int) (rightPosition >>> 32));
+			for (int leftIndex = (int) leftPosition + skipLength, rightIndex = (int) rightPosition + skipLength, limit = (int) leftPosition + length; leftIndex < limit; ++leftIndex, ++rightIndex) {
+				final int comparison = leftSegment[leftIndex] - rightSegment[rightIndex];
+				if (comparison != 0) return comparison;
+			}
+		}
+		return leftLength - rightLength;
+	}
+
+
+	/**
+	 * Recursively merge sorts the given range of the given source order into the given sink
+	 * order. Both must initially contain the same element indices within said range.
+	 * @param source the source order
+	 * @param sink the sink order
+	 * @param lower the inclusive lower range index
+	 * @param upper the exclusive upper range index
+	 */
+	private void sort (final int[] source, final int[] sink, final int lower, final int upper) {
+		if (upper - lower <= INSERTION_THRESHOLD) {
+			for (int index = lower + 1; index < upper; ++index) {
+				final int element = sink[index];
+				int position = index;
+				for (; position > lower && this.compare(sink[position - 1], element) > 0; --position) {
+					sink[position] = sink[position - 1];
+				}
+				sink[position] = element;
+			}
+			return;
+		}
+
+		final int middle = (lower + upper) >>> 1;
+		this.sort(sink, source, lower, middle);
+		this.sort(sink, source, middle, upper);
+
+		if (this.compare(source[middle - 1], source[middle]) <= 0) {
+			System.arraycopy(source, lower, sink, lower, upper - lower);
+			return;
+		}
+
+		for (int left = lower, right = middle, index = lower; index < upper; ++index) {
+			sink[index] = right == upper || (left < middle && this.compare(source[left], source[right]) <= 0)
+				? source[left++]
+				: source[right++];
+		}
+	}
+
+
+	/**
+	 * Discards all elements, returning standard size segments into the pool, and retaining the
+	 * index storage unless it's capacity exceeds both the initial and the retained capacity.
+	 */
+	private void clear () {
+		for (final char[] segment : this.segments) {
+			if (segment.length == SEGMENT_SIZE) releaseSegment(segment);
+		}
+		this.segments.clear();
+		this.segment = null;
+		this.segmentPosition = 0;
+
+		if (this.positions.length > Math.max(INITIAL_CAPACITY, this.retainedCapacity)) {
+			this.positions = new long[INITIAL_CAPACITY];
+			this.lengths = new int[INITIAL_CAPACITY];
+			this.prefixes = new long[INITIAL_CAPACITY];
+		}
+		if (this.order != null && this.order.length > this.retainedCapacity) {
+			this.order = this.orderBuffer = null;
+		}
+		this.commonPrefixLength = 0;
+		this.size = 0;
+		this.readIndex = 0;
+	}
+
+
+	/**
+	 * Returns a pooled standard size segment if available, or a new one otherwise.
+	 * @return the segment
+	 */
+	static private char[] acquireSegment () {
+		final char[] segment = SEGMENT_POOL.poll();
+		if (segment == null) return new char[SEGMENT_SIZE];
+
+		SEGMENT_POOL_SIZE.decrementAndGet();
+		return segment;
+	}
+
+
+	/**
+	 * Returns the given standard size segment into the pool, unless the latter is full.
+	 * @param segment the segment
+	 */
+	static private void releaseSegment (final char[] segment) {
+		if (SEGMENT_POOL_SIZE.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+			SEGMENT_POOL.offer(segment);
+		} else {
+			SEGMENT_POOL_SIZE.decrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Returns a new arena sorter instance.
+	 * @return the sorter created
+	 */
+	static public MergeSorter<String> newInstance () {
+		return new ArenaSorter();
+	}
+}
@@ -0,0 +1,374 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.ds.sort.CspCodec.StringCodec;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * String sorter implementation that forwards all requests to a sort server like a
+ * {@linkplain ProxySorter proxy sorter}, but decouples the caller from the network. Written
+ * elements are collected into batches and handed over to a background sender thread via a
+ * bounded queue, while a background receiver thread prefetches response batches into another
+ * bounded queue. This way, a client can produce the next elements while previous ones are
+ * still being transmitted, and consume sorted elements while subsequent ones are still in
+ * flight. Additionally, the completion of the server side sort can be awaited asynchronously.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class AsyncProxySorter implements MergeSorter<String> {
+	static private final int BATCH_SIZE = 0x400;
+	static private final int QUEUE_CAPACITY = 16;
+	static private final String[] END_BATCH = {};
+
+	private final Socket connection;
+	private final StringCodec codec;
+	private final BlockingQueue<String[]> sendQueue;
+	private final BlockingQueue<String[]> receiveQueue;
+	private final Thread sender, receiver;
+	private volatile Throwable failure;
+	private volatile CompletableFuture<Void> sortCompletion;
+	private String[] writeBatch;
+	private int writePosition;
+	private String[] readBatch;
+	private int readPosition;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address, and binary framing.
+	 * @param serviceAddress the service address
+	 * @throws NullPointerException if the given service address is {@code null}
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public AsyncProxySorter (final InetSocketAddress serviceAddress) throws NullPointerException, IOException {
+		this(serviceAddress, Framing.BINARY);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address and framing.
+	 * @param serviceAddress the service address
+	 * @param framing the framing
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support the given framing
+	 */
+	public AsyncProxySorter (final InetSocketAddress serviceAddress, final Framing framing) throws NullPointerException, IOException {
+		if (framing == null) throw new NullPointerException();
+
+		this.connection = new Socket(serviceAddress.getAddress(), serviceAddress.getPort());
+		try {
+			this.codec = CspCodec.connect(this.connection, framing);
+		} catch (final IOException | RuntimeException exception) {
+			this.connection.close();
+			throw exception;
+		}
+
+		this.sendQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.receiveQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.writeBatch = new String[BATCH_SIZE];
+		this.state = State.WRITE;
+
+		this.sender = new Thread(this::send, "csp-sender");
+		this.receiver = new Thread(this::receive, "csp-receiver");
+		this.sender.setDaemon(true);
+		this.receiver.setDaemon(true);
+		this.sender.start();
+		this.receiver.start();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.sender.interrupt();
+			this.receiver.interrupt();
+			try {
+				this.codec.close();
+			} finally {
+				this.connection.close();
+			}
+		} finally {
+			this.sendQueue.clear();
+			this.receiveQueue.clear();
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.sortCompletion = new CompletableFuture<>();
+			this.flushWriteBatch();
+			this.enqueue(END_BATCH);
+			this.state = State.SORT;
+		} else {
+			this.writeBatch[this.writePosition++] = element;
+			if (this.writePosition == BATCH_SIZE) this.flushWriteBatch();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			if (batch[index] == null) throw new NullPointerException();
+		}
+
+		for (int position = offset; position < offset + length; ) {
+			final int count = Math.min(offset + length - position, BATCH_SIZE - this.writePosition);
+			System.arraycopy(batch, position, this.writeBatch, this.writePosition, count);
+			this.writePosition += count;
+			position += count;
+			if (this.writePosition == BATCH_SIZE) this.flushWriteBatch();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.readBatch = null;
+		this.readPosition = 0;
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * Sorts the elements like {@link #sort()}, and additionally returns a future that completes
+	 * once the server has finished sorting, i.e. once the first response data has arrived. The
+	 * future completes exceptionally if the response cannot be received.
+	 * @return the sort completion future
+	 * @throws IllegalStateException if the sorter is not in {@link State#SORT} state
+	 */
+	public CompletableFuture<Void> sortAsync () throws IllegalStateException {
+		this.sort();
+		return this.sortCompletion;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeReadBatch();
+		if (this.readPosition < this.readBatch.length) return this.readBatch[this.readPosition++];
+
+		this.readBatch = null;
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		int count = 0;
+		while (count < buffer.length) {
+			if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeReadBatch();
+
+			final int length = Math.min(buffer.length - count, this.readBatch.length - this.readPosition);
+			if (length == 0) {
+				this.readBatch = null;
+				this.state = State.WRITE;
+				break;
+			}
+
+			System.arraycopy(this.readBatch, this.readPosition, buffer, count, length);
+			this.readPosition += length;
+			count += length;
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Hands the current write batch over to the sender, unless it is empty.
+	 * @throws IOException if the sender has failed
+	 */
+	private void flushWriteBatch () throws IOException {
+		if (this.writePosition == 0) return;
+
+		this.enqueue(this.writePosition == BATCH_SIZE ? this.writeBatch : Arrays.copyOf(this.writeBatch, this.writePosition));
+		this.writeBatch = new String[BATCH_SIZE];
+		this.writePosition = 0;
+	}
+
+
+	/**
+	 * Hands the given batch over to the sender.
+	 * @param batch the batch
+	 * @throws IOException if the sender or receiver has failed
+	 */
+	private void enqueue (final String[] batch) throws IOException {
+		this.rethrowFailure();
+		Uninterruptibles.put(this.sendQueue, batch);
+	}
+
+
+	/**
+	 * Takes the next response batch prefetched by the receiver, and precisely rethrows any
+	 * failure if said batch is the last one.
+	 * @throws IOException if the sender or receiver has failed
+	 */
+	private void takeReadBatch () throws IOException {
+		this.readBatch = Uninterruptibles.take(this.receiveQueue);
+		this.readPosition = 0;
+		if (this.readBatch.length < BATCH_SIZE) this.rethrowFailure();
+	}
+
+
+	/**
+	 * Precisely rethrows the failure of the sender or receiver, if any.
+	 * @throws IOException if the sender or receiver has failed
+	 */
+	private void rethrowFailure () throws IOException {
+		final Throwable failure = this.failure;
+		if (failure == null) return;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Sends the batches handed over by the caller, followed by the end of the request whenever
+	 * the caller hands over an empty batch. This operation is performed by the sender thread
+	 * until it is interrupted. If sending fails, the connection is closed, and subsequent
+	 * batches are discarded so the caller cannot block.
+	 */
+	private void send () {
+		try {
+			while (true) {
+				final String[] batch = this.sendQueue.take();
+				if (batch == END_BATCH) {
+					this.codec.writeEnd();
+				} else {
+					for (final String element : batch) {
+						this.codec.write(element);
+					}
+				}
+			}
+		} catch (final InterruptedException exception) {
+			return;
+		} catch (final IOException | RuntimeException | Error exception) {
+			if (this.failure == null) this.failure = exception;
+			try { this.connection.close(); } catch (final IOException nestedException) {}
+		}
+
+		try {
+			while (true) this.sendQueue.take();
+		} catch (final InterruptedException exception) {
+			return;
+		}
+	}
+
+
+	/**
+	 * Receives the response elements, and hands them over to the caller in batches; the last
+	 * batch of each response is not full, which may require an additional empty batch. This
+	 * operation is performed by the receiver thread until the connection is closed. If receiving
+	 * fails for other reasons than the caller closing the connection, an empty batch is handed
+	 * over after recording the failure, and the pending sort completion future is completed
+	 * exceptionally.
+	 */
+	private void receive () {
+		try {
+			while (true) {
+				String element = this.codec.read();
+				this.sortCompletion.complete(null);
+
+				final List<String> batch = new ArrayList<>(BATCH_SIZE);
+				for (; element != null; element = this.codec.read()) {
+					batch.add(element);
+					if (batch.size() == BATCH_SIZE) {
+						this.receiveQueue.put(batch.toArray(new String[BATCH_SIZE]));
+						batch.clear();
+					}
+				}
+				this.receiveQueue.put(batch.toArray(new String[batch.size()]));
+			}
+		} catch (final InterruptedException exception) {
+			return;
+		} catch (final IOException | RuntimeException | Error exception) {
+			if (this.failure == null) {
+				if (this.connection.isClosed()) return;	// the caller closed the connection
+				this.failure = exception;
+			}
+
+			final CompletableFuture<Void> sortCompletion = this.sortCompletion;
+			if (sortCompletion != null) sortCompletion.completeExceptionally(exception);
+			try {
+				this.receiveQueue.put(END_BATCH);
+			} catch (final InterruptedException nestedException) {
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one
+	 * asynchronous proxy sorter instance for each of the given socket addresses. If there is
+	 * exactly one given socket address, the result will be the sole proxy sorter instance
+	 * created. Otherwise, the result will be a k-way merge sorter instance that distributes
+	 * elements adaptively, as the servers may differ in speed and load.
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there is no argument given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (serviceAddresses.length == 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<String>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new AsyncProxySorter(serviceAddress));
+		return leaves.size() == 1 ? leaves.get(0) : new KWayMergeSorter<>(leaves, KWayMergeSorter.Distribution.ADAPTIVE);
+	}
+}
@@ -0,0 +1,146 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.Supplier;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Aggregating sorter implementation that decorates a tally sorter, usually a merge node whose
+ * children are {@linkplain TallySorter tally sorters} or {@linkplain TallyProxySorter tally proxy
+ * sorters}. While reading, the counts of subsequent tallies with equal elements are summed up,
+ * which collapses the duplicates that emerge when merging the children's distinct tallies.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class CombiningSorter<E extends Comparable<E>> implements MergeSorter<Tally<E>> {
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+
+	private final MergeSorter<Tally<E>> delegate;
+	private Tally<E> head;
+	private boolean drained;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given delegate.
+	 * @param delegate the delegate sorter
+	 * @throws NullPointerException if the given delegate is {@code null}
+	 */
+	public CombiningSorter (final MergeSorter<Tally<E>> delegate) throws NullPointerException {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.delegate.close();
+		} finally {
+			this.head = null;
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final Tally<E> tally) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.delegate.write(tally);
+		if (tally == null) this.state = State.SORT;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final Tally<E>[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.delegate.write(batch, offset, length);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.delegate.sort();
+		this.head = this.delegate.read();
+		this.drained = this.head == null;
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Tally<E> read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final Tally<E> first = this.head;
+		if (first == null) {
+			this.state = State.WRITE;
+			return null;
+		}
+
+		long count = first.getCount();
+		Tally<E> next = null;
+		while (!this.drained) {
+			next = this.delegate.read();
+			if (next == null) {
+				this.drained = true;
+			} else if (next.compareTo(first) == 0) {
+				count += next.getCount();
+				next = null;
+			} else {
+				break;
+			}
+		}
+
+		this.head = next;
+		return count == first.getCount() ? first : new Tally<>(first.getElement(), count);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. The tree will contain as many
+	 * tally sorter leaves as there are processors within this system, merged by a k-way merge
+	 * sorter, and decorated with a combining sorter.
+	 * @return the root sorter created
+	 */
+	static public <T extends Comparable<T>> MergeSorter<Tally<T>> newInstance () {
+		return newInstance(TallySorter::new);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. The tree will contain as many leaf
+	 * sorter instances as there are processors within this system, each created using the given
+	 * leaf factory, merged by a k-way merge sorter, and decorated with a combining sorter.
+	 * @param leafFactory the factory creating the leaf sorters
+	 * @return the root sorter created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 */
+	static public <T extends Comparable<T>> MergeSorter<Tally<T>> newInstance (final Supplier<MergeSorter<Tally<T>>> leafFactory) throws NullPointerException {
+		return new CombiningSorter<>(KWayMergeSorter.newInstance(leafFactory, CORES));
+	}
+}
@@ -0,0 +1,1159 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Codec for the element streams of the custom sort protocol (CSP), supporting both the legacy
+ * text framing and a versioned binary framing. The binary framing is negotiated by the client
+ * sending a preamble directly after connecting, which the server acknowledges; a connection
+ * whose first byte is not {@code 0} uses text framing. In binary framing, each element is
+ * prefixed with it's UTF-8 length plus one, encoded as an unsigned LEB128 variable length
+ * integer, which allows empty elements and elements containing line separators; a length prefix
+ * of zero demarcates the end of CSP requests and responses. If compression is negotiated, the
+ * frames of each request and response are compressed as a block of LZ77 based deflate data,
+ * which is sync-flushed at the end of the block. If integer elements are negotiated instead,
+ * each frame carries a block of signed 64-bit integers, prefixed with the number of integers
+ * plus one. If counted elements are negotiated, each element frame is followed by the number of
+ * it's occurrences, which allows transmitting {@linkplain Tally tallies} of equal elements.
+ * A client may also limit the number of elements within each string response to the given
+ * number of lowest elements, which allows the server to discard all others early. Finally, if
+ * multiplexing is negotiated, each string frame is prefixed with the identifier of the stream it
+ * belongs to, which allows many independent requests and responses to interleave on a single
+ * connection. Frames carrying more than {@value #MAX_FRAME_LENGTH} bytes are rejected, which
+ * prevents peers from exhausting the heap by announcing huge frames. The syntax is defined
+ * in EBNF as follows:
+ * <pre>
+ * preamble		:= 0x00, "CSP", version, flags, [ varint(limit) ]
+ * version		:= 0x01
+ * flags		:= 0x00 | 0x01 (compressed) | 0x02 (int64) | 0x04 (counted)
+ * 				| 0x08 (limited) | 0x09 (compressed, limited) | 0x10 (multiplexed)
+ * cspRequest	:= { frame }, endFrame
+ * cspResponse	:= { frame }, endFrame
+ * frame		:= varint(length + 1), utf8-bytes
+ * 				| varint(count + 1), { int64-big-endian }
+ * 				| varint(length + 1), utf8-bytes, varint(occurrences)
+ * 				| varint(stream), varint(length + 1), utf8-bytes
+ * endFrame		:= varint(0)
+ * 				| varint(stream), varint(0)
+ * </pre>
+ * Each element type is served by a separate codec type: {@link StringCodec} for the text,
+ * binary and compressed framings, {@link LongCodec} for integer elements, {@link TallyCodec}
+ * for counted elements, and {@link MultiplexedCodec} for multiplexed string elements. Clients
+ * obtain them from the connect method matching their element type, while servers accept
+ * whatever codec the client negotiates, and dispatch on it's type.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public abstract class CspCodec implements AutoCloseable {
+	static private final int BUFFER_SIZE = 0xF000;
+	static final int MAX_FRAME_LENGTH = 0x1000000;
+	static final byte[] MAGIC = { 0x00, 'C', 'S', 'P' };
+	static final byte VERSION = 0x01;
+	static final byte FLAG_COMPRESSED = 0x01;
+	static final byte FLAG_INT64 = 0x02;
+	static final byte FLAG_COUNTED = 0x04;
+	static final byte FLAG_LIMITED = 0x08;
+	static final byte FLAG_MULTIPLEXED = 0x10;
+
+	/**
+	 * Describes the element framings supported.
+	 */
+	static public enum Framing {
+
+		/**
+		 * Legacy line separated UTF-8 text framing.
+		 */
+		TEXT,
+
+		/**
+		 * Length-prefixed binary framing.
+		 */
+		BINARY,
+
+		/**
+		 * Length-prefixed binary framing, with each request and response block being compressed.
+		 */
+		COMPRESSED,
+
+		/**
+		 * Count-prefixed binary framing of signed 64-bit integer blocks.
+		 */
+		INT64,
+
+		/**
+		 * Length-prefixed binary framing, with each element being followed by it's number
+		 * of occurrences.
+		 */
+		COUNTED,
+
+		/**
+		 * Length-prefixed binary framing, with each element and end frame being prefixed by
+		 * the identifier of the stream it belongs to.
+		 */
+		MULTIPLEXED
+	}
+
+
+	private final Framing framing;
+	private final CountingInputStream byteCountSource;
+	private final CountingOutputStream byteCountSink;
+
+
+	/**
+	 * Initializes a new instance.
+	 * @param framing the framing
+	 * @param byteCountSource the connection's byte source counting the bytes received
+	 * @param byteCountSink the connection's byte sink counting the bytes sent
+	 */
+	private CspCodec (final Framing framing, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+		this.framing = framing;
+		this.byteCountSource = byteCountSource;
+		this.byteCountSink = byteCountSink;
+	}
+
+
+	/**
+	 * Returns the framing.
+	 * @return the framing
+	 */
+	public Framing getFraming () {
+		return this.framing;
+	}
+
+
+	/**
+	 * Writes the end of the current request or response, and flushes it.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public abstract void writeEnd () throws IOException;
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public abstract void close () throws IOException;
+
+
+	/**
+	 * Returns the number of bytes received from the connection so far, including the preamble.
+	 * Note that this includes bytes buffered but not yet decoded, and that compressed framing
+	 * counts compressed bytes.
+	 * @return the number of bytes received
+	 */
+	public long getBytesRead () {
+		return this.byteCountSource.count;
+	}
+
+
+	/**
+	 * Returns the number of bytes sent to the connection so far, including the preamble. Note
+	 * that this excludes bytes buffered but not yet flushed, and that compressed framing counts
+	 * compressed bytes.
+	 * @return the number of bytes sent
+	 */
+	public long getBytesWritten () {
+		return this.byteCountSink.count;
+	}
+
+
+	/**
+	 * Returns a new client side string codec for the given connection, negotiating the given
+	 * framing with the server if necessary.
+	 * @param connection the TCP connection
+	 * @param framing the framing, either {@link Framing#TEXT}, {@link Framing#BINARY},
+	 *        or {@link Framing#COMPRESSED}
+	 * @return the codec created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given framing does not carry plain strings
+	 * @throws ProtocolException if the server does not acknowledge the given framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public StringCodec connect (final Socket connection, final Framing framing) throws NullPointerException, IllegalArgumentException, ProtocolException, IOException {
+		return connect(connection, framing, 0);
+	}
+
+
+	/**
+	 * Returns a new client side string codec for the given connection, negotiating the given
+	 * framing and response limit with the server if necessary.
+	 * @param connection the TCP connection
+	 * @param framing the framing, either {@link Framing#TEXT}, {@link Framing#BINARY},
+	 *        or {@link Framing#COMPRESSED}
+	 * @param limit the maximum number of lowest elements per response, or {@code 0} for unlimited
+	 * @return the codec created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given framing does not carry plain strings, if the
+	 *         given limit is negative, or if it is positive while the given framing is
+	 *         {@link Framing#TEXT}
+	 * @throws ProtocolException if the server does not acknowledge the given framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public StringCodec connect (final Socket connection, final Framing framing, final int limit) throws NullPointerException, IllegalArgumentException, ProtocolException, IOException {
+		if (framing != Framing.TEXT & framing != Framing.BINARY & framing != Framing.COMPRESSED) throw new IllegalArgumentException();
+		if (limit < 0 || (limit > 0 && framing == Framing.TEXT)) throw new IllegalArgumentException();
+
+		final CountingInputStream byteCountSource = new CountingInputStream(connection.getInputStream());
+		final CountingOutputStream byteSink = new CountingOutputStream(connection.getOutputStream());
+		final InputStream byteSource = new BufferedInputStream(byteCountSource, BUFFER_SIZE);
+		if (framing == Framing.TEXT) return new TextCodec(byteSource, byteCountSource, byteSink);
+
+		negotiate(byteSource, byteSink, framing, limit);
+		return new BinaryCodec(framing, limit, new FrameChannel(framing, byteSource, byteSink), byteCountSource, byteSink);
+	}
+
+
+	/**
+	 * Returns a new client side integer codec for the given connection, negotiating
+	 * {@link Framing#INT64} with the server.
+	 * @param connection the TCP connection
+	 * @return the codec created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 * @throws ProtocolException if the server does not acknowledge the framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public LongCodec connectLongs (final Socket connection) throws NullPointerException, ProtocolException, IOException {
+		final CountingInputStream byteCountSource = new CountingInputStream(connection.getInputStream());
+		final CountingOutputStream byteSink = new CountingOutputStream(connection.getOutputStream());
+		final InputStream byteSource = new BufferedInputStream(byteCountSource, BUFFER_SIZE);
+
+		negotiate(byteSource, byteSink, Framing.INT64, 0);
+		return new LongCodec(new FrameChannel(Framing.INT64, byteSource, byteSink), byteCountSource, byteSink);
+	}
+
+
+	/**
+	 * Returns a new client side tally codec for the given connection, negotiating
+	 * {@link Framing#COUNTED} with the server.
+	 * @param connection the TCP connection
+	 * @return the codec created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 * @throws ProtocolException if the server does not acknowledge the framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public TallyCodec connectTallies (final Socket connection) throws NullPointerException, ProtocolException, IOException {
+		final CountingInputStream byteCountSource = new CountingInputStream(connection.getInputStream());
+		final CountingOutputStream byteSink = new CountingOutputStream(connection.getOutputStream());
+		final InputStream byteSource = new BufferedInputStream(byteCountSource, BUFFER_SIZE);
+
+		negotiate(byteSource, byteSink, Framing.COUNTED, 0);
+		return new TallyCodec(new FrameChannel(Framing.COUNTED, byteSource, byteSink), byteCountSource, byteSink);
+	}
+
+
+	/**
+	 * Returns a new client side multiplexed codec for the given connection, negotiating
+	 * {@link Framing#MULTIPLEXED} with the server.
+	 * @param connection the TCP connection
+	 * @return the codec created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 * @throws ProtocolException if the server does not acknowledge the framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MultiplexedCodec connectMultiplexed (final Socket connection) throws NullPointerException, ProtocolException, IOException {
+		final CountingInputStream byteCountSource = new CountingInputStream(connection.getInputStream());
+		final CountingOutputStream byteSink = new CountingOutputStream(connection.getOutputStream());
+		final InputStream byteSource = new BufferedInputStream(byteCountSource, BUFFER_SIZE);
+
+		negotiate(byteSource, byteSink, Framing.MULTIPLEXED, 0);
+		return new MultiplexedCodec(new FrameChannel(Framing.MULTIPLEXED, byteSource, byteSink), byteCountSource, byteSink);
+	}
+
+
+	/**
+	 * Returns a new server side codec for the given connection, accepting whatever framing
+	 * the client requests. The codec's type corresponds to the framing negotiated: it is a
+	 * {@link StringCodec} for {@link Framing#TEXT}, {@link Framing#BINARY} and
+	 * {@link Framing#COMPRESSED}, a {@link LongCodec} for {@link Framing#INT64}, a
+	 * {@link TallyCodec} for {@link Framing#COUNTED}, and a {@link MultiplexedCodec} for
+	 * {@link Framing#MULTIPLEXED}.
+	 * @param connection the TCP connection
+	 * @return the codec created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 * @throws ProtocolException if the client requests an unsupported framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public CspCodec accept (final Socket connection) throws NullPointerException, ProtocolException, IOException {
+		final CountingInputStream byteCountSource = new CountingInputStream(connection.getInputStream());
+		final CountingOutputStream byteSink = new CountingOutputStream(connection.getOutputStream());
+		final InputStream byteSource = new BufferedInputStream(byteCountSource, BUFFER_SIZE);
+
+		byteSource.mark(1);
+		final int head = byteSource.read();
+		byteSource.reset();
+		if (head != MAGIC[0]) return new TextCodec(byteSource, byteCountSource, byteSink);
+
+		final byte[] preamble = new byte[MAGIC.length + 2];
+		readFully(byteSource, preamble);
+		if (!Arrays.equals(MAGIC, Arrays.copyOf(preamble, MAGIC.length))) throw new ProtocolException("illegal preamble");
+		if (preamble[MAGIC.length] != VERSION) throw new ProtocolException("unsupported version " + preamble[MAGIC.length]);
+		final boolean limited = (preamble[MAGIC.length + 1] & FLAG_LIMITED) != 0;
+		final Framing framing;
+		switch (preamble[MAGIC.length + 1] & ~FLAG_LIMITED) {
+			case 0:
+				framing = Framing.BINARY;
+				break;
+			case FLAG_COMPRESSED:
+				framing = Framing.COMPRESSED;
+				break;
+			case FLAG_INT64:
+				framing = Framing.INT64;
+				break;
+			case FLAG_COUNTED:
+				framing = Framing.COUNTED;
+				break;
+			case FLAG_MULTIPLEXED:
+				framing = Framing.MULTIPLEXED;
+				break;
+			default:
+				throw new ProtocolException("unsupported flags " + preamble[MAGIC.length + 1]);
+		}
+
+		int limit = 0, length = preamble.length;
+		final byte[] acknowledge = Arrays.copyOf(preamble, length + 5);
+		if (limited) {
+			if (framing != Framing.BINARY & framing != Framing.COMPRESSED) throw new ProtocolException("unsupported flags " + preamble[MAGIC.length + 1]);
+
+			for (int shift = 0, value = 0x80; (value & 0x80) != 0; shift += 7) {
+				if (shift > 28) throw new ProtocolException("illegal limit");
+				value = byteSource.read();
+				if (value == -1) throw new EOFException();
+				limit |= (value & 0x7F) << shift;
+				acknowledge[length++] = (byte) value;
+			}
+			if (limit <= 0) throw new ProtocolException("illegal limit");
+		}
+
+		// acknowledge only once the whole preamble has been validated
+		byteSink.write(acknowledge, 0, length);
+		byteSink.flush();
+		final FrameChannel channel = new FrameChannel(framing, byteSource, byteSink);
+		switch (framing) {
+			case INT64:
+				return new LongCodec(channel, byteCountSource, byteSink);
+			case COUNTED:
+				return new TallyCodec(channel, byteCountSource, byteSink);
+			case MULTIPLEXED:
+				return new MultiplexedCodec(channel, byteCountSource, byteSink);
+			default:
+				return new BinaryCodec(framing, limit, channel, byteCountSource, byteSink);
+		}
+	}
+
+
+	/**
+	 * Sends the preamble requesting the given binary framing and response limit, and waits
+	 * for the server's acknowledgement.
+	 * @param byteSource the connection's byte source
+	 * @param byteSink the connection's byte sink
+	 * @param framing the binary framing
+	 * @param limit the maximum number of lowest elements per response, or {@code 0} for unlimited
+	 * @throws ProtocolException if the server does not acknowledge the given framing
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void negotiate (final InputStream byteSource, final OutputStream byteSink, final Framing framing, final int limit) throws ProtocolException, IOException {
+		final byte[] preamble = Arrays.copyOf(MAGIC, MAGIC.length + 2 + (limit == 0 ? 0 : 5));
+		preamble[MAGIC.length] = VERSION;
+		switch (framing) {
+			case COMPRESSED:
+				preamble[MAGIC.length + 1] = FLAG_COMPRESSED;
+				break;
+			case INT64:
+				preamble[MAGIC.length + 1] = FLAG_INT64;
+				break;
+			case COUNTED:
+				preamble[MAGIC.length + 1] = FLAG_COUNTED;
+				break;
+			case MULTIPLEXED:
+				preamble[MAGIC.length + 1] = FLAG_MULTIPLEXED;
+				break;
+			default:
+				break;
+		}
+
+		int length = MAGIC.length + 2;
+		if (limit > 0) {
+			preamble[MAGIC.length + 1] |= FLAG_LIMITED;
+			for (int remainder = limit; true; remainder >>>= 7) {
+				if (remainder < 0x80) {
+					preamble[length++] = (byte) remainder;
+					break;
+				}
+				preamble[length++] = (byte) ((remainder & 0x7F) | 0x80);
+			}
+		}
+		byteSink.write(preamble, 0, length);
+		byteSink.flush();
+
+		final byte[] acknowledge = new byte[length];
+		readFully(byteSource, acknowledge);
+		if (!Arrays.equals(Arrays.copyOf(preamble, length), acknowledge)) throw new ProtocolException("binary framing not acknowledged");
+	}
+
+
+	/**
+	 * Reads exactly as many bytes from the given byte source as the given buffer can hold.
+	 * @param byteSource the byte source
+	 * @param buffer the buffer
+	 * @throws EOFException if the given byte source ends prematurely
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void readFully (final InputStream byteSource, final byte[] buffer) throws EOFException, IOException {
+		for (int offset = 0, bytesRead; offset < buffer.length; offset += bytesRead) {
+			bytesRead = byteSource.read(buffer, offset, buffer.length - offset);
+			if (bytesRead == -1) throw new EOFException();
+		}
+	}
+
+
+
+	/**
+	 * Codec for string elements, using either the text, the binary, or the compressed framing.
+	 * Binary string codecs may additionally carry a response limit.
+	 */
+	static public abstract class StringCodec extends CspCodec {
+		private final int limit;
+
+
+		/**
+		 * Initializes a new instance.
+		 * @param framing the framing
+		 * @param limit the maximum number of elements per response, or {@code 0} for unlimited
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteCountSink the connection's byte sink counting the bytes sent
+		 */
+		private StringCodec (final Framing framing, final int limit, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+			super(framing, byteCountSource, byteCountSink);
+			this.limit = limit;
+		}
+
+
+		/**
+		 * Returns the maximum number of elements per response negotiated.
+		 * @return the response limit, or {@code 0} for unlimited
+		 */
+		public int getLimit () {
+			return this.limit;
+		}
+
+
+		/**
+		 * Returns the next element, or {@code null} if the end of the current request or
+		 * response has been reached.
+		 * @return the next element, or {@code null} for none
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public abstract String read () throws EOFException, IOException;
+
+
+		/**
+		 * Writes the given element, without flushing it.
+		 * @param element the element
+		 * @throws NullPointerException if the given element is {@code null}
+		 * @throws IllegalArgumentException if the given element cannot be represented using
+		 *         this codec's framing
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public abstract void write (String element) throws NullPointerException, IllegalArgumentException, IOException;
+	}
+
+
+
+	/**
+	 * Codec for signed 64-bit integer elements, using {@link Framing#INT64}.
+	 */
+	static public final class LongCodec extends CspCodec {
+		private final FrameChannel channel;
+		private int blockRemaining;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param channel the frame channel
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteCountSink the connection's byte sink counting the bytes sent
+		 */
+		private LongCodec (final FrameChannel channel, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+			super(Framing.INT64, byteCountSource, byteCountSink);
+			this.channel = channel;
+		}
+
+
+		/**
+		 * Reads the next elements into the given buffer, and returns the number of elements
+		 * read. If this number is smaller than the buffer length, the end of the current request
+		 * or response has been reached.
+		 * @param buffer the buffer
+		 * @return the number of elements read
+		 * @throws NullPointerException if the given buffer is {@code null}
+		 * @throws IllegalArgumentException if the given buffer is empty
+		 * @throws ProtocolException if a block exceeds the maximum frame length
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public int read (final long[] buffer) throws NullPointerException, IllegalArgumentException, ProtocolException, EOFException, IOException {
+			if (buffer.length == 0) throw new IllegalArgumentException();
+
+			int count = 0;
+			while (count < buffer.length) {
+				if (this.blockRemaining == 0) {
+					final int prefix = this.channel.readPrefix();
+					if (prefix == 0) break;
+					if (prefix - 1 > MAX_FRAME_LENGTH >> 3) throw new ProtocolException("illegal frame length");
+					this.blockRemaining = prefix - 1;
+					continue;
+				}
+
+				final int length = Math.min(this.blockRemaining, buffer.length - count);
+				final byte[] bytes = this.channel.readFully(length << 3);
+				for (int index = 0, position = 0; index < length; ++index) {
+					long value = 0;
+					for (final int end = position + 8; position < end; ++position) {
+						value = (value << 8) | (bytes[position] & 0xFF);
+					}
+					buffer[count++] = value;
+				}
+				this.blockRemaining -= length;
+			}
+
+			return count;
+		}
+
+
+		/**
+		 * Writes the given batch of elements, without flushing it. Batches exceeding the
+		 * maximum frame length are split into several blocks.
+		 * @param batch the batch
+		 * @param offset the offset of the first element to be written
+		 * @param length the number of elements to be written
+		 * @throws NullPointerException if the given batch is {@code null}
+		 * @throws IndexOutOfBoundsException if the given offset or length is out of bounds
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void write (final long[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IOException {
+			if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+
+			for (int index = offset; index < offset + length; index += MAX_FRAME_LENGTH >> 3) {
+				final int blockLength = Math.min(MAX_FRAME_LENGTH >> 3, offset + length - index);
+				final byte[] bytes = this.channel.buffer(blockLength << 3);
+				for (int elementIndex = index, position = 0; elementIndex < index + blockLength; ++elementIndex) {
+					final long value = batch[elementIndex];
+					for (int shift = 56; shift >= 0; shift -= 8) {
+						bytes[position++] = (byte) (value >>> shift);
+					}
+				}
+
+				this.channel.writePrefix(blockLength + 1L);
+				this.channel.write(bytes, blockLength << 3);
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeEnd () throws IOException {
+			this.channel.writeEnd();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Codec for {@linkplain Tally tallies} of string elements, using {@link Framing#COUNTED}.
+	 */
+	static public final class TallyCodec extends CspCodec {
+		private final FrameChannel channel;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param channel the frame channel
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteCountSink the connection's byte sink counting the bytes sent
+		 */
+		private TallyCodec (final FrameChannel channel, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+			super(Framing.COUNTED, byteCountSource, byteCountSink);
+			this.channel = channel;
+		}
+
+
+		/**
+		 * Returns the next tally, or {@code null} if the end of the current request or response
+		 * has been reached.
+		 * @return the next tally, or {@code null} for none
+		 * @throws ProtocolException if the element exceeds the maximum frame length, or if the
+		 *         occurrence count is illegal
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public Tally<String> read () throws ProtocolException, EOFException, IOException {
+			final String element = this.channel.readString();
+			if (element == null) return null;
+
+			final long count = this.channel.readCount();
+			if (count <= 0) throw new ProtocolException("illegal occurrence count");
+			return new Tally<>(element, count);
+		}
+
+
+		/**
+		 * Writes the given tally, without flushing it.
+		 * @param tally the tally
+		 * @throws NullPointerException if the given tally is {@code null}
+		 * @throws IllegalArgumentException if the given tally's element exceeds the maximum
+		 *         frame length
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void write (final Tally<String> tally) throws NullPointerException, IllegalArgumentException, IOException {
+			this.channel.writeString(tally.getElement());
+			this.channel.writePrefix(tally.getCount());
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeEnd () throws IOException {
+			this.channel.writeEnd();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Codec for string elements of many interleaved streams, using {@link Framing#MULTIPLEXED}.
+	 * Each frame consists of a stream identifier, followed by an element or the end of the
+	 * stream's current request or response. Note that writers of different streams must
+	 * synchronize on this codec to write both parts of a frame atomically.
+	 */
+	static public final class MultiplexedCodec extends CspCodec {
+		private final FrameChannel channel;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param channel the frame channel
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteCountSink the connection's byte sink counting the bytes sent
+		 */
+		private MultiplexedCodec (final FrameChannel channel, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+			super(Framing.MULTIPLEXED, byteCountSource, byteCountSink);
+			this.channel = channel;
+		}
+
+
+		/**
+		 * Returns the stream identifier of the next frame, which must be read subsequently using
+		 * {@link #read()}.
+		 * @return the stream identifier
+		 * @throws ProtocolException if the stream identifier exceeds the integer range
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public int readStream () throws ProtocolException, EOFException, IOException {
+			return this.channel.readPrefix();
+		}
+
+
+		/**
+		 * Returns the element of the current frame, or {@code null} if the frame ends the
+		 * stream's current request or response.
+		 * @return the element, or {@code null} for none
+		 * @throws ProtocolException if the element exceeds the maximum frame length
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public String read () throws ProtocolException, EOFException, IOException {
+			return this.channel.readString();
+		}
+
+
+		/**
+		 * Writes the stream identifier of the next frame, which must be written subsequently
+		 * using {@link #write(String)} or {@link #writeEnd()}.
+		 * @param streamIdentifier the stream identifier
+		 * @throws IllegalArgumentException if the given stream identifier is negative
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void writeStream (final int streamIdentifier) throws IllegalArgumentException, IOException {
+			if (streamIdentifier < 0) throw new IllegalArgumentException();
+
+			this.channel.writePrefix(streamIdentifier);
+		}
+
+
+		/**
+		 * Writes the given element as the remainder of the current frame, without flushing it.
+		 * @param element the element
+		 * @throws NullPointerException if the given element is {@code null}
+		 * @throws IllegalArgumentException if the given element exceeds the maximum frame length
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void write (final String element) throws NullPointerException, IllegalArgumentException, IOException {
+			this.channel.writeString(element);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeEnd () throws IOException {
+			this.channel.writeEnd();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.channel.close();
+		}
+	}
+
+
+
+	/**
+	 * String codec implementation for the legacy text framing, which cannot carry empty
+	 * elements, or elements containing line separators.
+	 */
+	static private final class TextCodec extends StringCodec {
+		private final BufferedReader charSource;
+		private final BufferedWriter charSink;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param byteSource the byte source
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteSink the connection's byte sink counting the bytes sent
+		 */
+		public TextCodec (final InputStream byteSource, final CountingInputStream byteCountSource, final CountingOutputStream byteSink) {
+			super(Framing.TEXT, 0, byteCountSource, byteSink);
+			this.charSource = new BufferedReader(new InputStreamReader(byteSource, UTF_8), BUFFER_SIZE);
+			this.charSink = new BufferedWriter(new OutputStreamWriter(byteSink, UTF_8), BUFFER_SIZE);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public String read () throws EOFException, IOException {
+			final String line = this.charSource.readLine();
+			if (line == null) throw new EOFException();
+			return line.isEmpty() ? null : line;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void write (final String element) throws NullPointerException, IllegalArgumentException, IOException {
+			if (element.isEmpty() || element.indexOf('\n') != -1 || element.indexOf('\r') != -1) throw new IllegalArgumentException();
+
+			this.charSink.write(element);
+			this.charSink.newLine();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeEnd () throws IOException {
+			this.charSink.newLine();
+			this.charSink.flush();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			try {
+				this.charSink.close();
+			} finally {
+				this.charSource.close();
+			}
+		}
+	}
+
+
+
+	/**
+	 * String codec implementation for the binary and compressed framings.
+	 */
+	static private final class BinaryCodec extends StringCodec {
+		private final FrameChannel channel;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param framing the framing, either {@link Framing#BINARY} or {@link Framing#COMPRESSED}
+		 * @param limit the maximum number of elements per response, or {@code 0} for unlimited
+		 * @param channel the frame channel
+		 * @param byteCountSource the connection's byte source counting the bytes received
+		 * @param byteCountSink the connection's byte sink counting the bytes sent
+		 */
+		public BinaryCodec (final Framing framing, final int limit, final FrameChannel channel, final CountingInputStream byteCountSource, final CountingOutputStream byteCountSink) {
+			super(framing, limit, byteCountSource, byteCountSink);
+			this.channel = channel;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public String read () throws ProtocolException, EOFException, IOException {
+			return this.channel.readString();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void write (final String element) throws NullPointerException, IllegalArgumentException, IOException {
+			this.channel.writeString(element);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void writeEnd () throws IOException {
+			this.channel.writeEnd();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class encode and decode the frames shared by all binary framings,
+	 * optionally compressing each request and response block.
+	 */
+	static private final class FrameChannel implements AutoCloseable {
+		private final InputStream byteSource;
+		private final OutputStream byteSink;
+		private final Inflater inflater;
+		private final Deflater deflater;
+		private byte[] buffer;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param framing the binary framing
+		 * @param byteSource the connection's byte source
+		 * @param byteSink the connection's byte sink
+		 */
+		public FrameChannel (final Framing framing, final InputStream byteSource, final OutputStream byteSink) {
+			if (framing == Framing.COMPRESSED) {
+				this.inflater = new Inflater(true);
+				this.deflater = new Deflater(Deflater.BEST_SPEED, true);
+				this.byteSource = new BufferedInputStream(new InflaterInputStream(byteSource, this.inflater, BUFFER_SIZE), BUFFER_SIZE);
+				this.byteSink = new BufferedOutputStream(new DeflaterOutputStream(byteSink, this.deflater, BUFFER_SIZE, true), BUFFER_SIZE);
+			} else {
+				this.inflater = null;
+				this.deflater = null;
+				this.byteSource = byteSource;
+				this.byteSink = new BufferedOutputStream(byteSink, BUFFER_SIZE);
+			}
+			this.buffer = new byte[0x100];
+		}
+
+
+		/**
+		 * Reads a string element frame.
+		 * @return the element, or {@code null} for an end frame
+		 * @throws ProtocolException if the element exceeds the maximum frame length
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public String readString () throws ProtocolException, EOFException, IOException {
+			final int length = this.readPrefix() - 1;
+			if (length == -1) return null;
+			if (length > MAX_FRAME_LENGTH) throw new ProtocolException("illegal frame length");
+
+			return new String(this.readFully(length), 0, length, UTF_8);
+		}
+
+
+		/**
+		 * Writes a string element frame.
+		 * @param element the element
+		 * @throws NullPointerException if the given element is {@code null}
+		 * @throws IllegalArgumentException if the given element exceeds the maximum frame length
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void writeString (final String element) throws NullPointerException, IllegalArgumentException, IOException {
+			final byte[] bytes = element.getBytes(UTF_8);
+			if (bytes.length > MAX_FRAME_LENGTH) throw new IllegalArgumentException();
+
+			this.writePrefix(bytes.length + 1L);
+			this.byteSink.write(bytes);
+		}
+
+
+		/**
+		 * Reads a frame prefix.
+		 * @return the frame prefix
+		 * @throws ProtocolException if the frame prefix exceeds the integer range
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public int readPrefix () throws ProtocolException, EOFException, IOException {
+			long prefix = 0;
+			for (int shift = 0, value = 0x80; (value & 0x80) != 0; shift += 7) {
+				if (shift > 28) throw new ProtocolException("illegal frame length");
+				value = this.byteSource.read();
+				if (value == -1) throw new EOFException();
+				prefix |= (long) (value & 0x7F) << shift;
+			}
+
+			if (prefix > Integer.MAX_VALUE) throw new ProtocolException("illegal frame length");
+			return (int) prefix;
+		}
+
+
+		/**
+		 * Reads an occurrence count.
+		 * @return the occurrence count
+		 * @throws ProtocolException if the occurrence count exceeds the long range
+		 * @throws EOFException if the underlying stream has ended
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public long readCount () throws ProtocolException, EOFException, IOException {
+			long count = 0;
+			for (int shift = 0, value = 0x80; (value & 0x80) != 0; shift += 7) {
+				if (shift > 56) throw new ProtocolException("illegal occurrence count");
+				value = this.byteSource.read();
+				if (value == -1) throw new EOFException();
+				count |= (long) (value & 0x7F) << shift;
+			}
+			return count;
+		}
+
+
+		/**
+		 * Writes the given frame prefix, or any other unsigned variable length integer.
+		 * @param prefix the frame prefix
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void writePrefix (final long prefix) throws IOException {
+			long remainder = prefix;
+			for (; remainder >= 0x80; remainder >>>= 7) {
+				this.byteSink.write((int) (remainder & 0x7F) | 0x80);
+			}
+			this.byteSink.write((int) remainder);
+		}
+
+
+		/**
+		 * Returns the buffer, grown to hold at least the given number of bytes if necessary.
+		 * @param length the number of bytes
+		 * @return the buffer
+		 */
+		public byte[] buffer (final int length) {
+			if (this.buffer.length < length) this.buffer = new byte[Math.max(length, 2 * this.buffer.length)];
+			return this.buffer;
+		}
+
+
+		/**
+		 * Reads exactly the given number of bytes into the beginning of the buffer, and returns
+		 * the latter.
+		 * @param length the number of bytes
+		 * @return the buffer
+		 * @throws EOFException if the underlying stream ends prematurely
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public byte[] readFully (final int length) throws EOFException, IOException {
+			final byte[] buffer = this.buffer(length);
+			for (int offset = 0, bytesRead; offset < length; offset += bytesRead) {
+				bytesRead = this.byteSource.read(buffer, offset, length - offset);
+				if (bytesRead == -1) throw new EOFException();
+			}
+			return buffer;
+		}
+
+
+		/**
+		 * Writes the given number of bytes from the beginning of the given buffer.
+		 * @param buffer the buffer
+		 * @param length the number of bytes
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void write (final byte[] buffer, final int length) throws IOException {
+			this.byteSink.write(buffer, 0, length);
+		}
+
+
+		/**
+		 * Writes an end frame, and flushes it.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void writeEnd () throws IOException {
+			this.byteSink.write(0);
+			this.byteSink.flush();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			try {
+				try {
+					this.byteSink.close();
+				} finally {
+					this.byteSource.close();
+				}
+			} finally {
+				if (this.deflater != null) this.deflater.end();
+				if (this.inflater != null) this.inflater.end();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class count the bytes read from an underlying byte source. Note that
+	 * the count is volatile because it is usually monitored by other threads.
+	 */
+	static private final class CountingInputStream extends FilterInputStream {
+		private volatile long count;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param byteSource the underlying byte source
+		 */
+		public CountingInputStream (final InputStream byteSource) {
+			super(byteSource);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read () throws IOException {
+			final int value = this.in.read();
+			if (value != -1) this.count += 1;
+			return value;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read (final byte[] buffer, final int offset, final int length) throws IOException {
+			final int bytesRead = this.in.read(buffer, offset, length);
+			if (bytesRead > 0) this.count += bytesRead;
+			return bytesRead;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long skip (final long length) throws IOException {
+			final long bytesSkipped = this.in.skip(length);
+			this.count += bytesSkipped;
+			return bytesSkipped;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean markSupported () {
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class count the bytes written into an underlying byte sink. Note that
+	 * the count is volatile because it is usually monitored by other threads.
+	 */
+	static private final class CountingOutputStream extends FilterOutputStream {
+		private volatile long count;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param byteSink the underlying byte sink
+		 */
+		public CountingOutputStream (final OutputStream byteSink) {
+			super(byteSink);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final int value) throws IOException {
+			this.out.write(value);
+			this.count += 1;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final byte[] buffer, final int offset, final int length) throws IOException {
+			this.out.write(buffer, offset, length);
+			this.count += length;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * Sample sorter implementation that partitions elements by key range over any number of child
+ * sorters, sorts them separately using one thread per child, and then concatenates the sorted
+ * children's elements during read requests. The first elements written are buffered as a sample,
+ * and used to determine range splitters once the sample is complete; from then on, each element
+ * is routed directly to the child owning it's key range. Therefore, the children must never be
+ * merged, which removes the merge bottleneck of a {@linkplain KWayMergeSorter k-way merge sorter}
+ * when the children are {@linkplain ProxySorter proxy sorters}. However, if the sample is already
+ * sorted in either direction, as is common for presorted input or appended keys, range splitters
+ * would route almost all remaining elements to a single child; such requests are distributed
+ * evenly instead, and merged during read requests by a k-way merge sorter sharing the same
+ * children. Note that the partitions are still only balanced if the sample is representative
+ * for the remaining elements.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class DistributedSorter<E extends Comparable<E>> implements MergeSorter<E> {
+	static private final int DEFAULT_SAMPLE_SIZE = 0x4000;
+
+	private final MergeSorter<E>[] children;
+	private final KWayMergeSorter<E> merger;
+	private final int sampleSize;
+	private final List<E> sample;
+	private final E[] splitters;
+	private boolean partitioned;
+	private boolean merging;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given child sorters,
+	 * and a default sample size.
+	 * @param children the child sorters
+	 * @throws NullPointerException if the given collection is {@code null}, or contains {@code null}
+	 * @throws IllegalArgumentException if the given collection is empty
+	 */
+	public DistributedSorter (final Collection<? extends MergeSorter<E>> children) throws NullPointerException, IllegalArgumentException {
+		this(children, DEFAULT_SAMPLE_SIZE);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given child sorters.
+	 * @param children the child sorters
+	 * @param sampleSize the number of elements to be buffered for determining the range splitters
+	 * @throws NullPointerException if the given collection is {@code null}, or contains {@code null}
+	 * @throws IllegalArgumentException if the given collection is empty, or if the given sample
+	 *         size is not strictly positive
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public DistributedSorter (final Collection<? extends MergeSorter<E>> children, final int sampleSize) throws NullPointerException, IllegalArgumentException {
+		if (children.isEmpty() | sampleSize <= 0) throw new IllegalArgumentException();
+
+		this.children = children.toArray(new MergeSorter[children.size()]);
+		for (final MergeSorter<E> child : this.children) Objects.requireNonNull(child);
+
+		this.merger = new KWayMergeSorter<>(Arrays.asList(this.children));
+		this.sampleSize = sampleSize;
+		this.sample = new ArrayList<>(sampleSize);
+		this.splitters = (E[]) new Comparable[this.children.length - 1];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the number of child sorters.
+	 * @return the child count
+	 */
+	public int getChildCount () {
+		return this.children.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		Throwable failure = null;
+		for (final MergeSorter<E> child : this.children) {
+			try {
+				child.close();
+			} catch (final IOException | RuntimeException | Error exception) {
+				if (failure == null) failure = exception;
+			}
+		}
+
+		this.sample.clear();
+		this.merging = false;
+		this.state = State.CLOSED;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final E element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			if (!this.partitioned) this.partition();
+			if (this.merging) {
+				this.merger.write(null);
+			} else {
+				for (final MergeSorter<E> child : this.children) {
+					child.write(null);
+				}
+			}
+			this.partitioned = false;
+			this.state = State.SORT;
+		} else if (this.merging) {
+			this.merger.write(element);
+		} else if (this.partitioned) {
+			this.children[this.route(element)].write(element);
+		} else {
+			this.sample.add(element);
+			if (this.sample.size() == this.sampleSize) this.partition();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+		if (this.merging) {
+			this.merger.sort();
+			this.state = State.READ;
+			return;
+		}
+
+		final List<Future<Void>> futures = new ArrayList<>(this.children.length);
+		try {
+			for (final MergeSorter<E> child : this.children) {
+				futures.add(MultiThreadSorter.THREAD_POOL.submit(() -> {
+					child.sort();
+					return null;
+				}));
+			}
+
+			try {
+				for (final Future<Void> future : futures) {
+					Uninterruptibles.get(future);
+				}
+			} catch (final ExecutionException exception) {
+				final Throwable cause = exception.getCause();
+				if (cause instanceof Error) throw (Error) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof IOException) throw (IOException) cause;
+				throw new AssertionError();
+			}
+		} finally {
+			for (final Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		this.readIndex = 0;
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public E read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+		if (this.merging) {
+			final E element = this.merger.read();
+			if (element == null) {
+				this.merging = false;
+				this.state = State.WRITE;
+			}
+			return element;
+		}
+
+		for (; this.readIndex < this.children.length; ++this.readIndex) {
+			final E element = this.children[this.readIndex].read();
+			if (element != null) return element;
+		}
+
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+		if (this.merging) {
+			final int count = this.merger.read(buffer);
+			if (count < buffer.length) {
+				this.merging = false;
+				this.state = State.WRITE;
+			}
+			return count;
+		}
+
+		int count = 0;
+		while (this.readIndex < this.children.length) {
+			final MergeSorter<E> child = this.children[this.readIndex];
+			if (count == 0) {
+				count = child.read(buffer);
+				if (count == buffer.length) return count;
+				this.readIndex += 1;
+			} else {
+				final E element = child.read();
+				if (element == null) {
+					this.readIndex += 1;
+				} else {
+					buffer[count++] = element;
+					if (count == buffer.length) return count;
+				}
+			}
+		}
+
+		this.state = State.WRITE;
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Determines the range splitters using the sampled elements, and routes the latter to the
+	 * children owning their key ranges. Child {@code i} owns all elements greater than splitter
+	 * {@code i-1}, and lower than or equal to splitter {@code i}; a {@code null} splitter is
+	 * treated as lower than all elements, which may leave the first children empty if the
+	 * sample is very small. If the sample is already sorted in either direction, the sampled
+	 * elements are written into the merger instead, which also receives the remaining elements
+	 * of the current request.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void partition () throws IOException {
+		boolean ascending = true, descending = true;
+		for (int index = 1; index < this.sample.size() & (ascending | descending); ++index) {
+			final int order = this.sample.get(index - 1).compareTo(this.sample.get(index));
+			if (order > 0) ascending = false;
+			if (order < 0) descending = false;
+		}
+
+		this.partitioned = true;
+		if (this.children.length > 1 & (ascending | descending)) {
+			for (final E element : this.sample) {
+				this.merger.write(element);
+			}
+			this.sample.clear();
+			this.merging = true;
+			return;
+		}
+
+		this.sample.sort(null);
+
+		final int sampleSize = this.sample.size();
+		for (int index = 0; index < this.splitters.length; ++index) {
+			final int sampleIndex = (int) ((index + 1L) * sampleSize / this.children.length) - 1;
+			this.splitters[index] = sampleIndex < 0 ? null : this.sample.get(sampleIndex);
+		}
+
+		for (final E element : this.sample) {
+			this.children[this.route(element)].write(element);
+		}
+		this.sample.clear();
+	}
+
+
+	/**
+	 * Returns the index of the child owning the given element's key range.
+	 * @param element the element
+	 * @return the child index
+	 */
+	private int route (final E element) {
+		int low = 0, high = this.splitters.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final E splitter = this.splitters[middle];
+			if (splitter == null || element.compareTo(splitter) > 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one proxy
+	 * sorter instance for each of the given socket addresses. If there is exactly one given
+	 * socket address, the result will be the sole proxy sorter instance created. Otherwise,
+	 * the result will be a distributed sorter instance.
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there is no argument given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (serviceAddresses.length == 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<String>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new ProxySorter(serviceAddress));
+		return leaves.size() == 1 ? leaves.get(0) : new DistributedSorter<>(leaves);
+	}
+}
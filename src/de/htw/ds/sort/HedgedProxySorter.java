@@ -0,0 +1,427 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * String sorter implementation that forwards all requests to a primary sort server like a
+ * {@linkplain ProxySorter proxy sorter}, but hedges against stalled servers using a secondary
+ * sort server replicating the former. The elements of each request are retained while they are
+ * forwarded to the primary server. If the primary server has not started to respond within a
+ * hedge delay, the request is replayed to the secondary server, and whichever server starts to
+ * respond first provides the response; the connection to the other server is closed, which
+ * cancels it's request. The same happens if the primary server fails before starting to respond.
+ * The hedge delay is the given percentile of the latencies observed for recent requests, i.e.
+ * the times between the end of a request and the start of it's response; this limits the
+ * additional load caused by hedging to roughly the complementary fraction of requests.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class HedgedProxySorter implements MergeSorter<String> {
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final int HISTORY_SIZE = 0x40;
+	static private final int MIN_HISTORY_SIZE = 0x10;
+	static private final long INITIAL_HEDGE_DELAY = TimeUnit.SECONDS.toNanos(1);
+	static private final double DEFAULT_PERCENTILE = 0.95;
+	static private final ExecutorService RACE_POOL = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "hedge-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final InetSocketAddress primaryAddress, secondaryAddress;
+	private final double percentile;
+	private final long[] latencies;
+	private final List<String[]> requestChunks;
+	private String[] requestChunk;
+	private int requestChunkLength;
+	private ProxySorter primary, secondary, responder;
+	private IOException primaryFailure;
+	private String firstElement;
+	private boolean firstElementPending;
+	private long requestCount, hedgeCount, secondaryWinCount;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * the given primary and secondary sort servers, using the 95th latency percentile as
+	 * hedge delay.
+	 * @param primaryAddress the primary service address
+	 * @param secondaryAddress the secondary service address
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IOException if there is an I/O related problem connecting to the primary server
+	 */
+	public HedgedProxySorter (final InetSocketAddress primaryAddress, final InetSocketAddress secondaryAddress) throws NullPointerException, IOException {
+		this(primaryAddress, secondaryAddress, DEFAULT_PERCENTILE);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * the given primary and secondary sort servers. The connection to the secondary server is
+	 * established once the first request is hedged.
+	 * @param primaryAddress the primary service address
+	 * @param secondaryAddress the secondary service address
+	 * @param percentile the latency percentile used as hedge delay, within range ]0, 1]
+	 * @throws NullPointerException if any of the given addresses is {@code null}
+	 * @throws IllegalArgumentException if the given percentile is out of range
+	 * @throws IOException if there is an I/O related problem connecting to the primary server
+	 */
+	public HedgedProxySorter (final InetSocketAddress primaryAddress, final InetSocketAddress secondaryAddress, final double percentile) throws NullPointerException, IllegalArgumentException, IOException {
+		if (primaryAddress == null | secondaryAddress == null) throw new NullPointerException();
+		if (!(percentile > 0 && percentile <= 1)) throw new IllegalArgumentException();
+
+		this.primaryAddress = primaryAddress;
+		this.secondaryAddress = secondaryAddress;
+		this.percentile = percentile;
+		this.latencies = new long[HISTORY_SIZE];
+		this.requestChunks = new ArrayList<>();
+		this.requestChunk = new String[CHUNK_SIZE];
+		this.primary = new ProxySorter(primaryAddress);
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the latency percentile used as hedge delay.
+	 * @return the percentile, within range ]0, 1]
+	 */
+	public double getPercentile () {
+		return this.percentile;
+	}
+
+
+	/**
+	 * Returns the current hedge delay, which is the latency percentile of recent requests,
+	 * or one second as long as too few requests have been observed.
+	 * @return the hedge delay in nanoseconds
+	 */
+	public long getHedgeDelay () {
+		if (this.requestCount < MIN_HISTORY_SIZE) return INITIAL_HEDGE_DELAY;
+
+		final long[] latencies = Arrays.copyOf(this.latencies, (int) Math.min(this.requestCount, HISTORY_SIZE));
+		Arrays.sort(latencies);
+		return latencies[Math.max(0, (int) Math.ceil(this.percentile * latencies.length) - 1)];
+	}
+
+
+	/**
+	 * Returns the number of requests replayed to the secondary server.
+	 * @return the hedge count
+	 */
+	public long getHedgeCount () {
+		return this.hedgeCount;
+	}
+
+
+	/**
+	 * Returns the number of responses provided by the secondary server.
+	 * @return the secondary win count
+	 */
+	public long getSecondaryWinCount () {
+		return this.secondaryWinCount;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			try {
+				if (this.primary != null) this.primary.close();
+			} finally {
+				if (this.secondary != null) this.secondary.close();
+			}
+		} finally {
+			this.primary = null;
+			this.secondary = null;
+			this.responder = null;
+			this.requestChunks.clear();
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String element) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.forward(this.requestChunk, this.requestChunkLength);
+			this.forward(null, 0);
+			this.state = State.SORT;
+		} else {
+			this.append(element);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			if (batch[index] == null) throw new NullPointerException();
+		}
+
+		for (int index = offset; index < offset + length; ++index) {
+			this.append(batch[index]);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc} Additionally, this operation blocks until the first server has started to
+	 * respond, replaying the request to the secondary server if necessary.
+	 * @throws IOException if both servers fail
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		final BlockingQueue<Future<String>> completions = new ArrayBlockingQueue<>(2);
+		final CompletionService<String> race = new ExecutorCompletionService<>(RACE_POOL, completions);
+		final long timestamp = System.nanoTime();
+		Throwable failure = this.primaryFailure;
+		Future<String> primaryFuture = null, secondaryFuture = null;
+		int pendingCount = 0;
+		boolean hedged = false;
+
+		try {
+			Future<String> completion = null;
+			if (this.primary != null) {
+				final ProxySorter primary = this.primary;
+				primary.sort();
+				primaryFuture = race.submit(primary::read);
+				pendingCount += 1;
+				completion = Uninterruptibles.poll(completions, this.getHedgeDelay(), TimeUnit.NANOSECONDS);
+			}
+
+			while (true) {
+				if (completion != null) {
+					pendingCount -= 1;
+					try {
+						this.firstElement = Uninterruptibles.get(completion);
+						this.responder = completion == primaryFuture ? this.primary : this.secondary;
+						break;
+					} catch (final ExecutionException exception) {
+						if (failure == null) failure = exception.getCause();
+						if (completion == primaryFuture) this.discardPrimary(); else this.discardSecondary();
+					}
+				}
+
+				if (!hedged) {
+					hedged = true;
+					this.hedgeCount += 1;
+					try {
+						secondaryFuture = race.submit(this.replay()::read);
+						pendingCount += 1;
+					} catch (final IOException | RuntimeException exception) {
+						if (failure == null) failure = exception;
+						this.discardSecondary();
+					}
+				}
+
+				if (pendingCount == 0) {
+					if (failure instanceof Error) throw (Error) failure;
+					if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+					if (failure instanceof IOException) throw (IOException) failure;
+					throw new AssertionError();
+				}
+				completion = Uninterruptibles.take(completions);
+			}
+		} finally {
+			Arrays.fill(this.requestChunk, 0, this.requestChunkLength, null);
+			this.requestChunks.clear();
+			this.requestChunkLength = 0;
+			this.primaryFailure = null;
+			if (this.responder == null) {
+				this.discardPrimary();
+				this.discardSecondary();
+				this.state = State.WRITE;
+			}
+		}
+
+		// the loser's connection is still within the request or response, and cannot be reused
+		if (this.responder == this.secondary) {
+			this.secondaryWinCount += 1;
+			if (primaryFuture != null) this.discardPrimary();
+		} else {
+			if (secondaryFuture != null) this.discardSecondary();
+		}
+
+		this.latencies[(int) (this.requestCount++ % HISTORY_SIZE)] = System.nanoTime() - timestamp;
+		this.firstElementPending = true;
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final String element;
+		if (this.firstElementPending) {
+			element = this.firstElement;
+			this.firstElement = null;
+			this.firstElementPending = false;
+		} else {
+			element = this.responder.read();
+		}
+
+		if (element == null) {
+			this.responder = null;
+			this.state = State.WRITE;
+		}
+		return element;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		for (int index = 0; index < buffer.length; ++index) {
+			final String element = this.read();
+			if (element == null) return index;
+			buffer[index] = element;
+		}
+
+		return buffer.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Retains the given element, and forwards the current chunk to the primary server once
+	 * it is full.
+	 * @param element the element
+	 */
+	private void append (final String element) {
+		this.requestChunk[this.requestChunkLength++] = element;
+		if (this.requestChunkLength == CHUNK_SIZE) {
+			this.forward(this.requestChunk, CHUNK_SIZE);
+			this.requestChunks.add(this.requestChunk);
+			this.requestChunk = new String[CHUNK_SIZE];
+			this.requestChunkLength = 0;
+		}
+	}
+
+
+	/**
+	 * Forwards the given chunk to the primary server, connecting to the latter if necessary.
+	 * If this fails, the failure is recorded, and the request is no longer forwarded to the
+	 * primary server.
+	 * @param chunk the chunk, or {@code null} to forward the end of the request
+	 * @param length the chunk length
+	 */
+	private void forward (final String[] chunk, final int length) {
+		if (this.primaryFailure != null) return;
+
+		try {
+			if (this.primary == null) this.primary = new ProxySorter(this.primaryAddress);
+			if (chunk == null) this.primary.write(null); else this.primary.write(chunk, 0, length);
+		} catch (final IOException exception) {
+			this.primaryFailure = exception;
+			this.discardPrimary();
+		}
+	}
+
+
+	/**
+	 * Replays the retained request to the secondary server, connecting to the latter if
+	 * necessary.
+	 * @return the secondary server's proxy, in {@link State#READ} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private ProxySorter replay () throws IOException {
+		if (this.secondary == null) this.secondary = new ProxySorter(this.secondaryAddress);
+
+		for (final String[] chunk : this.requestChunks) {
+			this.secondary.write(chunk, 0, CHUNK_SIZE);
+		}
+		this.secondary.write(this.requestChunk, 0, this.requestChunkLength);
+		this.secondary.write(null);
+		this.secondary.sort();
+		return this.secondary;
+	}
+
+
+	/**
+	 * Closes the connection to the primary server if any, which cancels it's pending request.
+	 * The connection is reestablished with the next request.
+	 */
+	private void discardPrimary () {
+		if (this.primary == null) return;
+		try { this.primary.close(); } catch (final IOException exception) {}
+		this.primary = null;
+	}
+
+
+	/**
+	 * Closes the connection to the secondary server if any, which cancels it's pending
+	 * request. The connection is reestablished with the next hedged request.
+	 */
+	private void discardSecondary () {
+		if (this.secondary == null) return;
+		try { this.secondary.close(); } catch (final IOException exception) {}
+		this.secondary = null;
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one hedged
+	 * proxy sorter instance for each of the given socket addresses, which is assumed to denote
+	 * replicated sort servers; each such proxy uses it's address as primary server, and the
+	 * next address in cyclic order as secondary server. The result will be a k-way merge sorter
+	 * instance that distributes elements adaptively, as the servers may differ in speed and load.
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there are less than two arguments given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (serviceAddresses.length < 2) throw new IllegalArgumentException();
+
+		final List<MergeSorter<String>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (int index = 0; index < serviceAddresses.length; ++index) {
+			leaves.add(new HedgedProxySorter(serviceAddresses[index], serviceAddresses[(index + 1) % serviceAddresses.length]));
+		}
+		return new KWayMergeSorter<>(leaves, KWayMergeSorter.Distribution.ADAPTIVE);
+	}
+}
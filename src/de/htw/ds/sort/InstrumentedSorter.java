@@ -0,0 +1,185 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.Supplier;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Sorter implementation that decorates any sorter node, recording the number of elements
+ * written and read, the time spent in {@link #sort()}, and the time spent blocked in read
+ * operations into given {@linkplain SorterMetrics metrics}, which may be shared by any number
+ * of nodes. If the delegate is a {@linkplain ProxySorter proxy sorter}, it's network traffic is
+ * recorded as well. In order to keep the overhead low enough to leave instrumentation enabled,
+ * counts are collected locally and recorded once per phase, batch reads are always timed, but
+ * single element reads - as performed by merge nodes on their children - are timed only once
+ * per {@value #SAMPLE_INTERVAL} calls, and extrapolated.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class InstrumentedSorter<E extends Comparable<E>> implements MergeSorter<E> {
+	static private final int SAMPLE_INTERVAL = 16;
+
+	private final MergeSorter<E> delegate;
+	private final SorterMetrics metrics;
+	private long writeCount;
+	private long readCount;
+	private long readNanos;
+	private long bytesReceived;
+	private long bytesSent;
+
+
+	/**
+	 * Creates a new instance that is based on the given delegate.
+	 * @param delegate the delegate sorter
+	 * @param metrics the metrics to record into
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 */
+	public InstrumentedSorter (final MergeSorter<E> delegate, final SorterMetrics metrics) throws NullPointerException {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+
+	/**
+	 * Returns the metrics.
+	 * @return the metrics recorded into
+	 */
+	public SorterMetrics getMetrics () {
+		return this.metrics;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.delegate.close();
+		} finally {
+			this.recordRead();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final E element) throws IllegalStateException, IOException {
+		this.delegate.write(element);
+		if (element != null) this.writeCount += 1;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		this.delegate.write(batch, offset, length);
+		this.writeCount += length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		final long timestamp = System.nanoTime();
+		this.delegate.sort();
+
+		this.metrics.recordSort(this.writeCount, System.nanoTime() - timestamp);
+		this.writeCount = 0;
+		this.recordTraffic();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public E read () throws IllegalStateException, IOException {
+		final E element;
+		if (this.readCount % SAMPLE_INTERVAL == 0) {
+			final long timestamp = System.nanoTime();
+			element = this.delegate.read();
+			this.readNanos += (System.nanoTime() - timestamp) * SAMPLE_INTERVAL;
+		} else {
+			element = this.delegate.read();
+		}
+
+		if (element != null) {
+			this.readCount += 1;
+		} else {
+			this.recordRead();
+		}
+		return element;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		final long timestamp = System.nanoTime();
+		final int count = this.delegate.read(buffer);
+		this.readNanos += System.nanoTime() - timestamp;
+
+		this.readCount += count;
+		if (count < buffer.length) this.recordRead();
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.delegate.getState();
+	}
+
+
+	/**
+	 * Records the elements read and the time spent reading since the last time this method was
+	 * called, followed by the network traffic.
+	 */
+	private void recordRead () {
+		if (this.readCount > 0 | this.readNanos > 0) this.metrics.recordRead(this.readCount, this.readNanos);
+		this.readCount = 0;
+		this.readNanos = 0;
+		this.recordTraffic();
+	}
+
+
+	/**
+	 * Records the delegate's network traffic since the last time this method was called, if
+	 * the delegate is a proxy sorter.
+	 */
+	private void recordTraffic () {
+		if (!(this.delegate instanceof ProxySorter)) return;
+
+		final ProxySorter proxy = (ProxySorter) this.delegate;
+		final long bytesReceived = proxy.getBytesReceived(), bytesSent = proxy.getBytesSent();
+		this.metrics.recordTraffic(bytesReceived - this.bytesReceived, bytesSent - this.bytesSent);
+		this.bytesReceived = bytesReceived;
+		this.bytesSent = bytesSent;
+	}
+
+
+	/**
+	 * Returns a new leaf factory decorating the leaves created by the given factory, all of
+	 * which record into the given metrics.
+	 * @param <T> the element type to be sorted in naturally ascending order
+	 * @param leafFactory the leaf factory to be decorated
+	 * @param metrics the metrics to record into
+	 * @return the leaf factory created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 */
+	static public <T extends Comparable<T>> Supplier<MergeSorter<T>> newLeafFactory (final Supplier<MergeSorter<T>> leafFactory, final SorterMetrics metrics) throws NullPointerException {
+		Objects.requireNonNull(leafFactory);
+		Objects.requireNonNull(metrics);
+
+		return () -> new InstrumentedSorter<>(leafFactory.get(), metrics);
+	}
+}
@@ -0,0 +1,507 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * Multi-threaded merge sorter implementation that distributes elements evenly over any number
+ * of child sorters, sorts them separately using one thread per child, and then merges the sorted
+ * children's elements during read requests. In contrast to a tree of
+ * {@linkplain MultiThreadSorter multi-thread sorters}, the children's head elements are merged
+ * using a single tournament tree of losers, which requires exactly one comparison per tree level
+ * and read request, and neither stacked virtual calls nor intermediate read caches. Note that all
+ * elements are still stored within the RAM of a single process, unless the children store them
+ * elsewhere.<br />
+ * Elements are distributed according to a {@linkplain Distribution distribution policy} chosen
+ * per sorter: Either evenly, or adaptively in proportion to each child's throughput measured
+ * during previous requests, which evens out the sort completion times of unequal children
+ * such as proxy sorters of differently loaded servers.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class KWayMergeSorter<E extends Comparable<E>> implements MergeSorter<E> {
+	static private final double SMOOTHING_FACTOR = 0.5;
+	static private final double MIN_WEIGHT_FACTOR = 0.25;
+
+	/**
+	 * Policies for distributing written elements over the children.
+	 */
+	static public enum Distribution {
+		/** Elements are distributed evenly, regardless of the children's throughput. */
+		EVEN,
+
+		/**
+		 * Elements are distributed in proportion to each child's throughput, as measured from
+		 * the time spent writing into and sorting it during previous requests. Each child still
+		 * receives at least a quarter of an even share, so recovering children are detected.
+		 */
+		ADAPTIVE
+	}
+
+	private final MergeSorter<E>[] children;
+	private final E[] heads;
+	private final int[] losers;
+	private final Distribution distribution;
+	private final double[] weights, carries, throughputs;
+	private final long[] writeCounts, busyTimes;
+	private final int[] sliceLengths;
+	private int writeIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given child sorters,
+	 * and distributes elements evenly.
+	 * @param children the child sorters
+	 * @throws NullPointerException if the given collection is {@code null}, or contains {@code null}
+	 * @throws IllegalArgumentException if the given collection is empty
+	 */
+	public KWayMergeSorter (final Collection<? extends MergeSorter<E>> children) throws NullPointerException, IllegalArgumentException {
+		this(children, Distribution.EVEN);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given child sorters.
+	 * @param children the child sorters
+	 * @param distribution the distribution policy
+	 * @throws NullPointerException if any of the given arguments is {@code null}, or if the given
+	 *         collection contains {@code null}
+	 * @throws IllegalArgumentException if the given collection is empty
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public KWayMergeSorter (final Collection<? extends MergeSorter<E>> children, final Distribution distribution) throws NullPointerException, IllegalArgumentException {
+		if (children.isEmpty()) throw new IllegalArgumentException();
+
+		this.children = children.toArray(new MergeSorter[children.size()]);
+		for (final MergeSorter<E> child : this.children) Objects.requireNonNull(child);
+
+		final int childCount = this.children.length;
+		this.heads = (E[]) new Comparable[childCount];
+		this.losers = new int[childCount];
+		this.distribution = Objects.requireNonNull(distribution);
+		this.weights = new double[childCount];
+		this.carries = new double[childCount];
+		this.throughputs = new double[childCount];
+		this.writeCounts = new long[childCount];
+		this.busyTimes = new long[childCount];
+		this.sliceLengths = new int[childCount];
+		Arrays.fill(this.weights, 1.0 / childCount);
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the number of child sorters.
+	 * @return the child count
+	 */
+	public int getChildCount () {
+		return this.children.length;
+	}
+
+
+	/**
+	 * Returns the child sorter at the given index. While this sorter is in {@link State#WRITE}
+	 * state, elements may be written into it's children directly instead of being distributed
+	 * by this sorter, for example by one writer thread per child. Note that each child must still
+	 * be written by one thread at a time, and that writing the {@code null} element must happen
+	 * via this sorter.
+	 * @param index the child index
+	 * @return the child sorter
+	 * @throws ArrayIndexOutOfBoundsException if the given index is outside range
+	 *         [0, {@link #getChildCount()}[
+	 */
+	public MergeSorter<E> getChild (final int index) throws ArrayIndexOutOfBoundsException {
+		return this.children[index];
+	}
+
+
+	/**
+	 * Returns the distribution policy.
+	 * @return the distribution policy
+	 */
+	public Distribution getDistribution () {
+		return this.distribution;
+	}
+
+
+	/**
+	 * Returns the shares of written elements currently assigned to the children, which sum up
+	 * to one. These are equal unless the distribution policy is adaptive.
+	 * @return the child weights
+	 */
+	public double[] getWeights () {
+		return this.weights.clone();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		Throwable failure = null;
+		for (final MergeSorter<E> child : this.children) {
+			try {
+				child.close();
+			} catch (final IOException | RuntimeException | Error exception) {
+				if (failure == null) failure = exception;
+			}
+		}
+
+		this.state = State.CLOSED;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final E element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			for (final MergeSorter<E> child : this.children) {
+				child.write(null);
+			}
+			this.writeIndex = 0;
+			this.state = State.SORT;
+		} else if (this.distribution == Distribution.ADAPTIVE) {
+			this.slice(1);
+			int child = 0;
+			while (this.sliceLengths[child] == 0) ++child;
+			this.writeTimed(child, element);
+		} else {
+			this.children[this.writeIndex].write(element);
+			if (++this.writeIndex == this.children.length) this.writeIndex = 0;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (this.distribution == Distribution.ADAPTIVE) {
+			this.slice(length);
+			for (int position = offset, child = 0; child < this.children.length; ++child) {
+				final int childLength = this.sliceLengths[child];
+				if (childLength > 0) this.writeTimed(child, batch, position, childLength);
+				position += childLength;
+			}
+			return;
+		}
+
+		final int childCount = this.children.length;
+		final int sliceLength = length / childCount, remainder = length % childCount;
+		for (int position = offset, index = 0; index < childCount; ++index) {
+			final int child = (this.writeIndex + index) % childCount;
+			final int childLength = sliceLength + (index < remainder ? 1 : 0);
+			this.children[child].write(batch, position, childLength);
+			position += childLength;
+		}
+		this.writeIndex = (this.writeIndex + remainder) % childCount;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		final List<Future<E>> futures = new ArrayList<>(this.children.length);
+		try {
+			for (int index = 0; index < this.children.length; ++index) {
+				final MergeSorter<E> child = this.children[index];
+				final long[] busyTimes = this.busyTimes;
+				final int offset = index;
+				final Callable<E> worker = () -> {
+					final long timestamp = System.nanoTime();
+					child.sort();
+					final E head = child.read();
+					busyTimes[offset] += System.nanoTime() - timestamp;
+					return head;
+				};
+				futures.add(MultiThreadSorter.THREAD_POOL.submit(worker));
+			}
+
+			try {
+				for (int index = 0; index < this.children.length; ++index) {
+					this.heads[index] = Uninterruptibles.get(futures.get(index));
+				}
+			} catch (final ExecutionException exception) {
+				final Throwable cause = exception.getCause();
+				if (cause instanceof Error) throw (Error) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof IOException) throw (IOException) cause;
+				throw new AssertionError();
+			}
+		} finally {
+			for (final Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		if (this.distribution == Distribution.ADAPTIVE) this.adaptWeights();
+		this.losers[0] = this.initialize(1);
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public E read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int winner = this.losers[0];
+		final E result = this.heads[winner];
+		if (result == null) {
+			this.state = State.WRITE;
+			return null;
+		}
+
+		this.heads[winner] = this.children[winner].read();
+		this.replay(winner);
+		return result;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		for (int index = 0; index < buffer.length; ++index) {
+			final int winner = this.losers[0];
+			final E element = this.heads[winner];
+			if (element == null) {
+				this.state = State.WRITE;
+				return index;
+			}
+
+			buffer[index] = element;
+			this.heads[winner] = this.children[winner].read();
+			this.replay(winner);
+		}
+
+		return buffer.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Computes the number of elements each child receives from the next given number of elements,
+	 * storing the result in the slice lengths. Each child's fractional share is carried over to
+	 * subsequent calls, so the children's element counts approach their weights even if elements
+	 * are written one by one.
+	 * @param length the number of elements to be distributed
+	 */
+	private void slice (final int length) {
+		final int childCount = this.children.length;
+
+		int remainder = length;
+		for (int child = 0; child < childCount; ++child) {
+			final double share = this.carries[child] + length * this.weights[child];
+			final int sliceLength = (int) Math.max(0, Math.floor(share));
+			this.sliceLengths[child] = sliceLength;
+			this.carries[child] = share - sliceLength;
+			remainder -= sliceLength;
+		}
+
+		for (; remainder > 0; --remainder) {
+			int child = 0;
+			for (int index = 1; index < childCount; ++index) {
+				if (this.carries[index] > this.carries[child]) child = index;
+			}
+			this.sliceLengths[child] += 1;
+			this.carries[child] -= 1;
+		}
+	}
+
+
+	/**
+	 * Writes the given element into the given child, recording the time spent.
+	 * @param child the child index
+	 * @param element the element
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void writeTimed (final int child, final E element) throws IOException {
+		final long timestamp = System.nanoTime();
+		this.children[child].write(element);
+		this.busyTimes[child] += System.nanoTime() - timestamp;
+		this.writeCounts[child] += 1;
+	}
+
+
+	/**
+	 * Writes the given slice of the given batch into the given child, recording the time spent.
+	 * @param child the child index
+	 * @param batch the batch
+	 * @param offset the slice offset
+	 * @param length the slice length
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void writeTimed (final int child, final E[] batch, final int offset, final int length) throws IOException {
+		final long timestamp = System.nanoTime();
+		this.children[child].write(batch, offset, length);
+		this.busyTimes[child] += System.nanoTime() - timestamp;
+		this.writeCounts[child] += length;
+	}
+
+
+	/**
+	 * Updates each child's smoothed throughput using the element count and busy time recorded
+	 * since the last update, and recomputes the child weights in proportion to said throughputs.
+	 * Children that did not receive elements keep their previous throughput.
+	 */
+	private void adaptWeights () {
+		final int childCount = this.children.length;
+
+		double throughputSum = 0;
+		for (int child = 0; child < childCount; ++child) {
+			if (this.writeCounts[child] > 0) {
+				final double throughput = (double) this.writeCounts[child] / Math.max(1, this.busyTimes[child]);
+				this.throughputs[child] = this.throughputs[child] == 0
+					? throughput
+					: SMOOTHING_FACTOR * throughput + (1 - SMOOTHING_FACTOR) * this.throughputs[child];
+			}
+			this.writeCounts[child] = 0;
+			this.busyTimes[child] = 0;
+			throughputSum += this.throughputs[child];
+		}
+		if (throughputSum == 0) return;
+
+		// children without any measurement yet are assumed to be average
+		double weightSum = 0;
+		for (int child = 0; child < childCount; ++child) {
+			final double throughput = this.throughputs[child] == 0 ? throughputSum / childCount : this.throughputs[child];
+			this.weights[child] = Math.max(MIN_WEIGHT_FACTOR / childCount, throughput / throughputSum);
+			weightSum += this.weights[child];
+		}
+		for (int child = 0; child < childCount; ++child) {
+			this.weights[child] /= weightSum;
+		}
+	}
+
+
+	/**
+	 * Recursively initializes the tournament sub-tree rooted at the given node, storing the loser
+	 * of each match within said node. Nodes are numbered from {@code 1} to {@code k-1} in heap
+	 * order, while the leaves {@code k} to {@code 2k-1} represent the children's head elements.
+	 * @param node the node index
+	 * @return the child index of the sub-tree's winner
+	 */
+	private int initialize (final int node) {
+		final int childCount = this.children.length;
+		if (node >= childCount) return node - childCount;
+
+		final int left = this.initialize(2 * node);
+		final int right = this.initialize(2 * node + 1);
+		if (this.beats(right, left)) {
+			this.losers[node] = left;
+			return right;
+		} else {
+			this.losers[node] = right;
+			return left;
+		}
+	}
+
+
+	/**
+	 * Replays the matches along the path from the given child's leaf to the root, after said
+	 * child's head element has changed, and stores the overall winner in node {@code 0}.
+	 * @param child the child index
+	 */
+	private void replay (final int child) {
+		int winner = child;
+		for (int node = (child + this.children.length) >> 1; node > 0; node >>= 1) {
+			final int loser = this.losers[node];
+			if (this.beats(loser, winner)) {
+				this.losers[node] = winner;
+				winner = loser;
+			}
+		}
+		this.losers[0] = winner;
+	}
+
+
+	/**
+	 * Returns whether or not the head element of the given left child precedes the one of
+	 * the given right child, with {@code null} heads following all others, and ties being
+	 * broken by child index.
+	 * @param left the left child index
+	 * @param right the right child index
+	 * @return whether or not the left child wins the match
+	 */
+	private boolean beats (final int left, final int right) {
+		final E leftHead = this.heads[left], rightHead = this.heads[right];
+		if (leftHead == null) return false;
+		if (rightHead == null) return true;
+
+		final int comparison = leftHead.compareTo(rightHead);
+		return comparison < 0 || (comparison == 0 && left < right);
+	}
+
+
+	/**
+	 * Returns a k-way merge sorter based on the given number of children, each created using
+	 * the given factory. If the given count is one, the result will be the sole child created.
+	 * @param leafFactory the factory creating the child sorters
+	 * @param leafCount the number of child sorters
+	 * @return the sorter created
+	 * @throws NullPointerException if the given factory is {@code null}, or returns {@code null}
+	 * @throws IllegalArgumentException if the given count is not strictly positive
+	 */
+	static public <T extends Comparable<T>> MergeSorter<T> newInstance (final Supplier<MergeSorter<T>> leafFactory, final int leafCount) throws NullPointerException, IllegalArgumentException {
+		return newInstance(leafFactory, leafCount, Distribution.EVEN);
+	}
+
+
+	/**
+	 * Returns a k-way merge sorter based on the given number of children, each created using
+	 * the given factory, and the given distribution policy. If the given count is one, the result
+	 * will be the sole child created.
+	 * @param leafFactory the factory creating the child sorters
+	 * @param leafCount the number of child sorters
+	 * @param distribution the distribution policy
+	 * @return the sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}, or if the
+	 *         given factory returns {@code null}
+	 * @throws IllegalArgumentException if the given count is not strictly positive
+	 */
+	static public <T extends Comparable<T>> MergeSorter<T> newInstance (final Supplier<MergeSorter<T>> leafFactory, final int leafCount, final Distribution distribution) throws NullPointerException, IllegalArgumentException {
+		if (leafCount <= 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<T>> leaves = new ArrayList<>(leafCount);
+		for (int i = 0; i < leafCount; ++i) leaves.add(Objects.requireNonNull(leafFactory.get()));
+		return leafCount == 1 ? leaves.get(0) : new KWayMergeSorter<>(leaves, distribution);
+	}
+}
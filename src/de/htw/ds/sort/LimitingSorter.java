@@ -0,0 +1,122 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Objects;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Bounded sorter implementation that decorates a sorter, usually a merge node whose children
+ * are {@linkplain TopKSorter bounded sorters} or limited {@linkplain ProxySorter proxy sorters}.
+ * While reading, at most the given number of lowest elements is returned; once said number is
+ * reached, the remaining elements are discarded, which is cheap because each bounded child
+ * contributes no more than said number of elements either.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class LimitingSorter<E extends Comparable<E>> implements MergeSorter<E> {
+	private final MergeSorter<E> delegate;
+	private final int limit;
+	private int readCount;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given delegate.
+	 * @param delegate the delegate sorter
+	 * @param limit the maximum number of lowest elements to be returned
+	 * @throws NullPointerException if the given delegate is {@code null}
+	 * @throws IllegalArgumentException if the given limit is not strictly positive
+	 */
+	public LimitingSorter (final MergeSorter<E> delegate, final int limit) throws NullPointerException, IllegalArgumentException {
+		if (limit <= 0) throw new IllegalArgumentException();
+
+		this.delegate = Objects.requireNonNull(delegate);
+		this.limit = limit;
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the maximum number of lowest elements to be returned.
+	 * @return the limit
+	 */
+	public int getLimit () {
+		return this.limit;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.delegate.close();
+		} finally {
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final E element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.delegate.write(element);
+		if (element == null) this.state = State.SORT;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.delegate.write(batch, offset, length);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.delegate.sort();
+		this.readCount = 0;
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public E read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readCount < this.limit) {
+			final E element = this.delegate.read();
+			if (element != null) {
+				this.readCount += 1;
+				return element;
+			}
+		} else {
+			while (this.delegate.read() != null);
+		}
+
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+}
@@ -0,0 +1,291 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import de.htw.ds.sort.MergeSorter.State;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * Multi-threaded integer sorter implementation that distributes elements evenly over any number
+ * of child sorters, sorts them separately using one thread per child, and then merges the sorted
+ * children's elements during read requests, like a {@linkplain KWayMergeSorter k-way merge sorter}.
+ * The children are read in batches into primitive buffers, whose head elements are merged using
+ * a single tournament tree of losers.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class LongKWayMergeSorter implements LongMergeSorter {
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+	static private final int BATCH_SIZE = 0x400;
+
+	private final LongMergeSorter[] children;
+	private final long[][] batches;
+	private final int[] positions, limits;
+	private final int[] losers;
+	private int writeIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given child sorters.
+	 * @param children the child sorters
+	 * @throws NullPointerException if the given collection is {@code null}, or contains {@code null}
+	 * @throws IllegalArgumentException if the given collection is empty
+	 */
+	public LongKWayMergeSorter (final Collection<? extends LongMergeSorter> children) throws NullPointerException, IllegalArgumentException {
+		if (children.isEmpty()) throw new IllegalArgumentException();
+
+		this.children = children.toArray(new LongMergeSorter[children.size()]);
+		for (final LongMergeSorter child : this.children) Objects.requireNonNull(child);
+
+		this.batches = new long[this.children.length][BATCH_SIZE];
+		this.positions = new int[this.children.length];
+		this.limits = new int[this.children.length];
+		this.losers = new int[this.children.length];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the number of child sorters.
+	 * @return the child count
+	 */
+	public int getChildCount () {
+		return this.children.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		Throwable failure = null;
+		for (final LongMergeSorter child : this.children) {
+			try {
+				child.close();
+			} catch (final IOException | RuntimeException | Error exception) {
+				if (failure == null) failure = exception;
+			}
+		}
+
+		this.state = State.CLOSED;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final long element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.children[this.writeIndex].write(element);
+		if (++this.writeIndex == this.children.length) this.writeIndex = 0;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final long[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		final int childCount = this.children.length;
+		final int sliceLength = length / childCount, remainder = length % childCount;
+		for (int position = offset, index = 0; index < childCount; ++index) {
+			final int child = (this.writeIndex + index) % childCount;
+			final int childLength = sliceLength + (index < remainder ? 1 : 0);
+			this.children[child].write(batch, position, childLength);
+			position += childLength;
+		}
+		this.writeIndex = (this.writeIndex + remainder) % childCount;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void writeEnd () throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (final LongMergeSorter child : this.children) {
+			child.writeEnd();
+		}
+		this.writeIndex = 0;
+		this.state = State.SORT;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		final List<Future<Integer>> futures = new ArrayList<>(this.children.length);
+		try {
+			for (int index = 0; index < this.children.length; ++index) {
+				final LongMergeSorter child = this.children[index];
+				final long[] batch = this.batches[index];
+				final Callable<Integer> worker = () -> {
+					child.sort();
+					return child.read(batch);
+				};
+				futures.add(MultiThreadSorter.THREAD_POOL.submit(worker));
+			}
+
+			try {
+				for (int index = 0; index < this.children.length; ++index) {
+					this.limits[index] = Uninterruptibles.get(futures.get(index));
+					this.positions[index] = 0;
+				}
+			} catch (final ExecutionException exception) {
+				final Throwable cause = exception.getCause();
+				if (cause instanceof Error) throw (Error) cause;
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if (cause instanceof IOException) throw (IOException) cause;
+				throw new AssertionError();
+			}
+		} finally {
+			for (final Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		this.losers[0] = this.initialize(1);
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int read (final long[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		for (int index = 0; index < buffer.length; ++index) {
+			final int winner = this.losers[0];
+			if (this.positions[winner] == this.limits[winner]) {
+				this.state = State.WRITE;
+				return index;
+			}
+
+			buffer[index] = this.batches[winner][this.positions[winner]++];
+			if (this.positions[winner] == BATCH_SIZE) {
+				this.limits[winner] = this.children[winner].read(this.batches[winner]);
+				this.positions[winner] = 0;
+			}
+			this.replay(winner);
+		}
+
+		return buffer.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Recursively initializes the tournament sub-tree rooted at the given node, storing the loser
+	 * of each match within said node.
+	 * @param node the node index
+	 * @return the child index of the sub-tree's winner
+	 */
+	private int initialize (final int node) {
+		final int childCount = this.children.length;
+		if (node >= childCount) return node - childCount;
+
+		final int left = this.initialize(2 * node);
+		final int right = this.initialize(2 * node + 1);
+		if (this.beats(right, left)) {
+			this.losers[node] = left;
+			return right;
+		} else {
+			this.losers[node] = right;
+			return left;
+		}
+	}
+
+
+	/**
+	 * Replays the matches along the path from the given child's leaf to the root, after said
+	 * child's head element has changed, and stores the overall winner in node {@code 0}.
+	 * @param child the child index
+	 */
+	private void replay (final int child) {
+		int winner = child;
+		for (int node = (child + this.children.length) >> 1; node > 0; node >>= 1) {
+			final int loser = this.losers[node];
+			if (this.beats(loser, winner)) {
+				this.losers[node] = winner;
+				winner = loser;
+			}
+		}
+		this.losers[0] = winner;
+	}
+
+
+	/**
+	 * Returns whether or not the head element of the given left child precedes the one of
+	 * the given right child, with exhausted children following all others, and ties being
+	 * broken by child index.
+	 * @param left the left child index
+	 * @param right the right child index
+	 * @return whether or not the left child wins the match
+	 */
+	private boolean beats (final int left, final int right) {
+		if (this.positions[left] == this.limits[left]) return false;
+		if (this.positions[right] == this.limits[right]) return true;
+
+		final long leftHead = this.batches[left][this.positions[left]];
+		final long rightHead = this.batches[right][this.positions[right]];
+		return leftHead < rightHead || (leftHead == rightHead && left < right);
+	}
+
+
+	/**
+	 * Returns a k-way merge sorter based on as many radix sorter children as there are
+	 * processors within this system. If there is exactly one processor within this system,
+	 * the result will be the sole child created.
+	 * @return the sorter created
+	 */
+	static public LongMergeSorter newInstance () {
+		return newInstance(LongRadixSorter::new, CORES);
+	}
+
+
+	/**
+	 * Returns a k-way merge sorter based on the given number of children, each created using
+	 * the given factory. If the given count is one, the result will be the sole child created.
+	 * @param leafFactory the factory creating the child sorters
+	 * @param leafCount the number of child sorters
+	 * @return the sorter created
+	 * @throws NullPointerException if the given factory is {@code null}, or returns {@code null}
+	 * @throws IllegalArgumentException if the given count is not strictly positive
+	 */
+	static public LongMergeSorter newInstance (final Supplier<LongMergeSorter> leafFactory, final int leafCount) throws NullPointerException, IllegalArgumentException {
+		if (leafCount <= 0) throw new IllegalArgumentException();
+
+		final List<LongMergeSorter> leaves = new ArrayList<>(leafCount);
+		for (int i = 0; i < leafCount; ++i) leaves.add(Objects.requireNonNull(leafFactory.get()));
+		return leafCount == 1 ? leaves.get(0) : new LongKWayMergeSorter(leaves);
+	}
+}
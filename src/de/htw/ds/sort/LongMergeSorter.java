@@ -0,0 +1,95 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import de.htw.ds.sort.MergeSorter.State;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Interface describing stream sorters for primitive signed 64-bit integers, which avoid boxing
+ * every element into an object. These sorters share the states of {@linkplain MergeSorter merge
+ * sorters}, but the end of the elements to be written is marked explicitly, and the elements
+ * are read in batches because there is no {@code null} value for primitives. Note that
+ * {@code int} values can be sorted by widening them, which preserves their order.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public interface LongMergeSorter extends AutoCloseable {
+
+	/**
+	 * Closes this instance and all it's associated resources and switches the receiver
+	 * into {@link State#CLOSED} state.
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	void close () throws IOException;
+
+
+	/**
+	 * Writes the given element into internal storage.
+	 * @param element the element to be stored
+	 * @throws IllegalStateException if the sorter is not in {@link State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	void write (long element) throws IllegalStateException, IOException;
+
+
+	/**
+	 * Writes the given batch of elements into internal storage. Note that this default
+	 * implementation writes the elements one by one, which implementations may override
+	 * with a more efficient approach.
+	 * @param batch the batch array containing the elements to be stored
+	 * @param offset the offset of the first element to be stored
+	 * @param length the number of elements to be stored
+	 * @throws NullPointerException if the given batch is {@code null}
+	 * @throws IndexOutOfBoundsException if the given offset or length is out of bounds
+	 * @throws IllegalStateException if the sorter is not in {@link State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	default void write (final long[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.getState() != State.WRITE) throw new IllegalStateException(this.getState().name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			this.write(batch[index]);
+		}
+	}
+
+
+	/**
+	 * Marks the end of the elements to be written, and switches the receiver into
+	 * {@link State#SORT} state.
+	 * @throws IllegalStateException if the sorter is not in {@link State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	void writeEnd () throws IllegalStateException, IOException;
+
+
+	/**
+	 * Sorts the elements in internal storage, and subsequently switches the receiver into
+	 * {@link State#READ} state.
+	 * @throws IllegalStateException if the sorter is not in {@link State#SORT} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	void sort () throws IllegalStateException, IOException;
+
+
+	/**
+	 * Reads the next elements from internal storage into the given buffer, and returns
+	 * the number of elements read. If this number is smaller than the buffer length, there
+	 * are no more elements; the latter also clears internal storage, and switches the receiver
+	 * into {@link State#WRITE} state.
+	 * @param buffer the buffer array to be filled with elements in ascending order
+	 * @return the number of elements read
+	 * @throws NullPointerException if the given buffer is {@code null}
+	 * @throws IllegalArgumentException if the given buffer is empty
+	 * @throws IllegalStateException if the sorter is not in {@link State#READ} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	int read (long[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException;
+
+
+	/**
+	 * Returns the current state.
+	 * @return the state
+	 */
+	State getState ();
+}
@@ -0,0 +1,164 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.ds.sort.CspCodec.LongCodec;
+import de.htw.ds.sort.MergeSorter.State;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Integer sorter implementation that forwards all requests to a sort server, negotiating the
+ * {@linkplain Framing#INT64 integer framing} of the custom sort protocol described in
+ * {@link CspCodec}. Elements written one by one are collected into batches, and each batch is
+ * transmitted as a single frame of fixed-size big-endian integers. Note that a single connection
+ * is reused for all interactions with the server.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class LongProxySorter implements LongMergeSorter {
+	static private final int BATCH_SIZE = 0x400;
+
+	private final Socket connection;
+	private final LongCodec codec;
+	private final long[] writeBatch;
+	private int writePosition;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address.
+	 * @param serviceAddress the service address
+	 * @throws NullPointerException if the given service address is {@code null}
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support integer framing
+	 */
+	public LongProxySorter (final InetSocketAddress serviceAddress) throws NullPointerException, IOException {
+		this.connection = new Socket(serviceAddress.getAddress(), serviceAddress.getPort());
+		try {
+			this.codec = CspCodec.connectLongs(this.connection);
+		} catch (final IOException | RuntimeException exception) {
+			this.connection.close();
+			throw exception;
+		}
+		this.writeBatch = new long[BATCH_SIZE];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			try {
+				this.codec.close();
+			} finally {
+				this.connection.close();
+			}
+		} finally {
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final long element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.writeBatch[this.writePosition++] = element;
+		if (this.writePosition == BATCH_SIZE) this.flushWriteBatch();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final long[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.flushWriteBatch();
+		this.codec.write(batch, offset, length);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void writeEnd () throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.flushWriteBatch();
+		this.codec.writeEnd();
+		this.state = State.SORT;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int read (final long[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = this.codec.read(buffer);
+		if (count < buffer.length) this.state = State.WRITE;
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Writes the current write batch as a single frame, unless it is empty.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void flushWriteBatch () throws IOException {
+		this.codec.write(this.writeBatch, 0, this.writePosition);
+		this.writePosition = 0;
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one proxy
+	 * sorter instance for each of the given socket addresses. If there is exactly one given
+	 * socket address, the result will be the sole proxy sorter instance created. Otherwise,
+	 * the result will be a k-way merge sorter instance.
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there is no argument given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public LongMergeSorter newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (serviceAddresses.length == 0) throw new IllegalArgumentException();
+
+		final List<LongMergeSorter> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new LongProxySorter(serviceAddress));
+		return leaves.size() == 1 ? leaves.get(0) : new LongKWayMergeSorter(leaves);
+	}
+}
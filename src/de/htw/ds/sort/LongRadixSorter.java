@@ -0,0 +1,181 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import de.htw.ds.sort.MergeSorter.State;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Single-threaded integer sorter implementation that collects elements into a growable primitive
+ * array, and sorts them using least significant digit (LSD) radix sort over their eight bytes.
+ * The byte histograms of all passes are gathered within a single pass over the elements, which
+ * allows skipping passes whose byte is shared by all elements, as is typical for the high order
+ * bytes of numeric identifiers. Note that all elements are stored within the RAM of a single
+ * process, but without any per-element object overhead.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class LongRadixSorter implements LongMergeSorter {
+	static private final int COMPARISON_THRESHOLD = 64;
+
+	private long[] elements;
+	private int size;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state.
+	 */
+	public LongRadixSorter () {
+		this.elements = new long[0x100];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		this.clear();
+		this.state = State.CLOSED;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final long element) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (this.size == this.elements.length) this.elements = Arrays.copyOf(this.elements, 2 * this.size);
+		this.elements[this.size++] = element;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final long[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (this.size + length > this.elements.length) this.elements = Arrays.copyOf(this.elements, Math.max(this.size + length, 2 * this.elements.length));
+		System.arraycopy(batch, offset, this.elements, this.size, length);
+		this.size += length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void writeEnd () throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		this.state = State.SORT;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		if (this.size < COMPARISON_THRESHOLD) {
+			Arrays.sort(this.elements, 0, this.size);
+		} else {
+			this.distribute();
+		}
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int read (final long[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.size - this.readIndex);
+		System.arraycopy(this.elements, this.readIndex, buffer, 0, count);
+		this.readIndex += count;
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Discards all elements.
+	 */
+	private void clear () {
+		if (this.elements.length > 0x100) this.elements = new long[0x100];
+		this.size = 0;
+		this.readIndex = 0;
+	}
+
+
+	/**
+	 * Sorts the elements using one stable distribution pass per byte, in ascending byte
+	 * significance order. The sign bit is flipped while distributing by the most significant
+	 * byte, which orders negative elements before positive ones.
+	 */
+	private void distribute () {
+		final int size = this.size;
+		final int[][] counts = new int[8][0x100];
+		for (int index = 0; index < size; ++index) {
+			final long key = this.elements[index] ^ Long.MIN_VALUE;
+			for (int pass = 0; pass < 8; ++pass) {
+				counts[pass][(int) (key >>> (pass << 3)) & 0xFF] += 1;
+			}
+		}
+
+		long[] source = this.elements, sink = new long[size];
+		for (int pass = 0; pass < 8; ++pass) {
+			final int shift = pass << 3;
+			final int[] offsets = counts[pass];
+			if (offsets[(int) ((source[0] ^ Long.MIN_VALUE) >>> shift) & 0xFF] == size) continue;
+
+			for (int digit = 0, offset = 0; digit < 0x100; ++digit) {
+				final int count = offsets[digit];
+				offsets[digit] = offset;
+				offset += count;
+			}
+
+			for (int index = 0; index < size; ++index) {
+				final long element = source[index];
+				sink[offsets[(int) ((element ^ Long.MIN_VALUE) >>> shift) & 0xFF]++] = element;
+			}
+
+			final long[] elements = source;
+			source = sink;
+			sink = elements;
+		}
+
+		this.elements = source;
+	}
+
+
+	/**
+	 * Returns a new radix sorter instance.
+	 * @return the sorter created
+	 */
+	static public LongMergeSorter newInstance () {
+		return new LongRadixSorter();
+	}
+}
@@ -1,6 +1,7 @@
 package de.htw.ds.sort;
 
 import java.io.IOException;
+import java.util.Objects;
 import de.htw.tool.Copyright;
 
 
@@ -58,6 +59,29 @@ public interface MergeSorter<E extends Comparable<E>> extends AutoCloseable {
 	void write (E element) throws IllegalStateException, IOException;
 
 
+	/**
+	 * Writes the given batch of elements into internal storage. Note that this default
+	 * implementation writes the elements one by one, which implementations may override
+	 * with a more efficient approach.
+	 * @param batch the batch array containing the elements to be stored
+	 * @param offset the offset of the first element to be stored
+	 * @param length the number of elements to be stored
+	 * @throws NullPointerException if the given batch is {@code null}, or if any of the
+	 *         elements to be stored is {@code null}
+	 * @throws IndexOutOfBoundsException if the given offset or length is out of bounds
+	 * @throws IllegalStateException if the sorter is not in {@link State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	default void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.getState() != State.WRITE) throw new IllegalStateException(this.getState().name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			this.write(Objects.requireNonNull(batch[index]));
+		}
+	}
+
+
 	/**
 	 * Sorts the elements in internal storage, and subsequently switches the receiver into
 	 * {@link State#READ} state.
@@ -78,6 +102,32 @@ public interface MergeSorter<E extends Comparable<E>> extends AutoCloseable {
 	E read () throws IllegalStateException, IOException;
 
 
+	/**
+	 * Reads the next elements from internal storage into the given buffer, and returns
+	 * the number of elements read. If this number is smaller than the buffer length, there
+	 * are no more elements; the latter also clears internal storage, and switches the receiver
+	 * into {@link State#WRITE} state. Note that this default implementation reads the elements
+	 * one by one, which implementations may override with a more efficient approach.
+	 * @param buffer the buffer array to be filled with elements in natural sort order
+	 * @return the number of elements read
+	 * @throws NullPointerException if the given buffer is {@code null}
+	 * @throws IllegalArgumentException if the given buffer is empty
+	 * @throws IllegalStateException if the sorter is not in {@link State#READ} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	default int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.getState() != State.READ) throw new IllegalStateException(this.getState().name());
+
+		for (int index = 0; index < buffer.length; ++index) {
+			final E element = this.read();
+			if (element == null) return index;
+			buffer[index] = element;
+		}
+		return buffer.length;
+	}
+
+
 	/**
 	 * Returns the current state.
 	 * @return the state
@@ -1,15 +1,20 @@
 package de.htw.ds.sort;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import de.htw.tool.Copyright;
 import de.htw.tool.Uninterruptibles;
 
@@ -19,7 +24,12 @@ import de.htw.tool.Uninterruptibles;
  * sorters, sorts them separately using two separate threads, and then merges the two sorted
  * children's elements during read requests. Note that this implementation is able to scale its
  * workload over two processor cores, and even more if such sorters are stacked. However, all
- * elements are still stored within the RAM of a single process.
+ * elements are still stored within the RAM of a single process.<br />
+ * Optionally, such sorters may merge pipelined: Each pipelined sorter then runs it's merge loop
+ * within a separate worker thread after sorting, handing merged elements over to it's reader in
+ * batches via a bounded queue. This way, the merge operations of stacked sorters overlap, and
+ * the read throughput of a sorter tree scales with it's depth instead of being bound to the
+ * reader's thread.
  * @param <E> the element type to be sorted in naturally ascending order
  */
 @Copyright(year=2010, holders="Sascha Baumeister")
@@ -27,42 +37,92 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 
 	static private final int CORES = Runtime.getRuntime().availableProcessors();
 	static public final ExecutorService THREAD_POOL = Executors.newFixedThreadPool(CORES);
-	
+	static private final ExecutorService MERGE_POOL = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "merge-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	static private final int BATCH_SIZE = 0x400;
+	static private final int QUEUE_CAPACITY = 4;
+
 	private final Comparator<E> comparator = Comparator.nullsLast(Comparator.naturalOrder());
 	private final MergeSorter<E> leftChild, rightChild;
+	private final boolean pipelined;
 	private E leftReadCache, rightReadCache;
 	private boolean leftWrite;
 	private State state;
-	
+
+	private BlockingQueue<E[]> mergeQueue;
+	private Future<?> mergeFuture;
+	private Semaphore mergePermit;
+	private E[] readBatch;
+	private int readPosition;
+
 
 
 	/**
-	 * Creates a new instance in {@link State#WRITE} state that is based on two child sorters.
+	 * Creates a new instance in {@link State#WRITE} state that is based on two child sorters,
+	 * and merges within the reader's thread.
 	 * @param leftChild the left child sorter
 	 * @param rightChild the right child sorter
 	 * @throws NullPointerException if any of the given children is {@code null}
 	 */
 	public MultiThreadSorter (final MergeSorter<E> leftChild, final MergeSorter<E> rightChild) {
+		this(leftChild, rightChild, false);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on two child sorters.
+	 * @param leftChild the left child sorter
+	 * @param rightChild the right child sorter
+	 * @param pipelined {@code true} for merging within a separate worker thread, {@code false}
+	 *        for merging within the reader's thread
+	 * @throws NullPointerException if any of the given children is {@code null}
+	 */
+	public MultiThreadSorter (final MergeSorter<E> leftChild, final MergeSorter<E> rightChild, final boolean pipelined) {
 		if (leftChild == null || rightChild == null) throw new NullPointerException();
 
 		this.leftChild = Objects.requireNonNull(leftChild);
 		this.rightChild = Objects.requireNonNull(rightChild);
+		this.pipelined = pipelined;
 		this.leftWrite = true;
 		this.state = State.WRITE;
 	}
 
 
 	/**
-	 * {@inheritDoc}
+	 * Returns whether or not this sorter merges within a separate worker thread.
+	 * @return {@code true} if pipelined, {@code false} otherwise
+	 */
+	public boolean isPipelined () {
+		return this.pipelined;
+	}
+
+
+	/**
+	 * {@inheritDoc} A pending merge worker is interrupted, and waited for before the children
+	 * are closed, as the latter are neither thread-safe nor prepared to be closed while read.
 	 */
 	public void close () throws IOException {
 		try {
 			try {
-				this.leftChild.close();
+				if (this.mergeFuture != null) {
+					this.mergeFuture.cancel(true);
+					Uninterruptibles.acquire(this.mergePermit);
+				}
 			} finally {
-				this.rightChild.close();
+				try {
+					this.leftChild.close();
+				} finally {
+					this.rightChild.close();
+				}
 			}
 		} finally {
+			this.mergeFuture = null;
+			this.mergePermit = null;
+			this.mergeQueue = null;
+			this.readBatch = null;
 			this.state = State.CLOSED;
 		}
 	}
@@ -86,6 +146,21 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 	}
 
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		final int leftLength = (length + (this.leftWrite ? 1 : 0)) >> 1;
+		this.leftChild.write(batch, offset, leftLength);
+		this.rightChild.write(batch, offset + leftLength, length - leftLength);
+		if ((length & 1) == 1) this.leftWrite = !this.leftWrite;
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -129,6 +204,16 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 			}
 		}
 		
+		if (this.pipelined) {
+			final BlockingQueue<E[]> mergeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			final Semaphore mergePermit = new Semaphore(1);
+			this.mergeQueue = mergeQueue;
+			this.mergePermit = mergePermit;
+			this.mergeFuture = MERGE_POOL.submit(() -> this.merge(mergeQueue, mergePermit));
+			this.readBatch = null;
+			this.readPosition = 0;
+		}
+
 		this.state = State.READ;
 	}
 
@@ -138,6 +223,7 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 	 */
 	public E read () throws IllegalStateException, IOException {
 		if (this.getState() != State.READ) throw new IllegalStateException(this.state.name());
+		if (this.pipelined) return this.readPipelined();
 
 		final E result;
 		if (this.leftReadCache == null & this.rightReadCache == null) {
@@ -155,6 +241,32 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 	}
 
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+		if (this.pipelined) return this.readPipelined(buffer);
+
+		for (int index = 0; index < buffer.length; ++index) {
+			if (this.leftReadCache == null & this.rightReadCache == null) {
+				this.state = State.WRITE;
+				return index;
+			} else if (this.comparator.compare(this.leftReadCache, this.rightReadCache) <= 0) {
+				buffer[index] = this.leftReadCache;
+				this.leftReadCache = this.leftChild.read();
+			} else {
+				buffer[index] = this.rightReadCache;
+				this.rightReadCache = this.rightChild.read();
+			}
+		}
+
+		return buffer.length;
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -164,24 +276,165 @@ public class MultiThreadSorter<E extends Comparable<E>> implements MergeSorter<E
 
 
 	/**
-	 * Returns the root sorter instance of a balanced recursion tree of new sorters.
-	 * The tree will contain as many single-thread sorter instances as there are processors
-	 * within this system. If there is exactly one processor within this system, the result
-	 * will be the sole single-thread sorter instance created. Otherwise, the result will
-	 * be a multi-thread sorter instance.
+	 * Merges the children's elements into batches, and hands them over to the reader using the
+	 * given queue. All batches except the last one are full; a last batch that happens to be full
+	 * is followed by an empty one. This operation is performed by the merge worker of pipelined
+	 * sorters, which holds the given permit while merging; if the permit has already been taken
+	 * because the sorter is closing, the merge is skipped.
+	 * @param mergeQueue the merge queue
+	 * @param mergePermit the merge permit
+	 * @throws InterruptedException if the merge worker is interrupted while waiting for the reader
+	 * @throws IOException if there is an I/O related problem
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Void merge (final BlockingQueue<E[]> mergeQueue, final Semaphore mergePermit) throws InterruptedException, IOException {
+		if (!mergePermit.tryAcquire()) return null;
+		try {
+			E[] batch;
+			int length;
+			do {
+				batch = (E[]) new Comparable[BATCH_SIZE];
+				for (length = 0; length < BATCH_SIZE; ++length) {
+					if (this.leftReadCache == null & this.rightReadCache == null) {
+						break;
+					} else if (this.comparator.compare(this.leftReadCache, this.rightReadCache) <= 0) {
+						batch[length] = this.leftReadCache;
+						this.leftReadCache = this.leftChild.read();
+					} else {
+						batch[length] = this.rightReadCache;
+						this.rightReadCache = this.rightChild.read();
+					}
+				}
+
+				mergeQueue.put(length == BATCH_SIZE ? batch : Arrays.copyOf(batch, length));
+			} while (length == BATCH_SIZE);
+		} catch (final IOException | RuntimeException | Error exception) {
+			mergeQueue.put((E[]) new Comparable[0]);
+			throw exception;
+		} finally {
+			mergePermit.release();
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the next element from the current batch handed over by the merge worker, or
+	 * {@code null} if there are no more elements; the latter also switches the receiver into
+	 * {@link State#WRITE} state.
+	 * @return the next element in natural sort order, or {@code null} for none
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private E readPipelined () throws IOException {
+		if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeBatch();
+		if (this.readPosition < this.readBatch.length) return this.readBatch[this.readPosition++];
+
+		this.readBatch = null;
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * Reads the next elements from the batches handed over by the merge worker into the given
+	 * buffer, and returns the number of elements read. If this number is smaller than the buffer
+	 * length, there are no more elements; the latter also switches the receiver into
+	 * {@link State#WRITE} state.
+	 * @param buffer the buffer array to be filled with elements in natural sort order
+	 * @return the number of elements read
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private int readPipelined (final E[] buffer) throws IOException {
+		int count = 0;
+		while (count < buffer.length) {
+			if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeBatch();
+
+			final int length = Math.min(buffer.length - count, this.readBatch.length - this.readPosition);
+			if (length == 0) {
+				this.readBatch = null;
+				this.state = State.WRITE;
+				break;
+			}
+
+			System.arraycopy(this.readBatch, this.readPosition, buffer, count, length);
+			this.readPosition += length;
+			count += length;
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * Takes the next batch handed over by the merge worker. If said batch is the last one,
+	 * this method additionally waits for the merge worker to complete, and precisely rethrows
+	 * any exception it may have thrown.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void takeBatch () throws IOException {
+		this.readBatch = Uninterruptibles.take(this.mergeQueue);
+		this.readPosition = 0;
+		if (this.readBatch.length == BATCH_SIZE) return;
+
+		try {
+			Uninterruptibles.get(this.mergeFuture);
+		} catch (final ExecutionException exception) {
+			final Throwable cause = exception.getCause();
+			if (cause instanceof Error) throw (Error) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new AssertionError();
+		} finally {
+			this.mergeFuture = null;
+			this.mergePermit = null;
+			this.mergeQueue = null;
+		}
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. The tree will contain as many
+	 * single-thread sorter instances as there are processors within this system. If there is
+	 * exactly one processor within this system, the result will be the sole single-thread sorter
+	 * instance created. Otherwise, the result will be a k-way merge sorter instance, which
+	 * replaces a balanced recursion tree of multi-thread sorters with a single tournament tree.
 	 * @return the root sorter created
 	 */
 	static public <T extends Comparable<T>> MergeSorter<T> newInstance () {
-		// TODO Create a queue containing as many single-thread sorter instances as there are
-		// processors within this system - which will be at least one. While there is more than
-		// one sorter within said queue, remove two of them, use these to create a new multi-thread
-		// sorter instance, and add the latter to the queue - make sure this follows first in
-		// first out semantics. this way, the queue is guaranteed to contain exactly one element
-		// in the end, which shall be returned.
-		
+		return newInstance(SingleThreadSorter::new);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. The tree will contain as many
+	 * leaf sorter instances as there are processors within this system, each created using
+	 * the given leaf factory. If there is exactly one processor within this system, the result
+	 * will be the sole leaf sorter instance created. Otherwise, the result will be a k-way
+	 * merge sorter instance.
+	 * @param leafFactory the factory creating the leaf sorters
+	 * @return the root sorter created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 */
+	static public <T extends Comparable<T>> MergeSorter<T> newInstance (final Supplier<MergeSorter<T>> leafFactory) throws NullPointerException {
+		return KWayMergeSorter.newInstance(leafFactory, CORES);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a balanced recursion tree of new sorters.
+	 * The tree will contain as many leaf sorter instances as there are processors
+	 * within this system, each created using the given leaf factory. If there is exactly
+	 * one processor within this system, the result will be the sole leaf sorter instance
+	 * created. Otherwise, the result will be a pipelined multi-thread sorter instance,
+	 * as will be all other inner nodes of the tree.
+	 * @param leafFactory the factory creating the leaf sorters
+	 * @return the root sorter created
+	 * @throws NullPointerException if the given argument is {@code null}
+	 */
+	static public <T extends Comparable<T>> MergeSorter<T> newPipelinedInstance (final Supplier<MergeSorter<T>> leafFactory) throws NullPointerException {
 		final Queue<MergeSorter<T>> queue = new LinkedList<>();
-		for (int i=0; i < CORES; i++) queue.add(new SingleThreadSorter<>());
-		while(queue.size() > 1)	queue.add(new MultiThreadSorter<>(queue.remove(), queue.remove()));
+		for (int i=0; i < CORES; i++) queue.add(Objects.requireNonNull(leafFactory.get()));
+		while(queue.size() > 1)	queue.add(new MultiThreadSorter<>(queue.remove(), queue.remove(), true));
 		return queue.remove();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,645 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Server that provides stateful sorting using the custom TCP based sort protocol (CSP), like a
+ * {@linkplain SortServer sort server}, but based on non-blocking I/O. Instead of one thread per
+ * connection, a fixed number of selector threads decode the requests of all connections into
+ * per-connection sorters, a fixed number of worker threads perform the CPU-bound sorting, and
+ * the selector threads finally stream the responses back using gathering writes. Therefore, the
+ * number of threads stays constant regardless of the number of clients connected. Note that this
+ * class is declared final because it provides an application entry point, and is therefore not
+ * supposed to be extended. Also note that both text framing and binary framing as described in
+ * {@link CspCodec} are supported.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class NioSortServer implements AutoCloseable {
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+	static private final int BUFFER_SIZE = 0xF000;
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final int GATHER_SIZE = 16;
+
+	private final ServerSocketChannel serviceChannel;
+	private final SelectorLoop[] selectorLoops;
+	private final ExecutorService workerPool;
+	private final Supplier<MergeSorter<String>> sorterFactory;
+	private volatile boolean closed;
+	private int nextSelectorLoop;
+
+
+	/**
+	 * Public constructor for a server using as many selector threads and worker threads as
+	 * there are processors within this system, and one radix sorter per connection.
+	 * @param servicePort the service port
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF]
+	 * @throws IOException if the given port is already in use, or cannot be bound
+	 */
+	public NioSortServer (final int servicePort) throws IOException {
+		this(servicePort, CORES, CORES, RadixSorter::new);
+	}
+
+
+	/**
+	 * Public constructor.
+	 * @param servicePort the service port
+	 * @param selectorCount the number of selector threads
+	 * @param workerCount the number of worker threads
+	 * @param sorterFactory the factory creating one sorter per connection
+	 * @throws NullPointerException if the given factory is {@code null}
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         or if any of the given counts is not strictly positive
+	 * @throws IOException if the given port is already in use, or cannot be bound
+	 */
+	public NioSortServer (final int servicePort, final int selectorCount, final int workerCount, final Supplier<MergeSorter<String>> sorterFactory) throws NullPointerException, IllegalArgumentException, IOException {
+		if (sorterFactory == null) throw new NullPointerException();
+		if (selectorCount <= 0 | workerCount <= 0) throw new IllegalArgumentException();
+
+		this.sorterFactory = sorterFactory;
+		this.workerPool = Executors.newFixedThreadPool(workerCount);
+		this.selectorLoops = new SelectorLoop[selectorCount];
+		this.serviceChannel = ServerSocketChannel.open();
+		try {
+			this.serviceChannel.bind(new InetSocketAddress(servicePort));
+			this.serviceChannel.configureBlocking(false);
+
+			for (int index = 0; index < selectorCount; ++index) {
+				this.selectorLoops[index] = new SelectorLoop();
+			}
+			this.serviceChannel.register(this.selectorLoops[0].selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException exception) {
+			try {
+				this.serviceChannel.close();
+				for (final SelectorLoop selectorLoop : this.selectorLoops) {
+					if (selectorLoop != null) selectorLoop.selector.close();
+				}
+			} finally {
+				this.workerPool.shutdownNow();
+			}
+			throw exception;
+		}
+
+		for (int index = 0; index < selectorCount; ++index) {
+			new Thread(this.selectorLoops[index], "csp-selector-" + index).start();
+		}
+	}
+
+
+	/**
+	 * Closes the server, including all it's connections.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public void close () throws IOException {
+		this.closed = true;
+		try {
+			this.serviceChannel.close();
+		} finally {
+			for (final SelectorLoop selectorLoop : this.selectorLoops) {
+				selectorLoop.selector.wakeup();
+			}
+			this.workerPool.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Returns the service port.
+	 * @return the service port
+	 */
+	public int getServicePort () {
+		return this.serviceChannel.socket().getLocalPort();
+	}
+
+
+	/**
+	 * Accepts all pending TCP connections, and assigns them to the selector loops in turn.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void accept () throws IOException {
+		for (SocketChannel channel = this.serviceChannel.accept(); channel != null; channel = this.serviceChannel.accept()) {
+			channel.configureBlocking(false);
+
+			final SelectorLoop selectorLoop = this.selectorLoops[this.nextSelectorLoop];
+			this.nextSelectorLoop = (this.nextSelectorLoop + 1) % this.selectorLoops.length;
+
+			final SocketChannel acceptedChannel = channel;
+			selectorLoop.execute(() -> {
+				final Connection connection = new Connection(selectorLoop, acceptedChannel);
+				try {
+					connection.key = acceptedChannel.register(selectorLoop.selector, SelectionKey.OP_READ, connection);
+				} catch (final IOException exception) {
+					connection.close();
+				}
+			});
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class run a selector loop, handling the I/O readiness events of all
+	 * connections registered with it's selector, and the tasks scheduled for it.
+	 */
+	private final class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Runnable> tasks;
+
+
+		/**
+		 * Creates a new instance.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public SelectorLoop () throws IOException {
+			this.selector = Selector.open();
+			this.tasks = new ConcurrentLinkedQueue<>();
+		}
+
+
+		/**
+		 * Schedules the given task for execution within this selector loop's thread.
+		 * @param task the task
+		 */
+		public void execute (final Runnable task) {
+			this.tasks.add(task);
+			this.selector.wakeup();
+		}
+
+
+		/**
+		 * Periodically blocks until I/O events occur, and handles them subsequently. Once the
+		 * server is closed, closes all connections registered, and the selector itself.
+		 */
+		public void run () {
+			try {
+				while (!NioSortServer.this.closed) {
+					this.selector.select();
+					for (Runnable task = this.tasks.poll(); task != null; task = this.tasks.poll()) {
+						task.run();
+					}
+
+					for (final SelectionKey key : this.selector.selectedKeys()) {
+						if (!key.isValid()) continue;
+
+						if (key.isAcceptable()) {
+							try {
+								NioSortServer.this.accept();
+							} catch (final IOException exception) {
+								// the server has been closed, or the connection could not be accepted
+							}
+							continue;
+						}
+
+						final Connection connection = (Connection) key.attachment();
+						if (key.isReadable()) connection.onReadable();
+						if (key.isValid() && key.isWritable()) connection.onWritable();
+					}
+					this.selector.selectedKeys().clear();
+				}
+			} catch (final IOException exception) {
+				throw new UncheckedIOException(exception);
+			} finally {
+				for (final SelectionKey key : this.selector.keys()) {
+					if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+				}
+				try { this.selector.close(); } catch (final IOException exception) {}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class represent the state of a single TCP connection. All methods except
+	 * the sort task are executed within the connection's selector loop thread.
+	 */
+	private final class Connection {
+		private final SelectorLoop selectorLoop;
+		private final SocketChannel channel;
+		private final MergeSorter<String> sorter;
+		private final ByteBuffer input, plainInput;
+		private final Deque<ByteBuffer> output;
+		private final String[] chunk;
+		private SelectionKey key;
+		private Framing framing;
+		private Inflater inflater;
+		private Deflater deflater;
+		private byte[] element, staging, compressed;
+		private int elementLength, elementRemaining, stagingLength, chunkLength, prefixShift;
+		private long prefix;
+		private boolean sorting, responding, responseEnded, closed;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param selectorLoop the selector loop
+		 * @param channel the socket channel
+		 */
+		public Connection (final SelectorLoop selectorLoop, final SocketChannel channel) {
+			this.selectorLoop = selectorLoop;
+			this.channel = channel;
+			this.sorter = NioSortServer.this.sorterFactory.get();
+			this.input = (ByteBuffer) ByteBuffer.allocate(BUFFER_SIZE).flip();
+			this.plainInput = (ByteBuffer) ByteBuffer.allocate(BUFFER_SIZE).flip();
+			this.output = new ArrayDeque<>();
+			this.chunk = new String[CHUNK_SIZE];
+			this.element = new byte[0x100];
+			this.staging = new byte[BUFFER_SIZE];
+			this.elementRemaining = -1;
+		}
+
+
+		/**
+		 * Closes this connection, and it's sorter unless the latter is currently sorting.
+		 */
+		public void close () {
+			if (this.closed) return;
+			this.closed = true;
+
+			if (this.key != null) this.key.cancel();
+			try { this.channel.close(); } catch (final IOException exception) {}
+			if (!this.sorting) try { this.sorter.close(); } catch (final IOException exception) {}
+			if (this.inflater != null) this.inflater.end();
+			if (this.deflater != null) this.deflater.end();
+		}
+
+
+		/**
+		 * Reads the available request data, and processes it.
+		 */
+		public void onReadable () {
+			try {
+				this.input.compact();
+				final int bytesRead;
+				try {
+					bytesRead = this.channel.read(this.input);
+				} finally {
+					this.input.flip();
+				}
+
+				if (bytesRead == -1) {
+					this.close();	// the client side closed the connection
+				} else {
+					this.process();
+				}
+			} catch (final IOException | DataFormatException | RuntimeException exception) {
+				this.close();
+			}
+		}
+
+
+		/**
+		 * Writes as much pending response data as possible using gathering writes, and refills
+		 * the pending response data from the sorter if necessary. Once the response has been
+		 * written completely, resumes processing request data.
+		 */
+		public void onWritable () {
+			try {
+				while (true) {
+					while (this.output.isEmpty() && this.responding && !this.responseEnded) this.encodeResponse();
+					if (this.output.isEmpty()) break;
+
+					final ByteBuffer[] buffers = this.output.stream().limit(GATHER_SIZE).toArray(ByteBuffer[]::new);
+					this.channel.write(buffers);
+					while (!this.output.isEmpty() && !this.output.peek().hasRemaining()) this.output.remove();
+					if (!this.output.isEmpty()) return;
+				}
+
+				if (this.responding) {
+					this.responding = false;
+					this.responseEnded = false;
+					this.key.interestOps(SelectionKey.OP_READ);
+					this.process();
+				} else {
+					this.key.interestOps(SelectionKey.OP_READ);
+				}
+			} catch (final IOException | DataFormatException | RuntimeException exception) {
+				this.close();
+			}
+		}
+
+
+		/**
+		 * Processes the buffered request data until it is exhausted, or until the end of a
+		 * request is reached.
+		 * @throws IOException if there is an I/O related problem
+		 * @throws DataFormatException if compressed request data is corrupt
+		 */
+		private void process () throws IOException, DataFormatException {
+			while (!this.responding && !this.closed) {
+				if (this.framing == null) {
+					if (!this.negotiate()) return;
+				} else if (this.framing == Framing.COMPRESSED) {
+					if (this.plainInput.hasRemaining()) {
+						this.decode(this.plainInput);
+					} else {
+						if (this.inflater.needsInput()) {
+							if (!this.input.hasRemaining()) return;
+							final byte[] compressed = new byte[this.input.remaining()];
+							this.input.get(compressed);
+							this.inflater.setInput(compressed);
+						}
+
+						this.plainInput.clear();
+						final int length = this.inflater.inflate(this.plainInput.array());
+						this.plainInput.limit(length);
+						if (length == 0 && !this.inflater.needsInput()) throw new DataFormatException();
+					}
+				} else {
+					if (!this.input.hasRemaining()) return;
+					this.decode(this.input);
+				}
+			}
+		}
+
+
+		/**
+		 * Determines the framing requested by the client, and acknowledges binary framing.
+		 * @return {@code true} if the framing has been determined, {@code false} if more
+		 *         request data is required
+		 * @throws IOException if the client requests an unsupported framing
+		 */
+		private boolean negotiate () throws IOException {
+			if (!this.input.hasRemaining()) return false;
+			if (this.input.get(this.input.position()) != CspCodec.MAGIC[0]) {
+				this.framing = Framing.TEXT;
+				return true;
+			}
+
+			final int length = CspCodec.MAGIC.length + 2;
+			if (this.input.remaining() < length) return false;
+
+			final byte[] preamble = new byte[length];
+			this.input.get(preamble);
+			final byte flags = preamble[CspCodec.MAGIC.length + 1];
+			if (!Arrays.equals(CspCodec.MAGIC, Arrays.copyOf(preamble, CspCodec.MAGIC.length))) throw new IOException("illegal preamble");
+			if (preamble[CspCodec.MAGIC.length] != CspCodec.VERSION) throw new IOException("unsupported version");
+			if ((flags & ~CspCodec.FLAG_COMPRESSED) != 0) throw new IOException("unsupported flags");
+
+			if (flags == CspCodec.FLAG_COMPRESSED) {
+				this.framing = Framing.COMPRESSED;
+				this.inflater = new Inflater(true);
+				this.deflater = new Deflater(Deflater.BEST_SPEED, true);
+				this.compressed = new byte[BUFFER_SIZE];
+			} else {
+				this.framing = Framing.BINARY;
+			}
+
+			this.output.add(ByteBuffer.wrap(preamble));
+			this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return true;
+		}
+
+
+		/**
+		 * Decodes request elements from the given plain request data until it is exhausted,
+		 * or until the end of a request is reached.
+		 * @param source the plain request data
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void decode (final ByteBuffer source) throws IOException {
+			final byte[] bytes = source.array();
+			int position = source.position();
+			final int limit = source.limit();
+
+			try {
+				if (this.framing == Framing.TEXT) {
+					while (position < limit) {
+						final byte value = bytes[position++];
+						if (value != '\n') {
+							this.appendElementByte(value);
+							continue;
+						}
+
+						if (this.elementLength > 0 && this.element[this.elementLength - 1] == '\r') this.elementLength -= 1;
+						if (this.elementLength == 0) {
+							this.endRequest();
+							return;
+						}
+						this.endElement();
+					}
+				} else {
+					while (position < limit) {
+						if (this.elementRemaining == -1) {
+							final int value = bytes[position++] & 0xFF;
+							if (this.prefixShift > 28) throw new IOException("illegal frame length");
+							this.prefix |= (long) (value & 0x7F) << this.prefixShift;
+							this.prefixShift += 7;
+							if ((value & 0x80) != 0) continue;
+
+							final long prefix = this.prefix;
+							this.prefix = 0;
+							this.prefixShift = 0;
+							if (prefix == 0) {
+								this.endRequest();
+								return;
+							}
+							if (prefix - 1 > CspCodec.MAX_FRAME_LENGTH) throw new IOException("illegal frame length");
+							this.elementRemaining = (int) (prefix - 1);
+							if (this.element.length < this.elementRemaining) this.element = new byte[Math.max(this.elementRemaining, 2 * this.element.length)];
+						} else {
+							final int length = Math.min(this.elementRemaining, limit - position);
+							System.arraycopy(bytes, position, this.element, this.elementLength, length);
+							position += length;
+							this.elementLength += length;
+							this.elementRemaining -= length;
+						}
+
+						if (this.elementRemaining == 0) {
+							this.elementRemaining = -1;
+							this.endElement();
+						}
+					}
+				}
+			} finally {
+				source.position(position);
+			}
+		}
+
+
+		/**
+		 * Appends the given byte to the current element.
+		 * @param value the byte value
+		 * @throws IOException if the element would exceed the maximum frame length
+		 */
+		private void appendElementByte (final byte value) throws IOException {
+			if (this.elementLength == this.element.length) {
+				if (this.elementLength == CspCodec.MAX_FRAME_LENGTH) throw new IOException("illegal frame length");
+				this.element = Arrays.copyOf(this.element, Math.min(2 * this.element.length, CspCodec.MAX_FRAME_LENGTH));
+			}
+			this.element[this.elementLength++] = value;
+		}
+
+
+		/**
+		 * Completes the current element, and writes it into the sorter in chunks.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void endElement () throws IOException {
+			this.chunk[this.chunkLength++] = new String(this.element, 0, this.elementLength, UTF_8);
+			this.elementLength = 0;
+
+			if (this.chunkLength == CHUNK_SIZE) {
+				this.sorter.write(this.chunk, 0, this.chunkLength);
+				this.chunkLength = 0;
+			}
+		}
+
+
+		/**
+		 * Completes the current request, suspends processing further request data, and hands
+		 * the sorting over to the worker pool. Once sorting has completed, the response is
+		 * streamed back within the selector loop thread.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void endRequest () throws IOException {
+			this.sorter.write(this.chunk, 0, this.chunkLength);
+			this.chunkLength = 0;
+			this.sorter.write(null);
+
+			this.sorting = true;
+			this.responding = true;
+			this.key.interestOps(0);
+
+			NioSortServer.this.workerPool.execute(() -> {
+				Throwable failure = null;
+				try {
+					this.sorter.sort();
+				} catch (final IOException | RuntimeException | Error exception) {
+					failure = exception;
+				}
+
+				final boolean failed = failure != null;
+				this.selectorLoop.execute(() -> {
+					this.sorting = false;
+					if (this.closed) {
+						try { this.sorter.close(); } catch (final IOException exception) {}
+					} else if (failed) {
+						this.close();
+					} else {
+						this.key.interestOps(SelectionKey.OP_WRITE);
+						this.onWritable();
+					}
+				});
+			});
+		}
+
+
+		/**
+		 * Encodes the next chunk of sorted elements as pending response data, followed by the
+		 * end of the response if the sorter is exhausted.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void encodeResponse () throws IOException {
+			final int count = this.sorter.read(this.chunk);
+			for (int index = 0; index < count; ++index) {
+				final byte[] bytes = this.chunk[index].getBytes(UTF_8);
+				this.chunk[index] = null;
+
+				if (this.framing == Framing.TEXT) {
+					this.stage(bytes, 0, bytes.length);
+					this.stage('\n');
+				} else {
+					for (long prefix = bytes.length + 1L; true; prefix >>>= 7) {
+						if (prefix < 0x80) {
+							this.stage((int) prefix);
+							break;
+						}
+						this.stage((int) (prefix & 0x7F) | 0x80);
+					}
+					this.stage(bytes, 0, bytes.length);
+				}
+			}
+
+			if (count < CHUNK_SIZE) {
+				this.stage(this.framing == Framing.TEXT ? '\n' : 0);
+				this.responseEnded = true;
+			}
+
+			if (this.framing == Framing.COMPRESSED) {
+				this.deflater.setInput(this.staging, 0, this.stagingLength);
+				final int flush = this.responseEnded ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+				while (true) {
+					final int length = this.deflater.deflate(this.compressed, 0, this.compressed.length, flush);
+					if (length > 0) this.output.add(ByteBuffer.wrap(Arrays.copyOf(this.compressed, length)));
+					if (length < this.compressed.length && this.deflater.needsInput()) break;
+				}
+			} else if (this.stagingLength > 0) {
+				this.output.add(ByteBuffer.wrap(Arrays.copyOf(this.staging, this.stagingLength)));
+			}
+			this.stagingLength = 0;
+		}
+
+
+		/**
+		 * Appends the given byte to the staging area.
+		 * @param value the byte value
+		 */
+		private void stage (final int value) {
+			if (this.stagingLength == this.staging.length) this.staging = Arrays.copyOf(this.staging, 2 * this.staging.length);
+			this.staging[this.stagingLength++] = (byte) value;
+		}
+
+
+		/**
+		 * Appends the given bytes to the staging area.
+		 * @param bytes the byte array
+		 * @param offset the offset of the first byte to be appended
+		 * @param length the number of bytes to be appended
+		 */
+		private void stage (final byte[] bytes, final int offset, final int length) {
+			if (this.stagingLength + length > this.staging.length) this.staging = Arrays.copyOf(this.staging, Math.max(this.stagingLength + length, 2 * this.staging.length));
+			System.arraycopy(bytes, offset, this.staging, this.stagingLength, length);
+			this.stagingLength += length;
+		}
+	}
+
+
+	/**
+	 * Application entry point. The given runtime parameters must be a service port, and
+	 * optionally the number of selector threads and the number of worker threads.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         or if any of the given thread counts is not strictly positive
+	 * @throws IOException if the given port is already in use, or if there is a problem waiting for
+	 *         the quit signal
+	 */
+	static public void main (final String[] args) throws IOException {
+		final long timestamp = System.currentTimeMillis();
+		final int servicePort = Integer.parseInt(args[0]);
+		final int selectorCount = args.length > 1 ? Integer.parseInt(args[1]) : CORES;
+		final int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : CORES;
+
+		try (NioSortServer server = new NioSortServer(servicePort, selectorCount, workerCount, RadixSorter::new)) {
+			System.out.format("NIO sort server running on %d selector and %d worker threads, enter \"quit\" to stop.\n", selectorCount, workerCount);
+			System.out.format("Service port is %d.\n", server.getServicePort());
+			System.out.format("Startup time is %dms.\n", System.currentTimeMillis() - timestamp);
+
+			final BufferedReader charSource = new BufferedReader(new InputStreamReader(System.in));
+			while (!"quit".equals(charSource.readLine()));
+		}
+	}
+}
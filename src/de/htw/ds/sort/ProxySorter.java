@@ -1,16 +1,13 @@
 package de.htw.ds.sort;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Queue;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.ds.sort.CspCodec.StringCodec;
 import de.htw.tool.Copyright;
 
 
@@ -27,40 +24,114 @@ import de.htw.tool.Copyright;
  * CR			:= line separator
  * element		:= utf8-string - (null | "")
  * </pre>
+ * By default, proxy sorters negotiate the more compact binary framing described in
+ * {@link CspCodec} instead, which additionally allows empty elements and elements containing
+ * line separators.
  */
 @SuppressWarnings("unused") // TODO: remove this line
 @Copyright(year=2010, holders="Sascha Baumeister")
 public class ProxySorter implements MergeSorter<String> {
-	static private final int BUFFER_SIZE = 0xF000;
-
 	private final Socket connection;
-	private final BufferedReader charSource;
-	private final BufferedWriter charSink;
+	private final StringCodec codec;
 	private State state;
 
 
 	/**
 	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
-	 * a sort server using the given service address.
+	 * a sort server using the given service address, and binary framing.
 	 * @param serviceAddress the service address
 	 * @throws NullPointerException if the given service address is {@code null}
 	 * @throws IOException if there is an I/O related problem
 	 */
 	public ProxySorter (final InetSocketAddress serviceAddress) throws NullPointerException, IOException {
+		this(serviceAddress, Framing.BINARY);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address and framing.
+	 * @param serviceAddress the service address
+	 * @param framing the framing
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support the given framing
+	 */
+	public ProxySorter (final InetSocketAddress serviceAddress, final Framing framing) throws NullPointerException, IOException {
+		this(serviceAddress, framing, 0);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address and framing. If the given limit is strictly
+	 * positive, the server is requested to respond with at most said number of lowest elements.
+	 * @param serviceAddress the service address
+	 * @param framing the framing
+	 * @param limit the maximum number of elements within responses, or {@code 0} for none
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given limit is negative, or if it is strictly
+	 *         positive and the given framing is neither binary nor compressed
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support the given framing or limit
+	 */
+	public ProxySorter (final InetSocketAddress serviceAddress, final Framing framing, final int limit) throws NullPointerException, IllegalArgumentException, IOException {
+		if (framing == null) throw new NullPointerException();
+
 		this.connection = new Socket(serviceAddress.getAddress(), serviceAddress.getPort());
-		this.charSource = new BufferedReader(new InputStreamReader(this.connection.getInputStream(), UTF_8), BUFFER_SIZE);
-		this.charSink = new BufferedWriter(new OutputStreamWriter(this.connection.getOutputStream(), UTF_8), BUFFER_SIZE);
+		try {
+			this.codec = CspCodec.connect(this.connection, framing, limit);
+		} catch (final IOException | RuntimeException exception) {
+			this.connection.close();
+			throw exception;
+		}
 		this.state = State.WRITE;
 	}
 
 
+	/**
+	 * Returns the framing.
+	 * @return the framing
+	 */
+	public Framing getFraming () {
+		return this.codec.getFraming();
+	}
+
+
+	/**
+	 * Returns the maximum number of elements within responses.
+	 * @return the limit, or {@code 0} for none
+	 */
+	public int getLimit () {
+		return this.codec.getLimit();
+	}
+
+
+	/**
+	 * Returns the number of bytes received from the sort server so far.
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived () {
+		return this.codec.getBytesRead();
+	}
+
+
+	/**
+	 * Returns the number of bytes sent to the sort server so far.
+	 * @return the number of bytes sent
+	 */
+	public long getBytesSent () {
+		return this.codec.getBytesWritten();
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public void close () throws IOException {
 		try {
 			try {
-				this.charSink.flush();
+				this.codec.close();
 			} finally {
 				this.connection.close();
 			}
@@ -76,17 +147,25 @@ public class ProxySorter implements MergeSorter<String> {
 	public void write (final String element) throws IllegalStateException, IOException {
 		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
 
-		// TODO: If the given element is null, write newline characters to the char sink, flush
-		// the latter, and set the state to SORT. Otherwise, write the given element to the
-		// char sink, write newline characters to the latter, and do NOT flush it.
-		
 		if (element == null) {
-			this.charSink.newLine();
-			this.charSink.flush();
+			this.codec.writeEnd();
 			this.state = State.SORT;
 		} else {
-			this.charSink.write(element);
-			this.charSink.newLine();
+			this.codec.write(element);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			this.codec.write(batch[index]);
 		}
 	}
 
@@ -107,17 +186,30 @@ public class ProxySorter implements MergeSorter<String> {
 	public String read () throws IllegalStateException, IOException {
 		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
 
-		// TODO: Read the next line from the char source. Return said line if it is
-		// neither null nor empty. Otherwise, set the state to WRITE and return null.
-		
-		String line = this.charSource.readLine();
-		
-		if (line == null || line.isEmpty()) {
-			line = null;
-			this.state = State.WRITE;
+		final String element = this.codec.read();
+		if (element == null) this.state = State.WRITE;
+		return element;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		for (int index = 0; index < buffer.length; ++index) {
+			final String element = this.codec.read();
+			if (element == null) {
+				this.state = State.WRITE;
+				return index;
+			}
+			buffer[index] = element;
 		}
-		
-		return line;
+
+		return buffer.length;
 	}
 
 
@@ -130,11 +222,11 @@ public class ProxySorter implements MergeSorter<String> {
 
 
 	/**
-	 * Returns the root sorter instance of a balanced recursion tree of new sorters.
-	 * Said tree will contain one proxy sorter instance for each of the given socket
-	 * addresses. If there is exactly one given socket address, the result will be
-	 * the sole proxy sorter instance created. Otherwise, the result will be a
-	 * multi-thread sorter instance.
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one proxy
+	 * sorter instance for each of the given socket addresses. If there is exactly one given
+	 * socket address, the result will be the sole proxy sorter instance created. Otherwise,
+	 * the result will be a k-way merge sorter instance that distributes elements adaptively,
+	 * as the servers may differ in speed and load.
 	 * @param serviceAddresses the sort server service addresses
 	 * @return the root sorter created
 	 * @throws NullPointerException if any of the given arguments is {@code null}
@@ -144,16 +236,8 @@ public class ProxySorter implements MergeSorter<String> {
 	static public MergeSorter<String> newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
 		if (serviceAddresses.length == 0) throw new IllegalArgumentException();
 
-		// TODO Create a queue containing one proxy sorter instance for each of the given service
-		// addresses - which will be at least one. While there is more than one sorter within said
-		// queue, remove two of them, use these to create a new multi-thread sorter instance, and
-		// add the latter to the queue - make sure this follows fist in first out semantics. This
-		// way, the queue is guaranteed to contain exactly one element in the end, which shall be returned.
-		
-		final int numberOfAddresses = serviceAddresses.length;
-		Queue<MergeSorter<String>> queue = new LinkedList<>();
-		for (int i = 0; i < numberOfAddresses; i++) queue.add(new ProxySorter(serviceAddresses[i]));
-		while(queue.size() > 1)	queue.add(new MultiThreadSorter<>(queue.remove(), queue.remove()));
-		return queue.remove();
+		final List<MergeSorter<String>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new ProxySorter(serviceAddress));
+		return leaves.size() == 1 ? leaves.get(0) : new KWayMergeSorter<>(leaves, KWayMergeSorter.Distribution.ADAPTIVE);
 	}
 }
\ No newline at end of file
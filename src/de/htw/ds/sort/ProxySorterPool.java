@@ -0,0 +1,484 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import de.htw.ds.sort.CspCodec.MultiplexedCodec;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * Pool of multiplexed connections to a sort server, handing out logical proxy sorters called
+ * channels. Each channel behaves like a {@linkplain ProxySorter proxy sorter}, but shares it's
+ * connection with other channels: Every request is assigned a new stream identifier, and it's
+ * frames interleave with those of other streams on the connection, while the server handles the
+ * requests of different streams concurrently. This way, clients issuing many small concurrent
+ * sorts avoid paying a TCP handshake and a server thread per sort. Connections are established
+ * lazily up to the given number, and channels are spread across them in round-robin order;
+ * failed connections are replaced when the next channel is created. Note that this class is
+ * thread-safe, while the channels themselves must not be shared between threads.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class ProxySorterPool implements AutoCloseable {
+	static private final int BATCH_SIZE = 0x400;
+	static private final String[] END_BATCH = {};
+
+	private final InetSocketAddress serviceAddress;
+	private final Session[] sessions;
+	private int nextSessionIndex;
+	private boolean closed;
+
+
+	/**
+	 * Creates a new instance.
+	 * @param serviceAddress the service address
+	 * @param connectionCount the maximum number of connections
+	 * @throws NullPointerException if the given service address is {@code null}
+	 * @throws IllegalArgumentException if the given connection count is not strictly positive
+	 */
+	public ProxySorterPool (final InetSocketAddress serviceAddress, final int connectionCount) throws NullPointerException, IllegalArgumentException {
+		if (connectionCount <= 0) throw new IllegalArgumentException();
+
+		this.serviceAddress = Objects.requireNonNull(serviceAddress);
+		this.sessions = new Session[connectionCount];
+	}
+
+
+	/**
+	 * Returns the service address.
+	 * @return the service address
+	 */
+	public InetSocketAddress getServiceAddress () {
+		return this.serviceAddress;
+	}
+
+
+	/**
+	 * Returns the maximum number of connections.
+	 * @return the connection count
+	 */
+	public int getConnectionCount () {
+		return this.sessions.length;
+	}
+
+
+	/**
+	 * Closes this pool and all it's connections, which fails all channels still in use.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public synchronized void close () throws IOException {
+		this.closed = true;
+
+		Throwable failure = null;
+		for (int index = 0; index < this.sessions.length; ++index) {
+			if (this.sessions[index] == null) continue;
+
+			try {
+				this.sessions[index].close();
+			} catch (final IOException | RuntimeException | Error exception) {
+				if (failure == null) failure = exception;
+			}
+			this.sessions[index] = null;
+		}
+
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+	}
+
+
+	/**
+	 * Returns a new channel in {@link MergeSorter.State#WRITE} state, which is multiplexed over
+	 * the next connection in round-robin order.
+	 * @return the channel created
+	 * @throws IllegalStateException if this pool is closed
+	 * @throws IOException if there is an I/O related problem connecting to the server
+	 */
+	public synchronized MergeSorter<String> newChannel () throws IllegalStateException, IOException {
+		if (this.closed) throw new IllegalStateException();
+
+		final int index = this.nextSessionIndex;
+		this.nextSessionIndex = (index + 1) % this.sessions.length;
+
+		Session session = this.sessions[index];
+		if (session == null || session.failure != null) {
+			if (session != null) session.close();
+			this.sessions[index] = session = new Session(this.serviceAddress);
+		}
+		return new Channel(session);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain the given
+	 * number of channels created by the given pool. If the given count is one, the result will
+	 * be the sole channel created. Otherwise, the result will be a k-way merge sorter instance.
+	 * @param pool the proxy sorter pool
+	 * @param channelCount the number of channels
+	 * @return the root sorter created
+	 * @throws NullPointerException if the given pool is {@code null}
+	 * @throws IllegalArgumentException if the given count is not strictly positive
+	 * @throws IllegalStateException if the given pool is closed
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final ProxySorterPool pool, final int channelCount) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (channelCount <= 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<String>> leaves = new ArrayList<>(channelCount);
+		for (int index = 0; index < channelCount; ++index) leaves.add(pool.newChannel());
+		return leaves.size() == 1 ? leaves.get(0) : new KWayMergeSorter<>(leaves);
+	}
+
+
+
+	/**
+	 * Instances of this class represent multiplexed connections. Requests are sent by the
+	 * channels themselves, with each frame being written atomically; responses are received
+	 * by a background receiver thread, which hands them over to their streams' channels in
+	 * batches. Note that the response queues are unbounded, which prevents a slow channel from
+	 * blocking the responses of all other channels sharing the connection.
+	 */
+	static private final class Session {
+		private final Socket connection;
+		private final MultiplexedCodec codec;
+		private final Map<Integer,BlockingQueue<String[]>> responseQueues;
+		private final Thread receiver;
+		private volatile Throwable failure;
+		private int nextStreamIdentifier;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param serviceAddress the service address
+		 * @throws IOException if there is an I/O related problem, or if the server does not
+		 *         support multiplexing
+		 */
+		public Session (final InetSocketAddress serviceAddress) throws IOException {
+			this.connection = new Socket(serviceAddress.getAddress(), serviceAddress.getPort());
+			try {
+				this.codec = CspCodec.connectMultiplexed(this.connection);
+			} catch (final IOException | RuntimeException exception) {
+				this.connection.close();
+				throw exception;
+			}
+
+			this.responseQueues = new ConcurrentHashMap<>();
+			this.receiver = new Thread(this::receive, "csp-demultiplexer");
+			this.receiver.setDaemon(true);
+			this.receiver.start();
+		}
+
+
+		/**
+		 * Closes the connection, which terminates the receiver thread.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void close () throws IOException {
+			this.connection.close();
+		}
+
+
+		/**
+		 * Opens a new stream, and returns it's identifier. Stream identifiers are never reused
+		 * until they wrap around, which makes frames of abandoned streams easy to discard.
+		 * @param responseQueue the queue receiving the stream's response batches
+		 * @return the stream identifier
+		 * @throws IOException if the receiver has failed
+		 */
+		public synchronized int open (final BlockingQueue<String[]> responseQueue) throws IOException {
+			this.rethrowFailure();
+
+			this.nextStreamIdentifier = this.nextStreamIdentifier == Integer.MAX_VALUE ? 1 : this.nextStreamIdentifier + 1;
+			this.responseQueues.put(this.nextStreamIdentifier, responseQueue);
+			return this.nextStreamIdentifier;
+		}
+
+
+		/**
+		 * Abandons the given stream, discarding any subsequent response frames.
+		 * @param streamIdentifier the stream identifier
+		 */
+		public void abandon (final int streamIdentifier) {
+			this.responseQueues.remove(streamIdentifier);
+		}
+
+
+		/**
+		 * Sends the given slice of elements for the given stream, optionally followed by the end
+		 * of the stream's request.
+		 * @param streamIdentifier the stream identifier
+		 * @param batch the elements
+		 * @param length the number of elements
+		 * @param end whether or not to end the request
+		 * @throws IOException if there is an I/O related problem, or if the receiver has failed
+		 */
+		public void send (final int streamIdentifier, final String[] batch, final int length, final boolean end) throws IOException {
+			this.rethrowFailure();
+
+			synchronized (this.codec) {
+				for (int index = 0; index < length; ++index) {
+					this.codec.writeStream(streamIdentifier);
+					this.codec.write(batch[index]);
+				}
+
+				if (end) {
+					this.codec.writeStream(streamIdentifier);
+					this.codec.writeEnd();
+				}
+			}
+		}
+
+
+		/**
+		 * Precisely rethrows the failure of the receiver, if any.
+		 * @throws IOException if the receiver has failed
+		 */
+		public void rethrowFailure () throws IOException {
+			final Throwable failure = this.failure;
+			if (failure == null) return;
+			if (failure instanceof Error) throw (Error) failure;
+			if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+			if (failure instanceof IOException) throw (IOException) failure;
+			throw new AssertionError();
+		}
+
+
+		/**
+		 * Receives the response frames of all streams, and hands them over to their channels
+		 * in batches; the last batch of each response is not full, which may require an
+		 * additional empty batch. This operation is performed by the receiver thread until the
+		 * connection fails or is closed, in which case the failure is recorded, and an empty
+		 * batch is handed over to every open stream.
+		 */
+		private void receive () {
+			final Map<Integer,List<String>> batches = new HashMap<>();
+			try {
+				while (true) {
+					final int streamIdentifier = this.codec.readStream();
+					final String element = this.codec.read();
+					final BlockingQueue<String[]> responseQueue = this.responseQueues.get(streamIdentifier);
+
+					if (element == null) {
+						final List<String> batch = batches.remove(streamIdentifier);
+						if (responseQueue != null) {
+							this.responseQueues.remove(streamIdentifier);
+							responseQueue.add(batch == null ? END_BATCH : batch.toArray(new String[batch.size()]));
+						}
+					} else if (responseQueue != null) {
+						List<String> batch = batches.get(streamIdentifier);
+						if (batch == null) batches.put(streamIdentifier, batch = new ArrayList<>());
+						batch.add(element);
+						if (batch.size() == BATCH_SIZE) {
+							responseQueue.add(batch.toArray(new String[BATCH_SIZE]));
+							batch.clear();
+						}
+					}
+				}
+			} catch (final IOException | RuntimeException | Error exception) {
+				try { this.connection.close(); } catch (final IOException nestedException) {}
+
+				synchronized (this) {
+					this.failure = exception;
+					for (final BlockingQueue<String[]> responseQueue : this.responseQueues.values()) {
+						responseQueue.add(END_BATCH);
+					}
+					this.responseQueues.clear();
+				}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class represent logical proxy sorters sharing a multiplexed connection.
+	 */
+	static private final class Channel implements MergeSorter<String> {
+		private final Session session;
+		private final BlockingQueue<String[]> responseQueue;
+		private int streamIdentifier;
+		private String[] writeBatch;
+		private int writePosition;
+		private String[] readBatch;
+		private int readPosition;
+		private State state;
+
+
+		/**
+		 * Creates a new instance in {@link State#WRITE} state.
+		 * @param session the multiplexed connection
+		 */
+		public Channel (final Session session) {
+			this.session = session;
+			this.responseQueue = new LinkedBlockingQueue<>();
+			this.writeBatch = new String[BATCH_SIZE];
+			this.state = State.WRITE;
+		}
+
+
+		/**
+		 * {@inheritDoc} If a request is still being sent, it's end is sent as well, which allows
+		 * the server to release it's resources; any response is discarded.
+		 */
+		public void close () throws IOException {
+			try {
+				if (this.streamIdentifier != 0) {
+					this.session.abandon(this.streamIdentifier);
+					if (this.state == State.WRITE && this.session.failure == null) this.session.send(this.streamIdentifier, this.writeBatch, 0, true);
+				}
+			} finally {
+				this.streamIdentifier = 0;
+				this.writeBatch = null;
+				this.readBatch = null;
+				this.responseQueue.clear();
+				this.state = State.CLOSED;
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void write (final String element) throws IllegalStateException, IOException {
+			if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+			if (this.streamIdentifier == 0) this.streamIdentifier = this.session.open(this.responseQueue);
+			if (element == null) {
+				this.session.send(this.streamIdentifier, this.writeBatch, this.writePosition, true);
+				this.writePosition = 0;
+				this.state = State.SORT;
+			} else {
+				this.writeBatch[this.writePosition++] = element;
+				if (this.writePosition == BATCH_SIZE) this.flushWriteBatch();
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+			if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+			if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+			for (int index = offset; index < offset + length; ++index) {
+				if (batch[index] == null) throw new NullPointerException();
+			}
+
+			if (this.streamIdentifier == 0) this.streamIdentifier = this.session.open(this.responseQueue);
+			for (int position = offset; position < offset + length; ) {
+				final int count = Math.min(offset + length - position, BATCH_SIZE - this.writePosition);
+				System.arraycopy(batch, position, this.writeBatch, this.writePosition, count);
+				this.writePosition += count;
+				position += count;
+				if (this.writePosition == BATCH_SIZE) this.flushWriteBatch();
+			}
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void sort () throws IllegalStateException {
+			if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+			this.readBatch = null;
+			this.readPosition = 0;
+			this.state = State.READ;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public String read () throws IllegalStateException, IOException {
+			if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+			if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeReadBatch();
+			if (this.readPosition < this.readBatch.length) return this.readBatch[this.readPosition++];
+
+			this.endResponse();
+			return null;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+			if (buffer.length == 0) throw new IllegalArgumentException();
+			if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+			int count = 0;
+			while (count < buffer.length) {
+				if (this.readBatch == null || this.readPosition == BATCH_SIZE) this.takeReadBatch();
+
+				final int length = Math.min(buffer.length - count, this.readBatch.length - this.readPosition);
+				if (length == 0) {
+					this.endResponse();
+					break;
+				}
+
+				System.arraycopy(this.readBatch, this.readPosition, buffer, count, length);
+				this.readPosition += length;
+				count += length;
+			}
+
+			return count;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public State getState () {
+			return this.state;
+		}
+
+
+		/**
+		 * Sends the current write batch, which must be full.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void flushWriteBatch () throws IOException {
+			this.session.send(this.streamIdentifier, this.writeBatch, BATCH_SIZE, false);
+			this.writeBatch = new String[BATCH_SIZE];
+			this.writePosition = 0;
+		}
+
+
+		/**
+		 * Takes the next response batch, and precisely rethrows any connection failure if said
+		 * batch is the last one.
+		 * @throws IOException if the connection has failed
+		 */
+		private void takeReadBatch () throws IOException {
+			this.readBatch = Uninterruptibles.take(this.responseQueue);
+			this.readPosition = 0;
+			if (this.readBatch.length < BATCH_SIZE) this.session.rethrowFailure();
+		}
+
+
+		/**
+		 * Completes the current response, after which the next request will use a new stream.
+		 */
+		private void endResponse () {
+			Arrays.fill(this.writeBatch, null);
+			this.readBatch = null;
+			this.streamIdentifier = 0;
+			this.state = State.WRITE;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Single-threaded string sorter implementation that collects elements into an array, and sorts
+ * them using most significant digit (MSD) radix sort over the UTF-16 code units, producing the
+ * same order as the natural order of strings. Each recursion step packs the next three code units
+ * of every element into a primitive key, and distributes the elements by said keys using least
+ * significant digit passes over the key bytes, skipping passes whose byte is shared by all keys;
+ * elements with equal keys are then sorted recursively by their subsequent code units. Therefore,
+ * long shared prefixes cost mere sequential passes over primitive arrays instead of repeated
+ * string comparisons, and small partitions fall back to comparison sorting. Note that all elements
+ * are stored within the RAM of a single process.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class RadixSorter implements MergeSorter<String> {
+	static private final int COMPARISON_THRESHOLD = 64;
+	static private final int DIGIT_BITS = 17;
+	static private final int DIGIT_COUNT = 3;
+	static private final int DIGIT_MASK = (1 << DIGIT_BITS) - 1;
+	static private final int KEY_BYTES = (DIGIT_BITS * DIGIT_COUNT + 7) / 8;
+	static private final int INITIAL_CAPACITY = 0x100;
+
+	private final int retainedCapacity;
+	private final int[][] counts;
+	private String[] elements;
+	private int size;
+	private int readIndex;
+	private long[] keys, keyBuffer;
+	private String[] elementBuffer;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link MergeSorter.State#WRITE} state that releases it's
+	 * element storage after each request.
+	 */
+	public RadixSorter () {
+		this(0);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link MergeSorter.State#WRITE} state that retains it's element
+	 * storage and sort buffers across requests, as long as their capacity does not exceed the
+	 * given number of elements.
+	 * @param retainedCapacity the maximum number of elements whose storage is retained
+	 * @throws IllegalArgumentException if the given capacity is negative
+	 */
+	public RadixSorter (final int retainedCapacity) throws IllegalArgumentException {
+		if (retainedCapacity < 0) throw new IllegalArgumentException();
+
+		this.retainedCapacity = retainedCapacity;
+		this.counts = new int[KEY_BYTES][0x100];
+		this.elements = new String[INITIAL_CAPACITY];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the maximum number of elements whose storage is retained across requests.
+	 * @return the retained capacity
+	 */
+	public int getRetainedCapacity () {
+		return this.retainedCapacity;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		this.clear();
+		this.keys = this.keyBuffer = null;
+		this.elementBuffer = null;
+		this.state = State.CLOSED;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String element) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.state = State.SORT;
+		} else {
+			if (this.size == this.elements.length) this.elements = Arrays.copyOf(this.elements, 2 * this.size);
+			this.elements[this.size++] = element;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			if (batch[index] == null) throw new NullPointerException();
+		}
+
+		if (this.size + length > this.elements.length) this.elements = Arrays.copyOf(this.elements, Math.max(this.size + length, 2 * this.elements.length));
+		System.arraycopy(batch, offset, this.elements, this.size, length);
+		this.size += length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		if (this.size >= COMPARISON_THRESHOLD) {
+			if (this.keys == null || this.keys.length < this.size) {
+				this.keys = new long[this.size];
+				this.keyBuffer = new long[this.size];
+				this.elementBuffer = new String[this.size];
+			}
+
+			try {
+				this.sort(0, this.size, 0);
+			} finally {
+				if (this.keys.length > this.retainedCapacity) {
+					this.keys = this.keyBuffer = null;
+					this.elementBuffer = null;
+				} else {
+					Arrays.fill(this.elementBuffer, 0, this.size, null);
+				}
+			}
+		} else {
+			Arrays.sort(this.elements, 0, this.size);
+		}
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readIndex < this.size) return this.elements[this.readIndex++];
+
+		this.clear();
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.size - this.readIndex);
+		System.arraycopy(this.elements, this.readIndex, buffer, 0, count);
+		this.readIndex += count;
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Discards all elements, retaining the element storage unless it's capacity exceeds both
+	 * the initial and the retained capacity.
+	 */
+	private void clear () {
+		if (this.elements.length > Math.max(INITIAL_CAPACITY, this.retainedCapacity)) {
+			this.elements = new String[INITIAL_CAPACITY];
+		} else {
+			Arrays.fill(this.elements, 0, this.size, null);
+		}
+		this.size = 0;
+		this.readIndex = 0;
+	}
+
+
+	/**
+	 * Recursively sorts the elements within the given range, all of which share their first
+	 * code units up to the given depth. The largest bucket of each distribution is sorted
+	 * iteratively instead of recursively, which limits the recursion depth to the logarithm
+	 * of the range size even if many elements share long prefixes, like duplicate lines.
+	 * @param rangeLower the inclusive lower range index
+	 * @param rangeUpper the exclusive upper range index
+	 * @param rangeDepth the number of code units shared by all elements within the range
+	 */
+	private void sort (final int rangeLower, final int rangeUpper, final int rangeDepth) {
+		int lower = rangeLower, upper = rangeUpper, depth = rangeDepth;
+		while (upper - lower >= COMPARISON_THRESHOLD) {
+			for (int index = lower; index < upper; ++index) {
+				this.keys[index] = key(this.elements[index], depth);
+			}
+			this.distribute(lower, upper);
+
+			int largestLower = lower, largestUpper = lower;
+			for (int start = lower, end; start < upper; start = end) {
+				final long key = this.keys[start];
+				for (end = start + 1; end < upper && this.keys[end] == key; ++end);
+
+				// equal keys whose last digit marks the end of the elements imply equal elements
+				if (end - start == 1 || (key & DIGIT_MASK) == 0) continue;
+				if (end - start > largestUpper - largestLower) {
+					if (largestUpper > largestLower) this.sort(largestLower, largestUpper, depth + DIGIT_COUNT);
+					largestLower = start;
+					largestUpper = end;
+				} else {
+					this.sort(start, end, depth + DIGIT_COUNT);
+				}
+			}
+
+			lower = largestLower;
+			upper = largestUpper;
+			depth += DIGIT_COUNT;
+		}
+
+		Arrays.sort(this.elements, lower, upper);
+	}
+
+
+	/**
+	 * Stably sorts the elements within the given range by their keys, using one distribution pass
+	 * per key byte. Passes are skipped if all keys share the respective byte.
+	 * @param lower the inclusive lower range index
+	 * @param upper the exclusive upper range index
+	 */
+	private void distribute (final int lower, final int upper) {
+		final int[][] counts = this.counts;
+		for (final int[] passCounts : counts) {
+			Arrays.fill(passCounts, 0);
+		}
+		for (int index = lower; index < upper; ++index) {
+			final long key = this.keys[index];
+			for (int pass = 0; pass < KEY_BYTES; ++pass) {
+				counts[pass][(int) (key >>> (pass << 3)) & 0xFF] += 1;
+			}
+		}
+
+		long[] sourceKeys = this.keys, sinkKeys = this.keyBuffer;
+		String[] sourceElements = this.elements, sinkElements = this.elementBuffer;
+		for (int pass = 0; pass < KEY_BYTES; ++pass) {
+			final int shift = pass << 3;
+			final int[] offsets = counts[pass];
+			if (offsets[(int) (sourceKeys[lower] >>> shift) & 0xFF] == upper - lower) continue;
+
+			for (int digit = 0, offset = lower; digit < 0x100; ++digit) {
+				final int count = offsets[digit];
+				offsets[digit] = offset;
+				offset += count;
+			}
+
+			for (int index = lower; index < upper; ++index) {
+				final long key = sourceKeys[index];
+				final int position = offsets[(int) (key >>> shift) & 0xFF]++;
+				sinkKeys[position] = key;
+				sinkElements[position] = sourceElements[index];
+			}
+
+			final long[] keys = sourceKeys;
+			sourceKeys = sinkKeys;
+			sinkKeys = keys;
+			final String[] elements = sourceElements;
+			sourceElements = sinkElements;
+			sinkElements = elements;
+		}
+
+		if (sourceKeys != this.keys) {
+			System.arraycopy(sourceKeys, lower, this.keys, lower, upper - lower);
+			System.arraycopy(sourceElements, lower, this.elements, lower, upper - lower);
+		}
+	}
+
+
+	/**
+	 * Returns the key of the given element at the given depth, packing the subsequent code units
+	 * into digits in descending significance order. Each code unit is incremented by one, which
+	 * reserves digit value zero for positions beyond the end of the element, and therefore
+	 * orders elements before their extensions.
+	 * @param element the element
+	 * @param depth the index of the first code unit to be packed
+	 * @return the key
+	 */
+	static private long key (final String element, final int depth) {
+		final int length = element.length();
+
+		long key = 0;
+		for (int index = depth; index < depth + DIGIT_COUNT; ++index) {
+			key = (key << DIGIT_BITS) | (index < length ? element.charAt(index) + 1 : 0);
+		}
+		return key;
+	}
+
+
+	/**
+	 * Returns a new radix sorter instance.
+	 * @return the sorter created
+	 */
+	static public MergeSorter<String> newInstance () {
+		return new RadixSorter();
+	}
+}
@@ -0,0 +1,438 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Objects;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Record sorter implementation that decorates a string sorter, sorting delimited records like
+ * CSV or TSV lines by one or more of their columns while carrying the whole record as payload.
+ * The sort keys are parsed once while a record is written, and encoded into a binary prefix
+ * whose natural string order equals the key order; the delegate sorts the prefixed records,
+ * and the prefix is removed again while reading. This way, comparisons never parse a record
+ * again, and any string sorter can be used as delegate, including sorter trees and proxy sorters
+ * using the unmodified sort protocol; note however that the prefix may contain line separators,
+ * which prohibits text framing. Records with equal keys are ordered by their natural order.<br />
+ * Each key column is encoded into 16-bit units as follows, with it's units being inverted if
+ * the column is to be sorted in descending order:
+ * <ul>
+ * <li>Numeric columns are parsed as double values, which are mapped to four code units whose
+ * unsigned order equals the numeric order. Missing or malformed values are sorted after all
+ * numbers.</li>
+ * <li>Lexicographic columns are copied, escaping code units {@code 0x0000} and {@code 0x0001}
+ * with a preceding {@code 0x0001}, and terminated with {@code 0x0000}; missing values are
+ * treated as empty.</li>
+ * </ul>
+ * Finally, the key units are transcoded into characters that are never surrogates, as lone
+ * surrogates would not survive the UTF-8 encoding of the sort protocol: Units below
+ * {@code 0xD000} are represented by themselves, all others by a character within range
+ * {@code [0xD000, 0xD02F]} followed by a character within range {@code [0x00, 0xFF]}, which
+ * preserves their order.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class RecordSorter implements MergeSorter<String> {
+	static private final char TERMINATOR = '\u0000';
+	static private final char ESCAPE = '\u0001';
+	static private final double MALFORMED = Double.NaN;
+	static private final char SPLIT_UNIT = '\uD000';
+
+	private final MergeSorter<String> delegate;
+	private final KeySpec keySpec;
+	private final StringBuilder keyBuilder, recordBuilder;
+	private final int[] fieldOffsets;
+	private String[] encodedBatch;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is based on the given delegate.
+	 * @param delegate the delegate sorter
+	 * @param keySpec the key specification
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 */
+	public RecordSorter (final MergeSorter<String> delegate, final KeySpec keySpec) throws NullPointerException {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.keySpec = Objects.requireNonNull(keySpec);
+		this.keyBuilder = new StringBuilder();
+		this.recordBuilder = new StringBuilder();
+		this.fieldOffsets = new int[keySpec.getMaxColumn() + 1];
+		this.encodedBatch = new String[0];
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the key specification.
+	 * @return the key specification
+	 */
+	public KeySpec getKeySpec () {
+		return this.keySpec;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.delegate.close();
+		} finally {
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String record) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (record == null) {
+			this.delegate.write(null);
+			this.state = State.SORT;
+		} else {
+			this.delegate.write(this.encode(record));
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException, IOException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (this.encodedBatch.length < length) this.encodedBatch = new String[length];
+		for (int index = 0; index < length; ++index) {
+			this.encodedBatch[index] = this.encode(batch[offset + index]);
+		}
+
+		try {
+			this.delegate.write(this.encodedBatch, 0, length);
+		} finally {
+			Arrays.fill(this.encodedBatch, 0, length, null);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.delegate.sort();
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final String element = this.delegate.read();
+		if (element != null) return this.decode(element);
+
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException, IOException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = this.delegate.read(buffer);
+		for (int index = 0; index < count; ++index) {
+			buffer[index] = this.decode(buffer[index]);
+		}
+
+		if (count < buffer.length) this.state = State.WRITE;
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Returns the given record prefixed with it's encoded sort key.
+	 * @param record the record
+	 * @return the encoded record
+	 * @throws NullPointerException if the given record is {@code null}
+	 */
+	private String encode (final String record) throws NullPointerException {
+		final int[] fieldOffsets = this.fieldOffsets;
+		final char delimiter = this.keySpec.getDelimiter();
+
+		int fieldCount = 1;
+		fieldOffsets[0] = 0;
+		for (int position = record.indexOf(delimiter); position != -1 && fieldCount < fieldOffsets.length; position = record.indexOf(delimiter, position + 1)) {
+			fieldOffsets[fieldCount++] = position + 1;
+		}
+
+		final StringBuilder keyBuilder = this.keyBuilder;
+		keyBuilder.setLength(0);
+		for (int key = 0; key < this.keySpec.getKeyCount(); ++key) {
+			final int column = this.keySpec.getColumn(key);
+			final int lower = column < fieldCount ? fieldOffsets[column] : record.length();
+			final int upper = column >= fieldCount ? lower : (column + 1 < fieldCount ? fieldOffsets[column + 1] - 1 : endOfField(record, lower, delimiter));
+			final int keyOffset = keyBuilder.length();
+
+			if (this.keySpec.isNumeric(key)) {
+				double value;
+				try {
+					value = lower == upper ? MALFORMED : Double.parseDouble(record.substring(lower, upper));
+				} catch (final NumberFormatException exception) {
+					value = MALFORMED;
+				}
+
+				final long bits = Double.doubleToLongBits(value);
+				final long orderedBits = bits < 0 ? ~bits : bits | Long.MIN_VALUE;
+				for (int shift = 48; shift >= 0; shift -= 16) {
+					keyBuilder.append((char) (orderedBits >>> shift));
+				}
+			} else {
+				for (int position = lower; position < upper; ++position) {
+					final char character = record.charAt(position);
+					if (character <= ESCAPE) keyBuilder.append(ESCAPE).append((char) (character + 1)); else keyBuilder.append(character);
+				}
+				keyBuilder.append(TERMINATOR);
+			}
+
+			if (this.keySpec.isDescending(key)) {
+				for (int position = keyOffset; position < keyBuilder.length(); ++position) {
+					keyBuilder.setCharAt(position, (char) ~keyBuilder.charAt(position));
+				}
+			}
+		}
+
+		final StringBuilder recordBuilder = this.recordBuilder;
+		recordBuilder.setLength(0);
+		for (int position = 0; position < keyBuilder.length(); ++position) {
+			final char unit = keyBuilder.charAt(position);
+			if (unit < SPLIT_UNIT) {
+				recordBuilder.append(unit);
+			} else {
+				recordBuilder.append((char) (SPLIT_UNIT + ((unit - SPLIT_UNIT) >>> 8))).append((char) (unit & 0xFF));
+			}
+		}
+
+		return recordBuilder.append(record).toString();
+	}
+
+
+	/**
+	 * Returns the given encoded record without it's sort key prefix.
+	 * @param element the encoded record
+	 * @return the record
+	 */
+	private String decode (final String element) {
+		int position = 0;
+		for (int key = 0; key < this.keySpec.getKeyCount(); ++key) {
+			if (this.keySpec.isNumeric(key)) {
+				for (int unit = 0; unit < 4; ++unit) {
+					position += element.charAt(position) < SPLIT_UNIT ? 1 : 2;
+				}
+			} else {
+				final char mask = this.keySpec.isDescending(key) ? '\uffff' : '\u0000';
+				while (true) {
+					char unit = element.charAt(position++);
+					if (unit >= SPLIT_UNIT) unit = (char) (SPLIT_UNIT + ((unit - SPLIT_UNIT) << 8) + element.charAt(position++));
+					unit ^= mask;
+
+					if (unit == TERMINATOR) break;
+					if (unit == ESCAPE) position += element.charAt(position) < SPLIT_UNIT ? 1 : 2;
+				}
+			}
+		}
+
+		return element.substring(position);
+	}
+
+
+	/**
+	 * Returns the end position of the last field located within the given record.
+	 * @param record the record
+	 * @param lower the field's start position
+	 * @param delimiter the field delimiter
+	 * @return the field's end position
+	 */
+	static private int endOfField (final String record, final int lower, final char delimiter) {
+		final int position = record.indexOf(delimiter, lower);
+		return position == -1 ? record.length() : position;
+	}
+
+
+	/**
+	 * Returns a new record sorter based on a new multi-thread sorter tree.
+	 * @param keySpec the key specification
+	 * @return the sorter created
+	 * @throws NullPointerException if the given key specification is {@code null}
+	 */
+	static public MergeSorter<String> newInstance (final KeySpec keySpec) throws NullPointerException {
+		return new RecordSorter(MultiThreadSorter.newInstance(RadixSorter::newInstance), keySpec);
+	}
+
+
+	/**
+	 * Returns a new record sorter based on a new sorter tree containing one proxy sorter for each
+	 * of the given socket addresses.
+	 * @param keySpec the key specification
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there is no service address given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final KeySpec keySpec, final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		Objects.requireNonNull(keySpec);
+		return new RecordSorter(ProxySorter.newInstance(serviceAddresses), keySpec);
+	}
+
+
+
+	/**
+	 * Instances of this immutable class specify the sort keys of delimited records. They are
+	 * parsed from a field delimiter and a comma separated list of key columns, with the syntax
+	 * of the latter being defined in EBNF as follows; like with the Unix sort utility, columns
+	 * are numbered starting with one, {@code n} denotes numeric columns, and {@code r} denotes
+	 * columns to be sorted in descending order:
+	 * <pre>
+	 * keySpec	:= key, { ",", key }
+	 * key		:= column, [ "n" ], [ "r" ]
+	 * column	:= positive-decimal-integer
+	 * </pre>
+	 */
+	static public final class KeySpec {
+		private final char delimiter;
+		private final int[] columns;
+		private final boolean[] numeric;
+		private final boolean[] descending;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param delimiter the field delimiter
+		 * @param columns the zero-based key columns
+		 * @param numeric whether or not each key column is numeric
+		 * @param descending whether or not each key column is sorted in descending order
+		 */
+		private KeySpec (final char delimiter, final int[] columns, final boolean[] numeric, final boolean[] descending) {
+			this.delimiter = delimiter;
+			this.columns = columns;
+			this.numeric = numeric;
+			this.descending = descending;
+		}
+
+
+		/**
+		 * Returns the field delimiter.
+		 * @return the delimiter
+		 */
+		public char getDelimiter () {
+			return this.delimiter;
+		}
+
+
+		/**
+		 * Returns the number of keys.
+		 * @return the key count
+		 */
+		public int getKeyCount () {
+			return this.columns.length;
+		}
+
+
+		/**
+		 * Returns the zero-based column of the given key.
+		 * @param key the key index
+		 * @return the column index
+		 * @throws ArrayIndexOutOfBoundsException if the given key index is out of range
+		 */
+		public int getColumn (final int key) throws ArrayIndexOutOfBoundsException {
+			return this.columns[key];
+		}
+
+
+		/**
+		 * Returns whether or not the given key is numeric.
+		 * @param key the key index
+		 * @return {@code true} for numeric, {@code false} for lexicographic order
+		 * @throws ArrayIndexOutOfBoundsException if the given key index is out of range
+		 */
+		public boolean isNumeric (final int key) throws ArrayIndexOutOfBoundsException {
+			return this.numeric[key];
+		}
+
+
+		/**
+		 * Returns whether or not the given key is sorted in descending order.
+		 * @param key the key index
+		 * @return {@code true} for descending, {@code false} for ascending order
+		 * @throws ArrayIndexOutOfBoundsException if the given key index is out of range
+		 */
+		public boolean isDescending (final int key) throws ArrayIndexOutOfBoundsException {
+			return this.descending[key];
+		}
+
+
+		/**
+		 * Returns the highest zero-based key column.
+		 * @return the maximum column index
+		 */
+		public int getMaxColumn () {
+			int maxColumn = 0;
+			for (final int column : this.columns) maxColumn = Math.max(maxColumn, column);
+			return maxColumn;
+		}
+
+
+		/**
+		 * Returns a new key specification parsed from the given arguments.
+		 * @param delimiter the field delimiter
+		 * @param keys the comma separated key columns
+		 * @return the key specification created
+		 * @throws NullPointerException if the given key columns are {@code null}
+		 * @throws IllegalArgumentException if the given key columns are malformed
+		 */
+		static public KeySpec parse (final char delimiter, final String keys) throws NullPointerException, IllegalArgumentException {
+			final String[] tokens = keys.split(",", -1);
+			final int[] columns = new int[tokens.length];
+			final boolean[] numeric = new boolean[tokens.length];
+			final boolean[] descending = new boolean[tokens.length];
+
+			for (int key = 0; key < tokens.length; ++key) {
+				String token = tokens[key].trim();
+				if (descending[key] = token.endsWith("r")) token = token.substring(0, token.length() - 1);
+				if (numeric[key] = token.endsWith("n")) token = token.substring(0, token.length() - 1);
+
+				try {
+					columns[key] = Integer.parseInt(token) - 1;
+				} catch (final NumberFormatException exception) {
+					throw new IllegalArgumentException(keys);
+				}
+				if (columns[key] < 0) throw new IllegalArgumentException(keys);
+			}
+
+			return new KeySpec(delimiter, columns, numeric, descending);
+		}
+	}
+}
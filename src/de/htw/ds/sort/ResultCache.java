@@ -0,0 +1,520 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Cache of sorted string results, keyed by a digest of the request elements in their order of
+ * arrival. Small results are kept in memory, while results whose estimated heap size exceeds an
+ * eighth of the memory capacity are stored in temporary files using the run format of
+ * {@link SpillingSorter}. Each tier is bounded by it's own byte capacity, and evicts it's least
+ * recently used entries once said capacity is exceeded. Caching is best-effort: Results that do
+ * not fit into their tier, or whose recording fails due to I/O problems, are silently dropped.
+ * Note that this class is thread-safe.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class ResultCache implements AutoCloseable {
+	static private final int BUFFER_SIZE = 0x10000;
+	static private final int ELEMENT_OVERHEAD = 48;
+	static private final int LARGE_RESULT_FRACTION = 8;
+
+	private final long memoryCapacity, diskCapacity;
+	private final Map<String,Entry> entries;
+	private final AtomicLong hitCount, missCount;
+	private long memoryUsage, diskUsage;
+
+
+	/**
+	 * Creates a new instance.
+	 * @param memoryCapacity the approximate number of heap bytes the in-memory results may occupy
+	 * @param diskCapacity the number of bytes the on-disk results may occupy, or {@code 0} for
+	 *        none
+	 * @throws IllegalArgumentException if any of the given capacities is negative
+	 */
+	public ResultCache (final long memoryCapacity, final long diskCapacity) throws IllegalArgumentException {
+		if (memoryCapacity < 0 | diskCapacity < 0) throw new IllegalArgumentException();
+
+		this.memoryCapacity = memoryCapacity;
+		this.diskCapacity = diskCapacity;
+		this.entries = new LinkedHashMap<>(0x10, 0.75f, true);
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+	}
+
+
+	/**
+	 * Returns the approximate number of heap bytes the in-memory results may occupy.
+	 * @return the memory capacity
+	 */
+	public long getMemoryCapacity () {
+		return this.memoryCapacity;
+	}
+
+
+	/**
+	 * Returns the number of bytes the on-disk results may occupy.
+	 * @return the disk capacity
+	 */
+	public long getDiskCapacity () {
+		return this.diskCapacity;
+	}
+
+
+	/**
+	 * Returns the approximate number of heap bytes the in-memory results currently occupy.
+	 * @return the memory usage
+	 */
+	public synchronized long getMemoryUsage () {
+		return this.memoryUsage;
+	}
+
+
+	/**
+	 * Returns the number of bytes the on-disk results currently occupy.
+	 * @return the disk usage
+	 */
+	public synchronized long getDiskUsage () {
+		return this.diskUsage;
+	}
+
+
+	/**
+	 * Returns the number of cached results.
+	 * @return the entry count
+	 */
+	public synchronized int getEntryCount () {
+		return this.entries.size();
+	}
+
+
+	/**
+	 * Returns the number of lookups that found a cached result.
+	 * @return the hit count
+	 */
+	public long getHitCount () {
+		return this.hitCount.get();
+	}
+
+
+	/**
+	 * Returns the number of lookups that did not find a cached result.
+	 * @return the miss count
+	 */
+	public long getMissCount () {
+		return this.missCount.get();
+	}
+
+
+	/**
+	 * Discards all cached results, and deletes their temporary files.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public synchronized void close () throws IOException {
+		try {
+			for (final Entry entry : this.entries.values()) {
+				if (entry.path != null) Files.deleteIfExists(entry.path);
+			}
+		} finally {
+			this.entries.clear();
+			this.memoryUsage = 0;
+			this.diskUsage = 0;
+		}
+	}
+
+
+	/**
+	 * Returns a reader for the cached result with the given key, or {@code null} if there is none.
+	 * @param key the request digest
+	 * @return the result reader, or {@code null}
+	 * @throws NullPointerException if the given key is {@code null}
+	 * @throws IOException if there is an I/O related problem opening an on-disk result
+	 */
+	public synchronized Reader lookup (final String key) throws NullPointerException, IOException {
+		final Entry entry = this.entries.get(key);
+		if (entry == null) {
+			this.missCount.incrementAndGet();
+			return null;
+		}
+
+		this.hitCount.incrementAndGet();
+		return entry.path == null ? new Reader(entry.elements) : new Reader(entry.path, entry.elementCount);
+	}
+
+
+	/**
+	 * Returns a new recorder for the result of the request with the given key. The result is
+	 * cached once the recorder is committed.
+	 * @param key the request digest
+	 * @return the result recorder
+	 * @throws NullPointerException if the given key is {@code null}
+	 */
+	public Recorder record (final String key) throws NullPointerException {
+		if (key == null) throw new NullPointerException();
+
+		return new Recorder(key);
+	}
+
+
+	/**
+	 * Inserts the given entry, replacing any previous one with the same key, and evicts the least
+	 * recently used entries of the given entry's tier until it's usage is within capacity.
+	 * @param key the request digest
+	 * @param entry the entry
+	 */
+	private synchronized void insert (final String key, final Entry entry) {
+		final Entry previous = this.entries.put(key, entry);
+		if (previous != null) this.remove(previous);
+		if (entry.path == null) this.memoryUsage += entry.size; else this.diskUsage += entry.size;
+
+		for (final Iterator<Entry> iterator = this.entries.values().iterator(); iterator.hasNext(); ) {
+			if (this.memoryUsage <= this.memoryCapacity & this.diskUsage <= this.diskCapacity) break;
+
+			final Entry eldest = iterator.next();
+			final boolean overflow = eldest.path == null ? this.memoryUsage > this.memoryCapacity : this.diskUsage > this.diskCapacity;
+			if (overflow) {
+				iterator.remove();
+				this.remove(eldest);
+			}
+		}
+	}
+
+
+	/**
+	 * Accounts for the removal of the given entry, and deletes it's temporary file if any.
+	 * Deletion failures are ignored, as they must not abort the response whose recording
+	 * caused the eviction.
+	 * @param entry the entry
+	 */
+	private void remove (final Entry entry) {
+		if (entry.path == null) {
+			this.memoryUsage -= entry.size;
+		} else {
+			this.diskUsage -= entry.size;
+			try { Files.deleteIfExists(entry.path); } catch (final IOException exception) {}
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class represent cached results, either in memory or on disk.
+	 */
+	static private final class Entry {
+		private final String[] elements;
+		private final Path path;
+		private final long elementCount;
+		private final long size;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param elements the sorted elements, or {@code null} for an on-disk result
+		 * @param path the result file path, or {@code null} for an in-memory result
+		 * @param elementCount the number of elements
+		 * @param size the approximate size of the result in bytes
+		 */
+		public Entry (final String[] elements, final Path path, final long elementCount, final long size) {
+			this.elements = elements;
+			this.path = path;
+			this.elementCount = elementCount;
+			this.size = size;
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class incrementally compute the key of a request, as a digest of it's
+	 * elements in their order of arrival.
+	 */
+	static public final class Digest {
+		private final MessageDigest messageDigest;
+		private byte[] buffer;
+
+
+		/**
+		 * Creates a new instance.
+		 */
+		public Digest () {
+			try {
+				this.messageDigest = MessageDigest.getInstance("SHA-256");
+			} catch (final NoSuchAlgorithmException exception) {
+				throw new AssertionError();
+			}
+			this.buffer = new byte[0x100];
+		}
+
+
+		/**
+		 * Updates this digest with the given slice of elements. Each element is digested as it's
+		 * length followed by it's UTF-16 code units, which separates subsequent elements
+		 * unambiguously.
+		 * @param elements the elements
+		 * @param offset the slice offset
+		 * @param length the slice length
+		 * @throws NullPointerException if the given array, or any element within the given slice,
+		 *         is {@code null}
+		 * @throws IndexOutOfBoundsException if the given slice is out of bounds
+		 */
+		public void update (final String[] elements, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException {
+			if (offset < 0 | length < 0 | offset + length > elements.length) throw new IndexOutOfBoundsException();
+
+			for (int index = offset; index < offset + length; ++index) {
+				final String element = elements[index];
+				final int elementLength = element.length();
+				if (this.buffer.length < 4 + 2 * elementLength) this.buffer = new byte[4 + 2 * elementLength];
+
+				this.buffer[0] = (byte) (elementLength >>> 24);
+				this.buffer[1] = (byte) (elementLength >>> 16);
+				this.buffer[2] = (byte) (elementLength >>> 8);
+				this.buffer[3] = (byte) elementLength;
+				for (int position = 0; position < elementLength; ++position) {
+					final char character = element.charAt(position);
+					this.buffer[4 + 2 * position] = (byte) (character >>> 8);
+					this.buffer[5 + 2 * position] = (byte) character;
+				}
+				this.messageDigest.update(this.buffer, 0, 4 + 2 * elementLength);
+			}
+		}
+
+
+		/**
+		 * Completes this digest, and resets it for the next request.
+		 * @return the request key
+		 */
+		public String finish () {
+			return Base64.getEncoder().encodeToString(this.messageDigest.digest());
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class read cached results. As the end of an on-disk result cannot be
+	 * detected reliably from it's byte source, exactly as many elements are read as have been
+	 * recorded.
+	 */
+	static public final class Reader implements AutoCloseable {
+		private final String[] elements;
+		private final DataInputStream byteSource;
+		private int readIndex;
+		private long remaining;
+
+
+		/**
+		 * Creates a new instance reading the given in-memory result.
+		 * @param elements the sorted elements
+		 */
+		private Reader (final String[] elements) {
+			this.elements = elements;
+			this.byteSource = null;
+		}
+
+
+		/**
+		 * Creates a new instance reading the given on-disk result.
+		 * @param path the result file path
+		 * @param elementCount the number of elements within the result file
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private Reader (final Path path, final long elementCount) throws IOException {
+			this.elements = null;
+			this.byteSource = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+			this.remaining = elementCount;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			if (this.byteSource != null) this.byteSource.close();
+		}
+
+
+		/**
+		 * Reads the next elements of the result into the given buffer. A return value lower than
+		 * the buffer length indicates that the result is exhausted.
+		 * @param buffer the buffer
+		 * @return the number of elements read
+		 * @throws NullPointerException if the given buffer is {@code null}
+		 * @throws IllegalArgumentException if the given buffer is empty
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public int read (final String[] buffer) throws NullPointerException, IllegalArgumentException, IOException {
+			if (buffer.length == 0) throw new IllegalArgumentException();
+
+			if (this.byteSource == null) {
+				final int count = Math.min(buffer.length, this.elements.length - this.readIndex);
+				System.arraycopy(this.elements, this.readIndex, buffer, 0, count);
+				this.readIndex += count;
+				return count;
+			}
+
+			int count = 0;
+			for (; count < buffer.length & this.remaining > 0; this.remaining -= 1) {
+				final byte[] bytes = new byte[this.byteSource.readInt()];
+				this.byteSource.readFully(bytes);
+				buffer[count++] = new String(bytes, UTF_8);
+			}
+			return count;
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class record a result while it is being streamed to the client. Elements
+	 * are collected in memory until they exceed the large result threshold, and are then spilled
+	 * into a temporary file; results exceeding the disk capacity are dropped early. Closing a recorder without committing it discards the result.
+	 */
+	public final class Recorder implements AutoCloseable {
+		private final String key;
+		private final List<String> elements;
+		private long elementCount;
+		private long size;
+		private Path path;
+		private DataOutputStream byteSink;
+		private boolean dropped;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param key the request digest
+		 */
+		private Recorder (final String key) {
+			this.key = key;
+			this.elements = new ArrayList<>();
+		}
+
+
+		/**
+		 * Discards the result unless it has been committed.
+		 */
+		public void close () {
+			this.drop();
+		}
+
+
+		/**
+		 * Records the given slice of elements.
+		 * @param batch the elements
+		 * @param offset the slice offset
+		 * @param length the slice length
+		 * @throws NullPointerException if the given array is {@code null}
+		 * @throws IndexOutOfBoundsException if the given slice is out of bounds
+		 */
+		public void write (final String[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException {
+			if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+			if (this.dropped) return;
+
+			try {
+				for (int index = offset; index < offset + length; ++index) {
+					final String element = batch[index];
+					this.elementCount += 1;
+					if (this.byteSink == null) {
+						this.elements.add(element);
+						this.size += ELEMENT_OVERHEAD + 2L * element.length();
+						if (this.size > ResultCache.this.memoryCapacity / LARGE_RESULT_FRACTION) this.spill();
+					} else {
+						final byte[] bytes = element.getBytes(UTF_8);
+						this.byteSink.writeInt(bytes.length);
+						this.byteSink.write(bytes);
+						this.size += 4 + bytes.length;
+						if (this.size > ResultCache.this.diskCapacity) this.drop();
+					}
+					if (this.dropped) return;
+				}
+			} catch (final IOException exception) {
+				this.drop();
+			}
+		}
+
+
+		/**
+		 * Caches the recorded result, unless it has been dropped.
+		 */
+		public void commit () {
+			if (this.dropped) return;
+
+			final Entry entry;
+			if (this.byteSink == null) {
+				entry = new Entry(this.elements.toArray(new String[this.elements.size()]), null, this.elementCount, this.size);
+			} else {
+				try {
+					this.byteSink.close();
+				} catch (final IOException exception) {
+					this.drop();
+					return;
+				}
+				entry = new Entry(null, this.path, this.elementCount, this.size);
+			}
+
+			this.dropped = true;
+			this.byteSink = null;
+			this.path = null;
+			this.elements.clear();
+			ResultCache.this.insert(this.key, entry);
+		}
+
+
+		/**
+		 * Moves the elements collected so far into a new temporary file, or drops the result if
+		 * there is no disk capacity.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void spill () throws IOException {
+			if (ResultCache.this.diskCapacity == 0) {
+				this.drop();
+				return;
+			}
+
+			this.path = Files.createTempFile("sort-result-", ".tmp");
+			this.byteSink = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.path), BUFFER_SIZE));
+			this.size = 0;
+			for (final String element : this.elements) {
+				final byte[] bytes = element.getBytes(UTF_8);
+				this.byteSink.writeInt(bytes.length);
+				this.byteSink.write(bytes);
+				this.size += 4 + bytes.length;
+			}
+			this.elements.clear();
+		}
+
+
+		/**
+		 * Discards the result, and deletes it's temporary file if any. I/O failures are ignored,
+		 * as discarding happens while the result is being sent.
+		 */
+		private void drop () {
+			this.dropped = true;
+			this.elements.clear();
+			try {
+				if (this.byteSink != null) this.byteSink.close();
+			} catch (final IOException exception) {
+				// the file is deleted regardless
+			} finally {
+				this.byteSink = null;
+				if (this.path != null) try { Files.deleteIfExists(this.path); } catch (final IOException exception) {}
+				this.path = null;
+			}
+		}
+	}
+}
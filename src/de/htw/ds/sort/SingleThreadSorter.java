@@ -1,22 +1,33 @@
 package de.htw.ds.sort;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
 import de.htw.tool.Copyright;
 
 
 /**
- * Single-threaded sorter implementation that collects elements into a list and sorts them using the
- * underlying merge sort implementation of lists. Note that this implementation implies that such a
- * sorter cannot scale its workload over more than one processor core, and additionally all elements
- * are stored within the RAM of a single process.
+ * Single-threaded sorter implementation that collects elements into an array and sorts them using
+ * a merge sort. Note that this implementation implies that such a sorter cannot scale its workload
+ * over more than one processor core, and additionally all elements are stored within the RAM of a
+ * single process.<br />
+ * Ascending runs are detected incrementally while the elements are written, which allows sorting
+ * to adapt to presorted input: Sorted input is not sorted again, strictly descending input is
+ * reversed, and input consisting of few runs is sorted by merging said natural runs in O(n log r)
+ * time, with r being the run count. Other input is sorted by the underlying merge sort
+ * implementation of arrays. Either way, equal elements retain their order of arrival.
  * @param <E> the element type to be sorted in naturally ascending order
  */
 @Copyright(year=2010, holders="Sascha Baumeister")
 public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<E> {
-	private final List<E> elements;
+	static private final int INITIAL_CAPACITY = 0x10;
+	static private final int MAX_RUN_COUNT = 0x10000;
+	static private final int MIN_AVERAGE_RUN_LENGTH = 0x20;
+
+	private E[] elements;
+	private int size;
+	private int[] runOffsets;
+	private int runCount;
+	private boolean descending;
 	private int readIndex;
 	private State state;
 
@@ -24,16 +35,28 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 	/**
 	 * Creates a new instance in {@link MergeSorter.State#WRITE} state.
 	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public SingleThreadSorter () {
-		this.elements = new ArrayList<E>();
+		this.elements = (E[]) new Comparable[INITIAL_CAPACITY];
+		this.runOffsets = new int[INITIAL_CAPACITY];
 		this.state = State.WRITE;
+		this.clear();
+	}
+
+
+	/**
+	 * Returns the number of ascending runs detected within the elements currently stored, which
+	 * is zero if there are none, and one if they have been written in sorted order.
+	 * @return the run count
+	 */
+	public int getRunCount () {
+		return this.runCount;
 	}
 
 
 	@Override
 	public void close () throws IOException {
-		this.elements.clear();
-		this.readIndex = 0;
+		this.clear();
 		this.state = State.CLOSED;
 	}
 
@@ -47,7 +70,29 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 		if (element == null) {
 			this.state = State.SORT;
 		} else {
-			this.elements.add(element);
+			if (this.size == this.elements.length) this.elements = Arrays.copyOf(this.elements, this.size << 1);
+			this.append(element);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write (final E[] batch, final int offset, final int length) throws NullPointerException, IndexOutOfBoundsException, IllegalStateException {
+		if (offset < 0 | length < 0 | offset + length > batch.length) throw new IndexOutOfBoundsException();
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		for (int index = offset; index < offset + length; ++index) {
+			if (batch[index] == null) throw new NullPointerException();
+		}
+
+		if (this.size + length > this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, Math.max(this.size + length, this.size << 1));
+		}
+		for (int index = offset; index < offset + length; ++index) {
+			this.append(batch[index]);
 		}
 	}
 
@@ -58,7 +103,20 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 	public void sort () throws IllegalStateException {
 		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
 
-		this.elements.sort(Comparator.naturalOrder());
+		if (this.runCount <= 1) {
+			// already sorted
+		} else if (this.descending) {
+			for (int left = 0, right = this.size - 1; left < right; ++left, --right) {
+				final E element = this.elements[left];
+				this.elements[left] = this.elements[right];
+				this.elements[right] = element;
+			}
+		} else if (this.runCount <= MAX_RUN_COUNT && this.runCount <= this.size / MIN_AVERAGE_RUN_LENGTH) {
+			this.mergeRuns();
+		} else {
+			Arrays.sort(this.elements, 0, this.size);
+		}
+
 		this.state = State.READ;
 	}
 
@@ -69,15 +127,34 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 	public E read () throws IllegalStateException {
 		if (this.getState() != State.READ) throw new IllegalStateException();
 
-		if (this.readIndex < this.elements.size()) return this.elements.get(this.readIndex++);
+		if (this.readIndex < this.size) return this.elements[this.readIndex++];
 
-		this.elements.clear();
-		this.readIndex = 0;
+		this.clear();
 		this.state = State.WRITE;
 		return null;
 	}
 
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.size - this.readIndex);
+		System.arraycopy(this.elements, this.readIndex, buffer, 0, count);
+		this.readIndex += count;
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -86,6 +163,80 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 	}
 
 
+	/**
+	 * Appends the given element, and tracks the runs. The element array must have sufficient
+	 * capacity.
+	 * @param element the element
+	 */
+	private void append (final E element) {
+		if (this.size == 0) {
+			this.runCount = 1;
+		} else {
+			final int order = element.compareTo(this.elements[this.size - 1]);
+			if (order >= 0) {
+				this.descending = false;
+			} else {
+				if (this.runCount < MAX_RUN_COUNT) {
+					if (this.runCount == this.runOffsets.length) this.runOffsets = Arrays.copyOf(this.runOffsets, this.runCount << 1);
+					this.runOffsets[this.runCount] = this.size;
+				}
+				this.runCount += 1;
+			}
+		}
+
+		this.elements[this.size++] = element;
+	}
+
+
+	/**
+	 * Sorts the elements by merging adjacent pairs of runs until a single run remains.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void mergeRuns () {
+		final int[] offsets = this.runOffsets.length > this.runCount ? this.runOffsets : Arrays.copyOf(this.runOffsets, this.runCount + 1);
+		E[] source = this.elements, target = (E[]) new Comparable[this.elements.length];
+
+		for (int runCount = this.runCount; runCount > 1; ) {
+			offsets[runCount] = this.size;
+
+			int mergedCount = 0;
+			for (int run = 0; run < runCount; run += 2) {
+				final int lower = offsets[run];
+				final int middle = offsets[Math.min(run + 1, runCount)];
+				final int upper = offsets[Math.min(run + 2, runCount)];
+
+				for (int left = lower, right = middle, index = lower; index < upper; ++index) {
+					target[index] = right == upper || (left < middle && source[left].compareTo(source[right]) <= 0)
+						? source[left++]
+						: source[right++];
+				}
+				offsets[mergedCount++] = lower;
+			}
+
+			runCount = mergedCount;
+			final E[] swap = source;
+			source = target;
+			target = swap;
+		}
+
+		this.elements = source;
+		this.runOffsets = offsets;
+	}
+
+
+	/**
+	 * Discards all elements, retaining the capacity.
+	 */
+	private void clear () {
+		Arrays.fill(this.elements, 0, this.size, null);
+		this.size = 0;
+		this.runOffsets[0] = 0;
+		this.runCount = 0;
+		this.descending = true;
+		this.readIndex = 0;
+	}
+
+
 	/**
 	 * Returns a new single-thread sorter instance.
 	 * @return the sorter created
@@ -93,4 +244,4 @@ public class SingleThreadSorter<E extends Comparable<E>> implements MergeSorter<
 	static public <T extends Comparable<T>> MergeSorter<T> newInstance () {
 		return new SingleThreadSorter<T>();
 	}
-}
\ No newline at end of file
+}
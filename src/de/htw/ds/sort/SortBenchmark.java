@@ -0,0 +1,311 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import de.htw.tool.Copyright;
+
+
+/**
+ * This class implements a sorter micro benchmark. In contrast to the timings printed by
+ * {@link SortClient#process()}, it measures the sort path in isolation from file I/O: Each
+ * benchmark operation writes a pre-generated element array into a sorter, sorts it, and reads
+ * it back, and the sorter is reused across operations. Every combination of element count, key
+ * distribution and presortedness is first run for a number of warmup operations in order to
+ * reach a JIT-compiled steady state, and then measured for a number of further operations.
+ * Throughput is reported in elements per second (mean and standard deviation), allocation rate
+ * in bytes per element as reported by the platform's thread management bean; the latter is
+ * summed over all live threads, therefore including pool threads and the in-process sort
+ * server's connection handlers. Note that this class is declared final because it provides an
+ * application entry point, and therefore is not supposed to be extended.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class SortBenchmark {
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final int[] DEFAULT_COUNTS = { 10000, 100000, 1000000 };
+	static private final double[] DEFAULT_PRESORTEDNESS = { 0.0, 0.9, 1.0 };
+	static private final int DEFAULT_WARMUP_COUNT = 5;
+	static private final int DEFAULT_MEASUREMENT_COUNT = 10;
+	static private final int[] TREE_LEAF_COUNTS = { 2, 4, 8 };
+
+
+	/**
+	 * Key length distributions of generated elements.
+	 */
+	static public enum KeyDistribution {
+		/** Keys of eight random lower case letters. */
+		FIXED,
+
+		/** Keys of one to sixteen random lower case letters, biased towards short keys like natural language words. */
+		WORDS,
+
+		/** Keys sharing a common prefix of 25 characters, followed by eight random lower case letters. */
+		PREFIXED;
+
+
+		/**
+		 * Returns a new key.
+		 * @param random the random generator
+		 * @return the key created
+		 * @throws NullPointerException if the given generator is {@code null}
+		 */
+		public String nextKey (final Random random) throws NullPointerException {
+			final int length;
+			final StringBuilder builder = new StringBuilder();
+			switch (this) {
+				case WORDS:
+					length = 1 + Math.min(15, (int) -Math.log(1 - random.nextDouble()) * 3 + random.nextInt(3));
+					break;
+				case PREFIXED:
+					builder.append("de.htw.ds.sort.benchmark.");
+					length = 8;
+					break;
+				default:
+					length = 8;
+					break;
+			}
+
+			for (int index = 0; index < length; ++index) {
+				builder.append((char) ('a' + random.nextInt(26)));
+			}
+			return builder.toString();
+		}
+	}
+
+
+	/**
+	 * Factory creating the sorter of a benchmark scenario.
+	 */
+	@FunctionalInterface
+	static private interface SorterFactory {
+
+		/**
+		 * Returns a new sorter in {@link MergeSorter.State#WRITE} state.
+		 * @return the sorter created
+		 * @throws IOException if there is an I/O related problem
+		 */
+		MergeSorter<String> newSorter () throws IOException;
+	}
+
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private SortBenchmark () {}
+
+
+	/**
+	 * Returns a new array of random elements, of which the given ratio is presorted. The elements
+	 * are sorted first, and then the elements at a randomly chosen remaining ratio of positions
+	 * are shuffled amongst these positions using a Fisher-Yates shuffle; therefore, a presortedness
+	 * of {@code 1.0} yields a sorted array, and {@code 0.0} a uniformly shuffled one.
+	 * @param count the element count
+	 * @param distribution the key distribution
+	 * @param presortedness the ratio of presorted elements within range [0.0, 1.0]
+	 * @param random the random generator
+	 * @return the elements created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given count is negative, or if the given
+	 *         presortedness is outside range [0.0, 1.0]
+	 */
+	static public String[] newElements (final int count, final KeyDistribution distribution, final double presortedness, final Random random) throws NullPointerException, IllegalArgumentException {
+		if (count < 0 | !(presortedness >= 0 & presortedness <= 1)) throw new IllegalArgumentException();
+
+		final String[] elements = new String[count];
+		for (int index = 0; index < count; ++index) {
+			elements[index] = distribution.nextKey(random);
+		}
+		Arrays.sort(elements);
+
+		final int shuffleCount = (int) Math.round(count * (1 - presortedness));
+		final int[] positions = new int[count];
+		for (int index = 0; index < count; ++index) {
+			positions[index] = index;
+		}
+		for (int index = 0; index < shuffleCount; ++index) {
+			final int other = index + random.nextInt(count - index);
+			final int position = positions[index];
+			positions[index] = positions[other];
+			positions[other] = position;
+		}
+
+		for (int index = shuffleCount - 1; index > 0; --index) {
+			final int left = positions[index], right = positions[random.nextInt(index + 1)];
+			final String element = elements[left];
+			elements[left] = elements[right];
+			elements[right] = element;
+		}
+		return elements;
+	}
+
+
+	/**
+	 * Performs one benchmark operation, writing the given elements into the given sorter,
+	 * sorting them, and reading them back.
+	 * @param sorter the sorter
+	 * @param elements the elements
+	 * @param chunk the chunk used for reading
+	 * @return the number of elements read
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalStateException if the given sorter is not in {@link MergeSorter.State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private int operate (final MergeSorter<String> sorter, final String[] elements, final String[] chunk) throws NullPointerException, IllegalStateException, IOException {
+		for (int offset = 0; offset < elements.length; offset += CHUNK_SIZE) {
+			sorter.write(elements, offset, Math.min(CHUNK_SIZE, elements.length - offset));
+		}
+		sorter.write(null);
+		sorter.sort();
+
+		int readCount = 0, chunkLength;
+		do {
+			chunkLength = sorter.read(chunk);
+			readCount += chunkLength;
+		} while (chunkLength == CHUNK_SIZE);
+		return readCount;
+	}
+
+
+	/**
+	 * Returns the number of bytes allocated so far by all live threads, or {@code -1} if
+	 * thread allocation measurement is not supported by this virtual machine.
+	 * @return the allocated byte count, or {@code -1}
+	 */
+	static private long allocatedBytes () {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return -1;
+		final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) return -1;
+
+		long result = 0;
+		for (final long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+			if (allocated > 0) result += allocated;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Runs the given number of warmup operations, followed by the given number of measured
+	 * operations, and prints the resulting throughput and allocation rate.
+	 * @param scenario the scenario name
+	 * @param sorter the sorter
+	 * @param elements the elements
+	 * @param warmupCount the number of warmup operations
+	 * @param measurementCount the number of measured operations
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalStateException if the given sorter is not in {@link MergeSorter.State#WRITE} state
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void measure (final String scenario, final MergeSorter<String> sorter, final String[] elements, final int warmupCount, final int measurementCount) throws NullPointerException, IllegalStateException, IOException {
+		final String[] chunk = new String[CHUNK_SIZE];
+		for (int operation = 0; operation < warmupCount; ++operation) {
+			if (operate(sorter, elements, chunk) != elements.length) throw new AssertionError();
+		}
+
+		final double[] throughputs = new double[measurementCount];
+		final long allocatedBytes = allocatedBytes();
+		for (int operation = 0; operation < measurementCount; ++operation) {
+			final long timestamp = System.nanoTime();
+			if (operate(sorter, elements, chunk) != elements.length) throw new AssertionError();
+			throughputs[operation] = elements.length * 1E9 / Math.max(1, System.nanoTime() - timestamp);
+		}
+		final long allocatedBytesDelta = allocatedBytes < 0 ? -1 : allocatedBytes() - allocatedBytes;
+
+		double mean = 0, variance = 0;
+		for (final double throughput : throughputs) mean += throughput / measurementCount;
+		for (final double throughput : throughputs) variance += (throughput - mean) * (throughput - mean) / measurementCount;
+
+		final String allocation = allocatedBytesDelta < 0
+			? "n/a"
+			: String.format("%.1f", (double) allocatedBytesDelta / ((long) measurementCount * Math.max(1, elements.length)));
+		System.out.format("%-16s %12.0f %10.0f %12s\n", scenario, mean, Math.sqrt(variance), allocation);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a balanced recursion tree of new multi-thread sorters,
+	 * containing the given number of single-thread sorter leaves.
+	 * @param leafCount the number of leaf sorters
+	 * @param pipelined whether or not the inner nodes merge within separate worker threads
+	 * @return the root sorter created
+	 * @throws IllegalArgumentException if the given leaf count is not strictly positive
+	 */
+	static private MergeSorter<String> newMultiThreadTree (final int leafCount, final boolean pipelined) throws IllegalArgumentException {
+		if (leafCount <= 0) throw new IllegalArgumentException();
+
+		final Queue<MergeSorter<String>> queue = new LinkedList<>();
+		for (int index = 0; index < leafCount; ++index) queue.add(new SingleThreadSorter<>());
+		while (queue.size() > 1) queue.add(new MultiThreadSorter<>(queue.remove(), queue.remove(), pipelined));
+		return queue.remove();
+	}
+
+
+	/**
+	 * Runs the benchmark. Arguments are optional, and must be a comma separated list of element
+	 * counts, a comma separated list of key distributions, a comma separated list of presortedness
+	 * ratios within range [0.0, 1.0], the number of warmup operations, and the number of measured
+	 * operations, in this order.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if any of the given arguments is illegal
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void main (final String[] args) throws IllegalArgumentException, IOException {
+		final int[] counts = args.length > 0
+			? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+			: DEFAULT_COUNTS;
+		final KeyDistribution[] distributions = args.length > 1
+			? Arrays.stream(args[1].split(",")).map(KeyDistribution::valueOf).toArray(KeyDistribution[]::new)
+			: KeyDistribution.values();
+		final double[] presortednesses = args.length > 2
+			? Arrays.stream(args[2].split(",")).mapToDouble(Double::parseDouble).toArray()
+			: DEFAULT_PRESORTEDNESS;
+		final int warmupCount = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WARMUP_COUNT;
+		final int measurementCount = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MEASUREMENT_COUNT;
+		if (warmupCount < 0 | measurementCount <= 0) throw new IllegalArgumentException();
+
+		try (SortServer server = new SortServer(0)) {
+			final InetSocketAddress serviceAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getServicePort());
+
+			final Map<String,SorterFactory> scenarios = new LinkedHashMap<>();
+			scenarios.put("single", SingleThreadSorter::new);
+			scenarios.put("radix", RadixSorter::new);
+			scenarios.put("arena", ArenaSorter::new);
+			for (final int leafCount : TREE_LEAF_COUNTS) {
+				// recursion trees block one pool thread per inner node while sorting
+				if (leafCount <= CORES) {
+					scenarios.put("tree-" + leafCount, () -> newMultiThreadTree(leafCount, false));
+					scenarios.put("pipelined-" + leafCount, () -> newMultiThreadTree(leafCount, true));
+				}
+				scenarios.put("kway-" + leafCount, () -> KWayMergeSorter.newInstance(SingleThreadSorter::new, leafCount));
+			}
+			scenarios.put("proxy", () -> new ProxySorter(serviceAddress));
+
+			final Random random = new Random(0);
+			for (final int count : counts) {
+				for (final KeyDistribution distribution : distributions) {
+					for (final double presortedness : presortednesses) {
+						final String[] elements = newElements(count, distribution, presortedness, random);
+
+						System.out.format("\n%d elements, %s keys, %.2f presorted:\n", count, distribution, presortedness);
+						System.out.format("%-16s %12s %10s %12s\n", "scenario", "elements/s", "stddev", "bytes/elem");
+						for (final Map.Entry<String,SorterFactory> entry : scenarios.entrySet()) {
+							try (MergeSorter<String> sorter = entry.getValue().newSorter()) {
+								measure(entry.getKey(), sorter, elements, warmupCount, measurementCount);
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			MultiThreadSorter.THREAD_POOL.shutdownNow();
+		}
+	}
+}
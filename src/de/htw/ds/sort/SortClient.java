@@ -4,10 +4,22 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import de.htw.ds.sort.KWayMergeSorter.Distribution;
 import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
 
 
 /**
@@ -17,6 +29,29 @@ import de.htw.tool.Copyright;
  */
 @Copyright(year=2010, holders="Sascha Baumeister")
 public abstract class SortClient {
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final long MAX_SEGMENT_SIZE = 0x40000000L;
+	static private final boolean[] DELIMITERS = new boolean[0x80];
+	static {
+		for (final char delimiter : " \t\n\013\f\r!?.,()\":;".toCharArray()) DELIMITERS[delimiter] = true;
+	}
+
+	/**
+	 * Element source of a file sorter test case.
+	 * @param <E> the element type to be sorted in naturally ascending order
+	 */
+	@FunctionalInterface
+	static protected interface ElementSource<E extends Comparable<E>> {
+
+		/**
+		 * Writes all elements into the given sorter, excluding the terminating {@code null}.
+		 * @param sorter the sorter
+		 * @return the number of elements written
+		 * @throws IOException if an I/O related problem occurs
+		 */
+		long writeTo (MergeSorter<E> sorter) throws IOException;
+	}
+
 
 	private final Path sourcePath;
 	private final Path sinkPath;
@@ -55,39 +90,227 @@ public abstract class SortClient {
 	 * @throws IOException if an I/O related problem occurs
 	 */
 	public final void process () throws IOException {
+		process(this.sorter, this::writeWords, this.sinkPath, new String[CHUNK_SIZE], "Sort ok, %d words sorted.\n");
+	}
+
+
+	/**
+	 * Writes the elements of the given source into the given sorter, sorts them, and writes the
+	 * sorted elements' text representations line by line into the given sink file, using the
+	 * given chunk for batch reads. The sorter is closed afterwards. Finally, a summary is printed,
+	 * consisting of the given format being passed the number of elements written and read, and
+	 * the duration of each phase.
+	 * @param <E> the element type to be sorted in naturally ascending order
+	 * @param sorter the sorter
+	 * @param source the element source
+	 * @param sinkPath the sink file path
+	 * @param chunk the chunk buffer
+	 * @param summaryFormat the summary format
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given chunk is empty
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	static protected <E extends Comparable<E>> void process (final MergeSorter<E> sorter, final ElementSource<E> source, final Path sinkPath, final E[] chunk, final String summaryFormat) throws NullPointerException, IllegalArgumentException, IOException {
+		if (chunk.length == 0) throw new IllegalArgumentException();
 		final long timestamp1, timestamp2, timestamp3, timestamp4;
-		long wordCount = 0;
+		final long writeCount;
+		long readCount = 0;
 
-		try (BufferedReader charSource = Files.newBufferedReader(this.sourcePath, UTF_8)) {
-			try (BufferedWriter charSink = Files.newBufferedWriter(this.sinkPath, UTF_8)) {
-				timestamp1 = System.currentTimeMillis();
-				for (String line = charSource.readLine(); line != null; line = charSource.readLine()) {
-					for (final String word : line.split("[\\s,\\!,\\?,\\.,\\,,\\(,\\),\",:,;]")) {
-						if (word.isEmpty()) continue;
-						this.sorter.write(word);
-						wordCount += 1;
-					}
-				}
-				this.sorter.write(null);
+		try (BufferedWriter charSink = Files.newBufferedWriter(sinkPath, UTF_8)) {
+			int chunkLength;
+
+			timestamp1 = System.currentTimeMillis();
+			writeCount = source.writeTo(sorter);
+			sorter.write(null);
 
-				timestamp2 = System.currentTimeMillis();
-				this.sorter.sort();
+			timestamp2 = System.currentTimeMillis();
+			sorter.sort();
 
-				timestamp3 = System.currentTimeMillis();
-				for (String word = this.sorter.read(); word != null; word = this.sorter.read()) {
-					charSink.write(word);
+			timestamp3 = System.currentTimeMillis();
+			do {
+				chunkLength = sorter.read(chunk);
+				for (int index = 0; index < chunkLength; ++index) {
+					charSink.write(chunk[index].toString());
 					charSink.newLine();
 				}
+				readCount += chunkLength;
+			} while (chunkLength == chunk.length);
 
-				timestamp4 = System.currentTimeMillis();
-			}
+			timestamp4 = System.currentTimeMillis();
 		} finally {
-			this.sorter.close();
+			sorter.close();
 		}
 
-		System.out.format("Sort ok, %d words sorted.\n", wordCount);
+		System.out.format(summaryFormat, writeCount, readCount);
 		System.out.format("Read time: %dms.\n", timestamp2 - timestamp1);
 		System.out.format("Sort time: %dms.\n", timestamp3 - timestamp2);
 		System.out.format("Write time: %dms.\n", timestamp4 - timestamp3);
 	}
+
+
+	/**
+	 * Writes the words within the given source file into the given sorter. If the sorter is a
+	 * k-way merge sorter distributing it's elements evenly, the source file is tokenized in
+	 * parallel, with each tokenizer thread feeding one of the sorter's children directly.
+	 * Adaptive k-way merge sorters are fed through the sorter itself instead, as they can only
+	 * weigh their children by the throughput of the writes they perform themselves. Otherwise,
+	 * the source file is read line by line within the current thread.
+	 * @param sorter the sorter
+	 * @return the number of words written
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	@SuppressWarnings("unchecked")
+	private long writeWords (final MergeSorter<String> sorter) throws IOException {
+		if (sorter instanceof KWayMergeSorter && ((KWayMergeSorter<String>) sorter).getDistribution() != Distribution.ADAPTIVE) {
+			return this.writeWordsParallel((KWayMergeSorter<String>) sorter);
+		}
+
+		long wordCount = 0;
+		try (BufferedReader charSource = Files.newBufferedReader(this.sourcePath, UTF_8)) {
+			final String[] chunk = new String[CHUNK_SIZE];
+			int chunkLength = 0;
+
+			for (String line = charSource.readLine(); line != null; line = charSource.readLine()) {
+				for (final String word : line.split("[\\s,\\!,\\?,\\.,\\,,\\(,\\),\",:,;]")) {
+					if (word.isEmpty()) continue;
+					chunk[chunkLength++] = word;
+					wordCount += 1;
+
+					if (chunkLength == CHUNK_SIZE) {
+						sorter.write(chunk, 0, chunkLength);
+						chunkLength = 0;
+					}
+				}
+			}
+			sorter.write(chunk, 0, chunkLength);
+		}
+
+		return wordCount;
+	}
+
+
+	/**
+	 * Writes the words within the given source file into the given sorter's children. The file
+	 * is memory-mapped in segments that end on delimiters, and each child is fed with the words
+	 * of it's share of the segments by a separate tokenizer thread.
+	 * @param sorter the k-way merge sorter
+	 * @return the number of words written
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	private long writeWordsParallel (final KWayMergeSorter<String> sorter) throws IOException {
+		try (FileChannel channel = FileChannel.open(this.sourcePath, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final int childCount = sorter.getChildCount();
+			final int segmentCount = (int) Math.max(childCount, (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE);
+
+			final long[] boundaries = new long[segmentCount + 1];
+			for (int index = 1; index < segmentCount; ++index) {
+				boundaries[index] = nextDelimiterPosition(channel, Math.max(boundaries[index - 1], size * index / segmentCount));
+			}
+			boundaries[segmentCount] = size;
+
+			final List<Future<Long>> futures = new ArrayList<>(childCount);
+			try {
+				for (int childIndex = 0; childIndex < childCount; ++childIndex) {
+					final int offset = childIndex;
+					final MergeSorter<String> child = sorter.getChild(childIndex);
+					final Callable<Long> worker = () -> {
+						long wordCount = 0;
+						for (int index = offset; index < segmentCount; index += childCount) {
+							final long position = boundaries[index], length = boundaries[index + 1] - position;
+							wordCount += writeWords(channel.map(MapMode.READ_ONLY, position, length), child);
+						}
+						return wordCount;
+					};
+					futures.add(MultiThreadSorter.THREAD_POOL.submit(worker));
+				}
+
+				long wordCount = 0;
+				try {
+					for (final Future<Long> future : futures) {
+						wordCount += Uninterruptibles.get(future);
+					}
+				} catch (final ExecutionException exception) {
+					final Throwable cause = exception.getCause();
+					if (cause instanceof Error) throw (Error) cause;
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					if (cause instanceof IOException) throw (IOException) cause;
+					throw new AssertionError();
+				}
+				return wordCount;
+			} finally {
+				for (final Future<?> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the position of the first delimiter at or after the given position within the
+	 * given channel, or the channel's size if there is none.
+	 * @param channel the file channel
+	 * @param position the start position
+	 * @return the delimiter position
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	static private long nextDelimiterPosition (final FileChannel channel, long position) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(0x100);
+		for (int count = channel.read(buffer, position); count > 0; count = channel.read(buffer, position)) {
+			for (int index = 0; index < count; ++index) {
+				if (isDelimiter(buffer.get(index))) return position + index;
+			}
+			position += count;
+			buffer.clear();
+		}
+		return channel.size();
+	}
+
+
+	/**
+	 * Returns whether or not the given byte is a word delimiter. As all delimiters are ASCII
+	 * characters, the bytes of UTF-8 encoded multi-byte characters never match.
+	 * @param value the byte value
+	 * @return {@code true} if the given byte is a delimiter, {@code false} otherwise
+	 */
+	static private boolean isDelimiter (final byte value) {
+		return value >= 0 && DELIMITERS[value];
+	}
+
+
+	/**
+	 * Writes the words within the given UTF-8 encoded buffer into the given sorter, scanning
+	 * for delimiters byte by byte instead of splitting lines using a regular expression.
+	 * @param buffer the byte buffer
+	 * @param sorter the sorter
+	 * @return the number of words written
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	static private long writeWords (final ByteBuffer buffer, final MergeSorter<String> sorter) throws IOException {
+		final String[] chunk = new String[CHUNK_SIZE];
+		byte[] word = new byte[0x40];
+		int chunkLength = 0, wordLength = 0;
+		long wordCount = 0;
+
+		for (int position = buffer.position(), limit = buffer.limit(); position <= limit; ++position) {
+			final byte value = position == limit ? (byte) ' ' : buffer.get(position);
+			if (!isDelimiter(value)) {
+				if (wordLength == word.length) word = Arrays.copyOf(word, wordLength << 1);
+				word[wordLength++] = value;
+			} else if (wordLength > 0) {
+				chunk[chunkLength++] = new String(word, 0, wordLength, UTF_8);
+				wordLength = 0;
+				wordCount += 1;
+
+				if (chunkLength == CHUNK_SIZE) {
+					sorter.write(chunk, 0, chunkLength);
+					chunkLength = 0;
+				}
+			}
+		}
+		sorter.write(chunk, 0, chunkLength);
+
+		return wordCount;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import de.htw.tool.Copyright;
+import de.htw.tool.InetAddresses;
+
+
+/**
+ * This class implements a distributed string sorter test case using asynchronous proxy
+ * sorters, which overlap tokenization, network transfer and server side sorting. It sorts all
+ * words of a source file into a sink file. Alternatively, the words may be range partitioned
+ * over the servers using a {@linkplain DistributedSorter distributed sorter}, which avoids the
+ * client side merge. Note that this class is declared final because it
+ * provides an application entry point, and therefore is not supposed to be extended.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class SortClient4 extends SortClient {
+
+	/**
+	 * Initializes a new instance based on the given arguments.
+	 * @param sourcePath the source file path
+	 * @param sinkPath the sink file path
+	 * @param sorter the sorter
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if either of the given file paths does not represent a regular file
+	 */
+	public SortClient4 (final Path sourcePath, final Path sinkPath, final MergeSorter<String> sorter) throws NullPointerException, IllegalArgumentException {
+		super(sourcePath, sinkPath, sorter);
+	}
+
+
+	/**
+	 * Sorts a source file's words into a sink file. Arguments must be an optional {@code -p} flag
+	 * requesting range partitioning, the path to the source file, the path of the sorted sink
+	 * file, and one or more sort server socket addresses.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if any of the given paths does not point to a regular file
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void main (final String[] args) throws IllegalArgumentException, IOException {
+		final boolean partitioned = args.length > 0 && args[0].equals("-p");
+		final int offset = partitioned ? 1 : 0;
+		final Path sourcePath = Paths.get(args[offset]);
+		final Path sinkPath = Paths.get(args[offset + 1]);
+		final InetSocketAddress[] socketAddresses = new InetSocketAddress[args.length - offset - 2];
+		for (int index = 0; index < socketAddresses.length; ++index) {
+			socketAddresses[index] = InetAddresses.toSocketAddress(args[index + offset + 2]);
+		}
+
+		final MergeSorter<String> sorter = partitioned
+			? DistributedSorter.newInstance(socketAddresses)
+			: AsyncProxySorter.newInstance(socketAddresses);
+		final SortClient4 client = new SortClient4(sourcePath, sinkPath, sorter);
+		client.process();
+
+		MultiThreadSorter.THREAD_POOL.shutdownNow();
+	}
+}
@@ -0,0 +1,108 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import de.htw.tool.Copyright;
+import de.htw.tool.InetAddresses;
+
+
+/**
+ * This class implements a word frequency test case. It counts the occurrences of all non-empty
+ * words of a source file, and writes the distinct words in sorted order into a sink file, each
+ * followed by a tab character and it's number of occurrences. Duplicate words are combined as
+ * early as possible, so neither memory consumption nor network volume depend on the number of
+ * duplicates. Note that this class is declared final because it provides an application entry
+ * point, and therefore is not supposed to be extended.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class SortClient5 {
+	static private final int CHUNK_SIZE = 0x1000;
+
+	private final Path sourcePath;
+	private final Path sinkPath;
+	private final MergeSorter<Tally<String>> sorter;
+
+
+	/**
+	 * Initializes a new instance based on the given arguments.
+	 * @param sourcePath the source file path
+	 * @param sinkPath the sink file path
+	 * @param sorter the aggregating sorter
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given source file paths does not represent a regular file, or
+	 * 		   if the given sink file path represents a directory
+	 */
+	public SortClient5 (final Path sourcePath, final Path sinkPath, final MergeSorter<Tally<String>> sorter) throws NullPointerException, IllegalArgumentException {
+		if (!Files.isRegularFile(sourcePath) | Files.isDirectory(sinkPath)) throw new IllegalArgumentException();
+
+		this.sourcePath = sourcePath;
+		this.sinkPath = sinkPath;
+		this.sorter = Objects.requireNonNull(sorter);
+	}
+
+
+	/**
+	 * Counts the words within the given source file, and writes their sorted tallies into the
+	 * given sink file.
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void process () throws IOException {
+		SortClient.process(this.sorter, this::writeWords, this.sinkPath, new Tally[CHUNK_SIZE], "Count ok, %d words counted, %d distinct words sorted.\n");
+	}
+
+
+	/**
+	 * Writes a tally for each word within the given source file into the given sorter.
+	 * @param sorter the aggregating sorter
+	 * @return the number of words written
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	private long writeWords (final MergeSorter<Tally<String>> sorter) throws IOException {
+		long wordCount = 0;
+
+		try (BufferedReader charSource = Files.newBufferedReader(this.sourcePath, UTF_8)) {
+			for (String line = charSource.readLine(); line != null; line = charSource.readLine()) {
+				for (final String word : line.split("[\\s,\\!,\\?,\\.,\\,,\\(,\\),\",:,;]")) {
+					if (word.isEmpty()) continue;
+					sorter.write(new Tally<>(word));
+					wordCount += 1;
+				}
+			}
+		}
+
+		return wordCount;
+	}
+
+
+	/**
+	 * Counts a source file's words into a sink file. Arguments must be the path to the source
+	 * file, the path of the sorted sink file, and optionally one or more sort server socket
+	 * addresses; without the latter, the words are counted locally.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if any of the given paths does not point to a regular file
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void main (final String[] args) throws IllegalArgumentException, IOException {
+		final Path sourcePath = Paths.get(args[0]);
+		final Path sinkPath = Paths.get(args[1]);
+		final InetSocketAddress[] socketAddresses = new InetSocketAddress[args.length - 2];
+		for (int index = 0; index < socketAddresses.length; ++index) {
+			socketAddresses[index] = InetAddresses.toSocketAddress(args[index + 2]);
+		}
+
+		final MergeSorter<Tally<String>> sorter = socketAddresses.length == 0
+			? CombiningSorter.newInstance()
+			: TallyProxySorter.newInstance(socketAddresses);
+		final SortClient5 client = new SortClient5(sourcePath, sinkPath, sorter);
+		client.process();
+
+		MultiThreadSorter.THREAD_POOL.shutdownNow();
+	}
+}
@@ -0,0 +1,116 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import de.htw.tool.Copyright;
+import de.htw.tool.InetAddresses;
+
+
+/**
+ * This class implements a record sort test case. It sorts all non-empty lines of a delimited
+ * source file like a CSV or TSV file by the given key columns, and writes them into a sink file.
+ * Note that this class is declared final because it provides an application entry point, and
+ * therefore is not supposed to be extended.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class SortClient6 {
+	static private final int CHUNK_SIZE = 0x1000;
+
+	private final Path sourcePath;
+	private final Path sinkPath;
+	private final MergeSorter<String> sorter;
+
+
+	/**
+	 * Initializes a new instance based on the given arguments.
+	 * @param sourcePath the source file path
+	 * @param sinkPath the sink file path
+	 * @param sorter the record sorter
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if the given source file paths does not represent a regular file, or
+	 * 		   if the given sink file path represents a directory
+	 */
+	public SortClient6 (final Path sourcePath, final Path sinkPath, final MergeSorter<String> sorter) throws NullPointerException, IllegalArgumentException {
+		if (!Files.isRegularFile(sourcePath) | Files.isDirectory(sinkPath)) throw new IllegalArgumentException();
+
+		this.sourcePath = sourcePath;
+		this.sinkPath = sinkPath;
+		this.sorter = Objects.requireNonNull(sorter);
+	}
+
+
+	/**
+	 * Sorts the records within the given source file, and writes them into the given sink file.
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	public void process () throws IOException {
+		SortClient.process(this.sorter, this::writeRecords, this.sinkPath, new String[CHUNK_SIZE], "Sort ok, %d records sorted.\n");
+	}
+
+
+	/**
+	 * Writes the non-empty lines within the given source file into the given sorter.
+	 * @param sorter the record sorter
+	 * @return the number of records written
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	private long writeRecords (final MergeSorter<String> sorter) throws IOException {
+		long recordCount = 0;
+
+		try (BufferedReader charSource = Files.newBufferedReader(this.sourcePath, UTF_8)) {
+			final String[] chunk = new String[CHUNK_SIZE];
+			int chunkLength = 0;
+
+			for (String line = charSource.readLine(); line != null; line = charSource.readLine()) {
+				if (line.isEmpty()) continue;
+				chunk[chunkLength++] = line;
+				recordCount += 1;
+
+				if (chunkLength == CHUNK_SIZE) {
+					sorter.write(chunk, 0, chunkLength);
+					chunkLength = 0;
+				}
+			}
+			sorter.write(chunk, 0, chunkLength);
+		}
+
+		return recordCount;
+	}
+
+
+	/**
+	 * Sorts a source file's records into a sink file. Arguments must be the path to the source
+	 * file, the path of the sorted sink file, the field delimiter ({@code \t} denoting a tab
+	 * character), the comma separated key columns as defined in {@link RecordSorter.KeySpec},
+	 * and optionally one or more sort server socket addresses; without the latter, the records
+	 * are sorted locally.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if any of the given paths does not point to a regular file,
+	 *         or if the given key columns are malformed
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void main (final String[] args) throws IllegalArgumentException, IOException {
+		final Path sourcePath = Paths.get(args[0]);
+		final Path sinkPath = Paths.get(args[1]);
+		final char delimiter = args[2].equals("\\t") ? '\t' : args[2].charAt(0);
+		final RecordSorter.KeySpec keySpec = RecordSorter.KeySpec.parse(delimiter, args[3]);
+		final InetSocketAddress[] socketAddresses = new InetSocketAddress[args.length - 4];
+		for (int index = 0; index < socketAddresses.length; ++index) {
+			socketAddresses[index] = InetAddresses.toSocketAddress(args[index + 4]);
+		}
+
+		final MergeSorter<String> sorter = socketAddresses.length == 0
+			? RecordSorter.newInstance(keySpec)
+			: RecordSorter.newInstance(keySpec, socketAddresses);
+		final SortClient6 client = new SortClient6(sourcePath, sinkPath, sorter);
+		client.process();
+
+		MultiThreadSorter.THREAD_POOL.shutdownNow();
+	}
+}
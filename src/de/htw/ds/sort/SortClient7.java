@@ -0,0 +1,247 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
+
+
+/**
+ * This class implements a sorted shard merge test case. In contrast to the other sort clients,
+ * it does not sort anything, but merges the lines of one or more already sorted shard files -
+ * as produced by earlier sort client runs - into a sink file, optionally dropping duplicates.
+ * Each shard is read and decoded by a separate prefetch thread using a large buffer, while the
+ * current thread k-way merges the prefetched chunks using a heap, and streams the result
+ * sequentially into the sink file. Note that this class is declared final because it provides
+ * an application entry point, and therefore is not supposed to be extended.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class SortClient7 {
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final int BUFFER_SIZE = 0x100000;
+	static private final int PREFETCH_DEPTH = 4;
+	static private final String[] END_OF_SHARD = new String[0];
+	static private final ExecutorService PREFETCH_POOL = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "shard-prefetcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path[] shardPaths;
+	private final Path sinkPath;
+	private final boolean distinct;
+
+
+	/**
+	 * Initializes a new instance based on the given arguments.
+	 * @param shardPaths the sorted shard file paths
+	 * @param sinkPath the sink file path
+	 * @param distinct whether or not duplicate lines shall be merged into one
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if any of the given shard file paths does not represent a
+	 *         regular file, or if the given sink file path represents a directory
+	 */
+	public SortClient7 (final Path[] shardPaths, final Path sinkPath, final boolean distinct) throws NullPointerException, IllegalArgumentException {
+		for (final Path shardPath : shardPaths) {
+			if (!Files.isRegularFile(shardPath)) throw new IllegalArgumentException();
+		}
+		if (Files.isDirectory(sinkPath)) throw new IllegalArgumentException();
+
+		this.shardPaths = shardPaths.clone();
+		this.sinkPath = sinkPath;
+		this.distinct = distinct;
+	}
+
+
+	/**
+	 * Merges the lines within the given shard files, and writes them into the given sink file.
+	 * @throws IOException if an I/O related problem occurs
+	 */
+	public void process () throws IOException {
+		final long timestamp1, timestamp2;
+		long lineCount = 0;
+
+		final PriorityQueue<ShardCursor> mergeQueue = new PriorityQueue<>(Math.max(1, this.shardPaths.length));
+		final ShardCursor[] cursors = new ShardCursor[this.shardPaths.length];
+		try {
+			timestamp1 = System.currentTimeMillis();
+			for (int index = 0; index < cursors.length; ++index) {
+				cursors[index] = new ShardCursor(this.shardPaths[index]);
+			}
+			for (final ShardCursor cursor : cursors) {
+				if (cursor.next()) mergeQueue.add(cursor);
+			}
+
+			try (BufferedWriter charSink = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(this.sinkPath), UTF_8), BUFFER_SIZE)) {
+				String previous = null;
+				while (!mergeQueue.isEmpty()) {
+					final ShardCursor cursor = mergeQueue.remove();
+					final String line = cursor.head;
+					if (cursor.next()) mergeQueue.add(cursor);
+
+					if (!this.distinct || previous == null || !line.equals(previous)) {
+						charSink.write(line);
+						charSink.newLine();
+						lineCount += 1;
+					}
+					previous = line;
+				}
+			}
+			timestamp2 = System.currentTimeMillis();
+		} finally {
+			for (final ShardCursor cursor : cursors) {
+				if (cursor != null) cursor.close();
+			}
+		}
+
+		System.out.format("Merge ok, %d lines merged from %d shards.\n", lineCount, this.shardPaths.length);
+		System.out.format("Merge time: %dms.\n", timestamp2 - timestamp1);
+	}
+
+
+	/**
+	 * Merges sorted shard files into a sink file. Arguments must be an optional {@code -u} flag
+	 * requesting duplicate lines to be merged into one, the path of the merged sink file, and the
+	 * paths of one or more shard files, each of which must already be sorted line by line in
+	 * natural string order.
+	 * @param args the given runtime arguments
+	 * @throws IllegalArgumentException if any of the given shard paths does not point to a regular
+	 *         file
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public void main (final String[] args) throws IllegalArgumentException, IOException {
+		final boolean distinct = args.length > 0 && args[0].equals("-u");
+		final int offset = distinct ? 1 : 0;
+		final Path sinkPath = Paths.get(args[offset]);
+		final Path[] shardPaths = new Path[args.length - offset - 1];
+		for (int index = 0; index < shardPaths.length; ++index) {
+			shardPaths[index] = Paths.get(args[index + offset + 1]);
+		}
+
+		final SortClient7 client = new SortClient7(shardPaths, sinkPath, distinct);
+		client.process();
+	}
+
+
+
+	/**
+	 * Instances of this class iterate over the non-empty lines of a sorted shard file, and order
+	 * themselves by their current head element. The lines are read and decoded in chunks by a
+	 * prefetch thread, which stays up to a few chunks ahead of the merge.
+	 */
+	static private final class ShardCursor implements Comparable<ShardCursor>, AutoCloseable {
+		private final BlockingQueue<String[]> chunkQueue;
+		private final Future<?> prefetchFuture;
+		private volatile Throwable prefetchFailure;
+		private String[] chunk;
+		private int chunkIndex;
+		private String head;
+
+
+		/**
+		 * Creates a new instance positioned before the first line of the given shard file, and
+		 * starts prefetching it's lines. The prefetch thread records it's failure if any, and
+		 * enqueues the end-of-shard marker regardless, unless the cursor has been closed; in the
+		 * latter case, there is no one left to consume the marker, and the queue may be full.
+		 * @param shardPath the shard file path
+		 */
+		public ShardCursor (final Path shardPath) {
+			final BlockingQueue<String[]> chunkQueue = new ArrayBlockingQueue<>(PREFETCH_DEPTH);
+			final Callable<Void> prefetcher = () -> {
+				try (BufferedReader charSource = new BufferedReader(new InputStreamReader(Files.newInputStream(shardPath), UTF_8), BUFFER_SIZE)) {
+					final String[] chunk = new String[CHUNK_SIZE];
+					int chunkLength = 0;
+
+					for (String line = charSource.readLine(); line != null; line = charSource.readLine()) {
+						if (line.isEmpty()) continue;
+						chunk[chunkLength++] = line;
+
+						if (chunkLength == CHUNK_SIZE) {
+							chunkQueue.put(chunk.clone());
+							chunkLength = 0;
+						}
+					}
+					if (chunkLength > 0) chunkQueue.put(Arrays.copyOf(chunk, chunkLength));
+				} catch (final IOException | RuntimeException | Error exception) {
+					this.prefetchFailure = exception;
+				}
+				chunkQueue.put(END_OF_SHARD);
+				return null;
+			};
+
+			this.chunkQueue = chunkQueue;
+			this.prefetchFuture = PREFETCH_POOL.submit(prefetcher);
+			this.chunk = END_OF_SHARD;
+		}
+
+
+		/**
+		 * Advances this cursor to the next line of the underlying shard.
+		 * @return {@code true} if there is a next line, {@code false} otherwise
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public boolean next () throws IOException {
+			if (this.chunkIndex == this.chunk.length) {
+				this.chunk = this.nextChunk();
+				this.chunkIndex = 0;
+				if (this.chunk == END_OF_SHARD) {
+					this.head = null;
+					return false;
+				}
+			}
+
+			this.head = this.chunk[this.chunkIndex++];
+			return true;
+		}
+
+
+		/**
+		 * Returns the next prefetched chunk, waiting for it if necessary. If the prefetch thread
+		 * failed, it's failure is rethrown once the chunks already prefetched have been consumed.
+		 * @return the next chunk, or {@link #END_OF_SHARD} if the shard is exhausted
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private String[] nextChunk () throws IOException {
+			final String[] chunk = Uninterruptibles.take(this.chunkQueue);
+			if (chunk == END_OF_SHARD && this.prefetchFailure != null) {
+				final Throwable failure = this.prefetchFailure;
+				if (failure instanceof Error) throw (Error) failure;
+				if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+				if (failure instanceof IOException) throw (IOException) failure;
+				throw new AssertionError();
+			}
+			return chunk;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public int compareTo (final ShardCursor other) {
+			return this.head.compareTo(other.head);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () {
+			this.prefetchFuture.cancel(true);
+		}
+	}
+}
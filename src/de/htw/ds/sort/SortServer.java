@@ -1,18 +1,37 @@
 package de.htw.ds.sort;
 
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
-import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import de.htw.ds.sort.CspCodec.LongCodec;
+import de.htw.ds.sort.CspCodec.MultiplexedCodec;
+import de.htw.ds.sort.CspCodec.StringCodec;
+import de.htw.ds.sort.CspCodec.TallyCodec;
 import de.htw.tool.Copyright;
+import de.htw.tool.Uninterruptibles;
 
 
 /**
@@ -28,23 +47,153 @@ import de.htw.tool.Copyright;
  * CR			:= line separator
  * element		:= utf8-string - (null | "")
  * </pre>
+ * Clients may alternatively negotiate the more compact binary framing described in
+ * {@link CspCodec} when connecting, the integer framing used by
+ * {@linkplain LongProxySorter integer proxy sorters}, or the counted framing used by
+ * {@linkplain TallyProxySorter tally proxy sorters}, or the multiplexed framing used by
+ * {@linkplain ProxySorterPool proxy sorter pools}, whose requests are handled concurrently
+ * by a bounded number of responder threads per connection. Servers may optionally cache the
+ * responses to unlimited string requests in a {@link ResultCache}, which allows requests
+ * repeating the elements of a previous one in the same order to be answered without sorting.
+ * The pooled sorter trees are {@linkplain InstrumentedSorter instrumented} both at their root
+ * and their leaves, which allows telling slow leaves from slow merges or network transfers; the
+ * resulting {@linkplain SorterMetrics metrics} are published as MBeans named
+ * {@code de.htw.ds.sort:type=SortServer,port=<port>,node=tree|leaf}, and logged periodically.
+ * Finally, servers may limit the number of concurrent connections, and the memory buffered
+ * requests occupy: connections beyond the limit are queued for a while, and rejected if no
+ * other connection ends in time. Each admitted connection is guaranteed a memory quota, and
+ * may borrow the unused quotas of vacant connection slots beyond that; if none are available,
+ * it's reads are paused until other connections release memory, which applies back-pressure
+ * to the client. If this takes too long, the connection is closed. Note that spilling requests
+ * are charged no more than the memory budget, which allows them to proceed regardless.
  */
 	// TODO: remove this line
 @Copyright(year=2010, holders="Sascha Baumeister")
 public final class SortServer implements Runnable, AutoCloseable {
-	static private final int BUFFER_SIZE = 0xF000;
+	static private final int CHUNK_SIZE = 0x1000;
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+	static private final int RETAINED_CAPACITY = 0x40000;
+	static private final long MIN_LEAF_BUDGET = 0x10000;
+	static private final int ELEMENT_OVERHEAD = 48;
+	static private final int TALLY_OVERHEAD = 80;
+	static private final int STREAM_OVERHEAD = 16 * CHUNK_SIZE;
+	static private final int STREAM_LIMIT = 0x100;
+	static private final long ADMISSION_TIMEOUT = 30;
+	static private final long LOG_PERIOD = 60;
+	static private final ScheduledExecutorService MONITOR_POOL = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "csp-monitor");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final ServerSocket serviceSocket;
+	private final long memoryBudget;
+	private final SorterPool<String> sorterPool;
+	private final ResultCache resultCache;
+	private final int connectionLimit;
+	private final Semaphore connectionPermits;
+	private final MemoryQuota memoryQuota;
+	private final SorterMetrics treeMetrics;
+	private final SorterMetrics leafMetrics;
+	private final ObjectName treeMetricsName;
+	private final ObjectName leafMetricsName;
+	private final ScheduledFuture<?> logFuture;
+	private long loggedRequestCount;
 
 
 	/**
-	 * Public constructor.
+	 * Public constructor for a server that keeps all elements of a request in memory.
 	 * @param servicePort the service port
 	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF]
 	 * @throws IOException if the given port is already in use, or cannot be bound
 	 */
 	public SortServer (final int servicePort) throws IOException {
+		this(servicePort, 0);
+	}
+
+
+	/**
+	 * Public constructor for a server that spills the elements of a request into temporary
+	 * files once the given per-connection memory budget is exceeded.
+	 * @param servicePort the service port
+	 * @param memoryBudget the approximate number of heap bytes each connection may use for
+	 *        buffering elements, or {@code 0} for unlimited
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         or if the given memory budget is negative
+	 * @throws IOException if the given port is already in use, or cannot be bound
+	 */
+	public SortServer (final int servicePort, final long memoryBudget) throws IOException {
+		this(servicePort, memoryBudget, 0, 0);
+	}
+
+
+	/**
+	 * Public constructor for a server that additionally caches the responses to string
+	 * requests, unless both given cache capacities are zero.
+	 * @param servicePort the service port
+	 * @param memoryBudget the approximate number of heap bytes each connection may use for
+	 *        buffering elements, or {@code 0} for unlimited
+	 * @param cacheMemoryCapacity the approximate number of heap bytes cached responses may
+	 *        occupy
+	 * @param cacheDiskCapacity the number of bytes cached responses may occupy on disk
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         or if the given memory budget or any of the given cache capacities is negative
+	 * @throws IOException if the given port is already in use, or cannot be bound
+	 */
+	public SortServer (final int servicePort, final long memoryBudget, final long cacheMemoryCapacity, final long cacheDiskCapacity) throws IOException {
+		this(servicePort, memoryBudget, cacheMemoryCapacity, cacheDiskCapacity, 0, 0);
+	}
+
+
+	/**
+	 * Public constructor for a server that additionally limits the number of concurrent
+	 * connections, and the memory the buffered requests of each connection occupy, unless
+	 * the given connection limit is zero.
+	 * @param servicePort the service port
+	 * @param memoryBudget the approximate number of heap bytes each connection may use for
+	 *        buffering elements, or {@code 0} for unlimited
+	 * @param cacheMemoryCapacity the approximate number of heap bytes cached responses may
+	 *        occupy
+	 * @param cacheDiskCapacity the number of bytes cached responses may occupy on disk
+	 * @param connectionLimit the maximum number of concurrent connections, or {@code 0} for
+	 *        unlimited
+	 * @param connectionQuota the approximate number of heap bytes guaranteed to the buffered
+	 *        requests of each connection, or {@code 0} for unlimited
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         if the given memory budget or any of the given cache capacities is negative,
+	 *         if the given connection limit or quota is negative, or if there is a connection
+	 *         quota without a connection limit
+	 * @throws IOException if the given port is already in use, or cannot be bound
+	 */
+	public SortServer (final int servicePort, final long memoryBudget, final long cacheMemoryCapacity, final long cacheDiskCapacity, final int connectionLimit, final long connectionQuota) throws IOException {
+		if (memoryBudget < 0 | cacheMemoryCapacity < 0 | cacheDiskCapacity < 0 | connectionLimit < 0 | connectionQuota < 0) throw new IllegalArgumentException();
+		if (connectionLimit == 0 & connectionQuota > 0) throw new IllegalArgumentException();
+
+		final SorterMetrics treeMetrics = new SorterMetrics(), leafMetrics = new SorterMetrics();
+		final Supplier<MergeSorter<String>> leafFactory = InstrumentedSorter.newLeafFactory(newLeafFactory(memoryBudget), leafMetrics);
 		this.serviceSocket = new ServerSocket(servicePort);
+		this.memoryBudget = memoryBudget;
+		this.sorterPool = new SorterPool<>(() -> new InstrumentedSorter<>(MultiThreadSorter.newInstance(leafFactory), treeMetrics), CORES);
+		this.resultCache = cacheMemoryCapacity == 0 & cacheDiskCapacity == 0 ? null : new ResultCache(cacheMemoryCapacity, cacheDiskCapacity);
+		this.connectionLimit = connectionLimit;
+		this.connectionPermits = new Semaphore(connectionLimit == 0 ? Integer.MAX_VALUE : connectionLimit, true);
+		this.memoryQuota = new MemoryQuota(connectionQuota, connectionLimit, memoryBudget == 0 ? 0 : Math.max(memoryBudget, MIN_LEAF_BUDGET * CORES));
+		this.treeMetrics = treeMetrics;
+		this.leafMetrics = leafMetrics;
+
+		final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		final String namePrefix = "de.htw.ds.sort:type=SortServer,port=" + this.serviceSocket.getLocalPort();
+		try {
+			this.treeMetricsName = new ObjectName(namePrefix + ",node=tree");
+			this.leafMetricsName = new ObjectName(namePrefix + ",node=leaf");
+			mbeanServer.registerMBean(treeMetrics, this.treeMetricsName);
+			mbeanServer.registerMBean(leafMetrics, this.leafMetricsName);
+		} catch (final JMException exception) {
+			this.serviceSocket.close();
+			throw new AssertionError(exception);
+		}
+
+		this.logFuture = MONITOR_POOL.scheduleAtFixedRate(this::log, LOG_PERIOD, LOG_PERIOD, TimeUnit.SECONDS);
 		new Thread(this, "csp-acceptor").start();
 	}
 
@@ -54,7 +203,25 @@ public final class SortServer implements Runnable, AutoCloseable {
 	 * @throws IOException if there is an I/O related problem
 	 */
 	public void close () throws IOException {
-		this.serviceSocket.close();
+		this.logFuture.cancel(false);
+		try {
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			for (final ObjectName name : new ObjectName[] { this.treeMetricsName, this.leafMetricsName }) {
+				if (mbeanServer.isRegistered(name)) mbeanServer.unregisterMBean(name);
+			}
+		} catch (final JMException exception) {
+			throw new AssertionError(exception);
+		}
+
+		try {
+			this.serviceSocket.close();
+		} finally {
+			try {
+				this.sorterPool.close();
+			} finally {
+				if (this.resultCache != null) this.resultCache.close();
+			}
+		}
 	}
 
 
@@ -67,8 +234,76 @@ public final class SortServer implements Runnable, AutoCloseable {
 	}
 
 
+	/**
+	 * Returns the per-connection memory budget.
+	 * @return the approximate number of heap bytes each connection may use for buffering
+	 *         elements, or {@code 0} for unlimited
+	 */
+	public long getMemoryBudget () {
+		return this.memoryBudget;
+	}
+
+
+	/**
+	 * Returns the result cache.
+	 * @return the cache of string responses, or {@code null} if caching is disabled
+	 */
+	public ResultCache getResultCache () {
+		return this.resultCache;
+	}
+
+
+	/**
+	 * Returns the maximum number of concurrent connections.
+	 * @return the connection limit, or {@code 0} for unlimited
+	 */
+	public int getConnectionLimit () {
+		return this.connectionLimit;
+	}
+
+
+	/**
+	 * Returns the number of connections currently being served.
+	 * @return the number of connections admitted and not yet closed
+	 */
+	public int getConnectionCount () {
+		return (this.connectionLimit == 0 ? Integer.MAX_VALUE : this.connectionLimit) - this.connectionPermits.availablePermits();
+	}
+
+
+	/**
+	 * Returns the memory occupied by buffered requests.
+	 * @return the approximate number of heap bytes charged to all connections
+	 */
+	public long getBufferedBytes () {
+		return this.memoryQuota.getUsage();
+	}
+
+
+	/**
+	 * Returns the metrics aggregated over the roots of all sorter trees, including the network
+	 * traffic of all connections.
+	 * @return the tree metrics
+	 */
+	public SorterMetrics getTreeMetrics () {
+		return this.treeMetrics;
+	}
+
+
+	/**
+	 * Returns the metrics aggregated over the leaves of all sorter trees.
+	 * @return the leaf metrics
+	 */
+	public SorterMetrics getLeafMetrics () {
+		return this.leafMetrics;
+	}
+
+
 	/**
 	 * Periodically blocks until a TCP connection is requested, handles the latter subsequently.
+	 * If the connection limit is reached, the acceptor waits for another connection to end, and
+	 * rejects the connection if none does in time; pending connections queue up in the socket's
+	 * backlog meanwhile.
 	 * @throws OutOfMemoryError if the operating system cannot start another thread
 	 * @throws UncheckedIOException if there is an I/O related problem
 	 */
@@ -76,8 +311,22 @@ public final class SortServer implements Runnable, AutoCloseable {
 		while (true) {
 			try {
 				final Socket connection = this.serviceSocket.accept();
-				final Runnable connectionHandler = newConnectionHandler(connection);
-				new Thread(connectionHandler, "csp-service").start();
+				try {
+					Uninterruptibles.acquire(this.connectionPermits, ADMISSION_TIMEOUT, TimeUnit.SECONDS);
+				} catch (final TimeoutException exception) {
+					connection.close();	// reject the connection
+					continue;
+				}
+
+				final Runnable connectionHandler = newConnectionHandler(connection, this.sorterPool, this.resultCache, this.treeMetrics, this.memoryQuota);
+				final Runnable permitReleaser = () -> {
+					try {
+						connectionHandler.run();
+					} finally {
+						this.connectionPermits.release();
+					}
+				};
+				new Thread(permitReleaser, "csp-service").start();
 			} catch (final SocketException exception) {
 				break;	// the client side closed the connection
 			} catch (final IOException exception) {
@@ -87,14 +336,52 @@ public final class SortServer implements Runnable, AutoCloseable {
 	}
 
 
+	/**
+	 * Logs the tree and leaf metrics, unless no requests have been sorted since they have last
+	 * been logged. Note that this method is only called by the monitor thread.
+	 */
+	private void log () {
+		final long requestCount = this.treeMetrics.getRequestCount();
+		if (requestCount == this.loggedRequestCount) return;
+
+		this.loggedRequestCount = requestCount;
+		System.out.format("Tree metrics: %s.\n", this.treeMetrics);
+		System.out.format("Leaf metrics: %s.\n", this.leafMetrics);
+		System.out.format("%d connections, %d bytes buffered.\n", this.getConnectionCount(), this.getBufferedBytes());
+	}
+
+
+	/**
+	 * Returns a new factory for the leaf sorters of a connection's sorter tree. If there is
+	 * a memory budget, it is split evenly among the leaves, and each leaf spills into temporary
+	 * files once it exceeds it's share; shares are raised to at least {@value #MIN_LEAF_BUDGET}
+	 * bytes, as tiny budgets would spill every few elements into a run file of their own.
+	 * Otherwise, each leaf retains it's share of a fixed element capacity across requests,
+	 * as the trees are pooled.
+	 * @param memoryBudget the per-connection memory budget, or {@code 0} for unlimited
+	 * @return the leaf factory created
+	 */
+	static private Supplier<MergeSorter<String>> newLeafFactory (final long memoryBudget) {
+		final int leafCapacity = RETAINED_CAPACITY / CORES;
+		if (memoryBudget == 0) return () -> new RadixSorter(leafCapacity);
+
+		final long leafBudget = Math.max(MIN_LEAF_BUDGET, memoryBudget / CORES);
+		return () -> new SpillingSorter(leafBudget);
+	}
+
+
 	/**
 	 * Returns a new connection handler handling the given TCP connection.
 	 * @param connection the TCP connection
+	 * @param sorterPool the pool leasing the connection's sorter tree
+	 * @param resultCache the cache of string responses, or {@code null} for none
+	 * @param metrics the metrics accounting for the connection's network traffic
+	 * @param memoryQuota the memory quota charged for the connection's buffered requests
 	 * @return the connection handler created
-	 * @throws NullPointerException if the given argument is {@code null}
+	 * @throws NullPointerException if the given connection, pool, metrics or quota is {@code null}
 	 */
-	static private Runnable newConnectionHandler (final Socket connection) throws NullPointerException {
-		if (connection == null) throw new NullPointerException();
+	static private Runnable newConnectionHandler (final Socket connection, final SorterPool<String> sorterPool, final ResultCache resultCache, final SorterMetrics metrics, final MemoryQuota memoryQuota) throws NullPointerException {
+		if (connection == null | sorterPool == null | metrics == null | memoryQuota == null) throw new NullPointerException();
 		
 		return () -> {
 			// TODO: Create a new sorter instance using MultiThreadSorterSkeleton.newInstance(), and a
@@ -115,35 +402,50 @@ public final class SortServer implements Runnable, AutoCloseable {
 			// forcing the response data to be sent completely  before reentering the wait for another CSR request.
 			
 			
-			try (MergeSorter<String> sorter = MultiThreadSorter.newInstance();
-					BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"),
-											BUFFER_SIZE);
-					BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"), BUFFER_SIZE)) {
-				while(true) {
-					try {
-						for(String word = reader.readLine(); reader.ready();
-								word = reader.readLine()) {
-							sorter.write(word);
+			try (Socket socket = connection; CspCodec codec = CspCodec.accept(socket); MemoryQuota.Lease lease = memoryQuota.newLease()) {
+				metrics.attach(codec);
+				try {
+					if (codec instanceof LongCodec) {
+						try (LongMergeSorter sorter = LongKWayMergeSorter.newInstance()) {
+							serve((LongCodec) codec, sorter, lease);
+						}
+					} else if (codec instanceof TallyCodec) {
+						final List<TallySorter<String>> leaves = new ArrayList<>();
+						final Supplier<MergeSorter<Tally<String>>> leafFactory = () -> {
+							final TallySorter<String> leaf = new TallySorter<>();
+							leaves.add(leaf);
+							return leaf;
+						};
+						try (MergeSorter<Tally<String>> sorter = CombiningSorter.newInstance(leafFactory)) {
+							serveTallies((TallyCodec) codec, sorter, leaves, lease);
 						}
-						sorter.write(null);
-						sorter.sort();
-						for(String word = sorter.read(); word != null;
-								word = sorter.read()) {
-							
-							writer.write(word);
-							writer.newLine();
+					} else if (codec instanceof MultiplexedCodec) {
+						serveMultiplexed(socket, (MultiplexedCodec) codec, sorterPool, lease);
+					} else if (((StringCodec) codec).getLimit() > 0) {
+						// top-k sorters retain at most limit elements, and the request is charged accordingly
+						try (MergeSorter<String> sorter = TopKSorter.newInstance(((StringCodec) codec).getLimit())) {
+							serve((StringCodec) codec, sorter, lease);
+						}
+					} else if (resultCache != null) {
+						serve((StringCodec) codec, sorterPool, resultCache, lease);
+					} else {
+						// trees aborted within a request still contain elements, and are not reused
+						final MergeSorter<String> sorter = sorterPool.lease();
+						boolean reusable = false;
+						try {
+							serve((StringCodec) codec, sorter, lease);
+							reusable = true;
+						} finally {
+							if (reusable) sorterPool.release(sorter); else sorter.close();
 						}
-						System.out.println("*******************");
-						writer.newLine();
-						writer.flush();
-						
-						//System.out.println(a);
-					} catch (Exception e) {
-						break;
 					}
+				} finally {
+					metrics.detach(codec);
 				}
-			} catch (final SocketException exception) {
+			} catch (final SocketException | EOFException exception) {
 				return;	// the client side closed the connection
+			} catch (final SocketTimeoutException exception) {
+				return;	// the connection exceeded it's memory quota for too long
 			} catch (final IOException exception) {
 				throw new UncheckedIOException(exception);
 			}
@@ -152,19 +454,654 @@ public final class SortServer implements Runnable, AutoCloseable {
 
 
 	/**
-	 * Application entry point. The given runtime parameters must be a service port.
+	 * Serves all subsequent CSP request/response pairs of the given string codec using the
+	 * given sorter, until the connection is closed. Returns normally if the client side closes
+	 * the connection between requests, in which case the sorter is left empty in
+	 * {@link MergeSorter.State#WRITE} state. The elements of each request are charged to the
+	 * given lease while they are buffered, which pauses reading while the latter is exhausted;
+	 * if the codec limits the responses, the sorter is expected to retain no more elements than
+	 * said limit, and the request is charged accordingly.
+	 * @param codec the codec
+	 * @param sorter the sorter
+	 * @param lease the connection's memory quota lease
+	 * @throws EOFException if the client side closed the connection within a request
+	 * @throws SocketTimeoutException if the lease remains exhausted for too long
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void serve (final StringCodec codec, final MergeSorter<String> sorter, final MemoryQuota.Lease lease) throws EOFException, SocketTimeoutException, IOException {
+		final String[] chunk = new String[CHUNK_SIZE];
+		final int limit = codec.getLimit();
+		while (true) {
+			String word;
+			try {
+				word = codec.read();
+			} catch (final EOFException exception) {
+				return;
+			}
+
+			long requestBytes = 0, chargedBytes = 0;
+			int chunkLength = 0;
+			for (; word != null; word = codec.read()) {
+				chunk[chunkLength++] = word;
+				if (chunkLength == CHUNK_SIZE) {
+					final long chunkBytes = sizeOf(chunk, chunkLength);
+					chargedBytes += acquire(lease, limit, requestBytes, chargedBytes, chunk, chunkLength, chunkBytes);
+					requestBytes += chunkBytes;
+					sorter.write(chunk, 0, chunkLength);
+					chunkLength = 0;
+				}
+			}
+			chargedBytes += acquire(lease, limit, requestBytes, chargedBytes, chunk, chunkLength, sizeOf(chunk, chunkLength));
+			sorter.write(chunk, 0, chunkLength);
+			sorter.write(null);
+			sorter.sort();
+
+			do {
+				chunkLength = sorter.read(chunk);
+				for (int index = 0; index < chunkLength; ++index) {
+					codec.write(chunk[index]);
+				}
+			} while (chunkLength == CHUNK_SIZE);
+			codec.writeEnd();
+			lease.release(chargedBytes);
+		}
+	}
+
+
+	/**
+	 * Serves all subsequent CSP request/response pairs of the given string codec using a
+	 * sorter tree leased from the given pool, and the given result cache, until the connection
+	 * is closed. The elements of each request are written into the tree while it's digest is
+	 * computed; if the cache holds a response for said digest, it is sent without sorting, and
+	 * the tree is closed and replaced, as discarding it's elements is cheaper than sorting them.
+	 * Otherwise, the elements are sorted, and the response is recorded into the cache while it
+	 * is sent. The tree is released into the pool if the client side closes the connection
+	 * between requests, and closed otherwise. The elements of each request are charged to the
+	 * given lease while they are buffered, which pauses reading while the latter is exhausted.
+	 * @param codec the codec
+	 * @param sorterPool the pool leasing the sorter trees
+	 * @param resultCache the result cache
+	 * @param lease the connection's memory quota lease
+	 * @throws EOFException if the client side closed the connection within a request
+	 * @throws SocketTimeoutException if the lease remains exhausted for too long
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void serve (final StringCodec codec, final SorterPool<String> sorterPool, final ResultCache resultCache, final MemoryQuota.Lease lease) throws EOFException, SocketTimeoutException, IOException {
+		final String[] chunk = new String[CHUNK_SIZE];
+		final ResultCache.Digest digest = new ResultCache.Digest();
+		MergeSorter<String> sorter = sorterPool.lease();
+		boolean reusable = false;
+		try {
+			while (true) {
+				String word;
+				try {
+					word = codec.read();
+				} catch (final EOFException exception) {
+					reusable = true;
+					return;
+				}
+
+				long requestBytes = 0, chargedBytes = 0;
+				int chunkLength = 0;
+				for (; word != null; word = codec.read()) {
+					chunk[chunkLength++] = word;
+					if (chunkLength == CHUNK_SIZE) {
+						final long chunkBytes = sizeOf(chunk, chunkLength);
+						chargedBytes += lease.acquire(requestBytes, chunkBytes);
+						requestBytes += chunkBytes;
+						digest.update(chunk, 0, chunkLength);
+						sorter.write(chunk, 0, chunkLength);
+						chunkLength = 0;
+					}
+				}
+				chargedBytes += lease.acquire(requestBytes, sizeOf(chunk, chunkLength));
+				digest.update(chunk, 0, chunkLength);
+				sorter.write(chunk, 0, chunkLength);
+				final String key = digest.finish();
+
+				try (ResultCache.Reader reader = resultCache.lookup(key)) {
+					if (reader != null) {
+						final MergeSorter<String> abortedSorter = sorter;
+						sorter = sorterPool.lease();
+						abortedSorter.close();
+
+						do {
+							chunkLength = reader.read(chunk);
+							for (int index = 0; index < chunkLength; ++index) {
+								codec.write(chunk[index]);
+							}
+						} while (chunkLength == CHUNK_SIZE);
+						codec.writeEnd();
+						lease.release(chargedBytes);
+						continue;
+					}
+				}
+
+				sorter.write(null);
+				sorter.sort();
+
+				try (ResultCache.Recorder recorder = resultCache.record(key)) {
+					do {
+						chunkLength = sorter.read(chunk);
+						recorder.write(chunk, 0, chunkLength);
+						for (int index = 0; index < chunkLength; ++index) {
+							codec.write(chunk[index]);
+						}
+					} while (chunkLength == CHUNK_SIZE);
+					recorder.commit();
+				}
+				codec.writeEnd();
+				lease.release(chargedBytes);
+			}
+		} finally {
+			if (reusable) sorterPool.release(sorter); else sorter.close();
+		}
+	}
+
+
+	/**
+	 * Serves all subsequent CSP requests of the given multiplexed codec, until the connection
+	 * is closed. The elements of each stream are written into a separate sorter tree leased
+	 * from the given pool. Once a stream's request is complete, it's response is sorted and
+	 * sent by one of the connection's responder threads, one per processor core, while the
+	 * requests of other streams continue to be received. Each stream, and each of it's
+	 * elements, is charged to the given lease until it's response has been sent, which pauses
+	 * reading while the latter is exhausted. At most {@value #STREAM_LIMIT} streams may be in
+	 * flight concurrently. Before returning, this method waits for all responses to be sent;
+	 * if it fails, the connection is closed first, which aborts the pending responses.
+	 * @param connection the TCP connection
+	 * @param codec the codec
+	 * @param sorterPool the pool leasing the sorter trees
+	 * @param lease the connection's memory quota lease
+	 * @throws EOFException if the client side closed the connection within a frame
+	 * @throws ProtocolException if the client opens too many concurrent streams
+	 * @throws SocketTimeoutException if the lease remains exhausted for too long
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void serveMultiplexed (final Socket connection, final MultiplexedCodec codec, final SorterPool<String> sorterPool, final MemoryQuota.Lease lease) throws EOFException, ProtocolException, SocketTimeoutException, IOException {
+		final Map<Integer,StreamRequest> requests = new HashMap<>();
+		final Semaphore streamPermits = new Semaphore(STREAM_LIMIT);
+		final ExecutorService responders = Executors.newFixedThreadPool(CORES, runnable -> {
+			final Thread thread = new Thread(runnable, "csp-stream");
+			thread.setDaemon(true);
+			return thread;
+		});
+		boolean completed = false;
+		try {
+			while (true) {
+				final int streamIdentifier;
+				try {
+					streamIdentifier = codec.readStream();
+				} catch (final EOFException exception) {
+					completed = true;
+					return;
+				}
+
+				final String element = codec.read();
+				StreamRequest request = requests.get(streamIdentifier);
+				if (request == null) {
+					if (!streamPermits.tryAcquire()) throw new ProtocolException("too many streams");
+					final long streamBytes = lease.acquire(STREAM_OVERHEAD);
+					request = new StreamRequest(sorterPool.lease(), lease, streamBytes);
+					requests.put(streamIdentifier, request);
+				}
+
+				if (element != null) {
+					request.write(element);
+				} else {
+					requests.remove(streamIdentifier);
+					request.flush();
+					final MergeSorter<String> sorter = request.sorter;
+					final long chargedBytes = request.chargedBytes;
+					responders.execute(() -> {
+						try {
+							respond(codec, streamIdentifier, sorter, sorterPool, lease, chargedBytes);
+						} finally {
+							streamPermits.release();
+						}
+					});
+				}
+			}
+		} finally {
+			for (final StreamRequest request : requests.values()) {
+				lease.release(request.chargedBytes);
+				try { request.sorter.close(); } catch (final IOException exception) {}
+			}
+
+			// responders blocked writing cannot be interrupted, but fail once the socket is closed
+			if (!completed) connection.close();
+			responders.shutdown();
+			Uninterruptibles.awaitTermination(responders);
+		}
+	}
+
+
+	/**
+	 * Sorts the given sorter's elements, and sends them as the response of the given stream.
+	 * The sorter is released into the given pool afterwards, or closed if the response cannot
+	 * be sent completely because the connection has been closed. Either way, the memory charged
+	 * for the stream's request is released.
+	 * @param codec the multiplexed codec
+	 * @param streamIdentifier the stream identifier
+	 * @param sorter the sorter, in {@link MergeSorter.State#SORT} state
+	 * @param sorterPool the pool leasing the sorter
+	 * @param lease the connection's memory quota lease
+	 * @param chargedBytes the number of bytes charged for the stream's request
+	 */
+	static private void respond (final MultiplexedCodec codec, final int streamIdentifier, final MergeSorter<String> sorter, final SorterPool<String> sorterPool, final MemoryQuota.Lease lease, final long chargedBytes) {
+		boolean reusable = false;
+		try {
+			sorter.sort();
+
+			final String[] chunk = new String[CHUNK_SIZE];
+			int chunkLength;
+			do {
+				chunkLength = sorter.read(chunk);
+				synchronized (codec) {
+					for (int index = 0; index < chunkLength; ++index) {
+						codec.writeStream(streamIdentifier);
+						codec.write(chunk[index]);
+					}
+				}
+			} while (chunkLength == CHUNK_SIZE);
+
+			synchronized (codec) {
+				codec.writeStream(streamIdentifier);
+				codec.writeEnd();
+			}
+			reusable = true;
+		} catch (final IOException exception) {
+			// the client side closed the connection
+		} finally {
+			lease.release(chargedBytes);
+			try {
+				if (reusable) sorterPool.release(sorter); else sorter.close();
+			} catch (final IOException exception) {}
+		}
+	}
+
+
+	/**
+	 * Serves all subsequent CSP request/response pairs of the given counted codec using the
+	 * given sorter, until the connection is closed. As the sorter's leaves combine equal
+	 * elements, only their distinct tallies are charged to the given lease, which happens
+	 * once per chunk of tallies received, and pauses reading while the lease is exhausted.
+	 * @param codec the codec
+	 * @param sorter the sorter
+	 * @param leaves the sorter's leaves
+	 * @param lease the connection's memory quota lease
+	 * @throws EOFException if the client side closed the connection
+	 * @throws SocketTimeoutException if the lease remains exhausted for too long
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void serveTallies (final TallyCodec codec, final MergeSorter<Tally<String>> sorter, final List<TallySorter<String>> leaves, final MemoryQuota.Lease lease) throws EOFException, SocketTimeoutException, IOException {
+		while (true) {
+			long chargedBytes = 0, elementBytes = 0;
+			int tallyCount = 0, distinctCount = 0;
+			for (Tally<String> tally = codec.read(); tally != null; tally = codec.read()) {
+				sorter.write(tally);
+				elementBytes += 2L * tally.getElement().length();
+				if (++tallyCount % CHUNK_SIZE == 0) {
+					final int count = distinctCount(leaves);
+					chargedBytes += lease.acquire((count - distinctCount) * (ELEMENT_OVERHEAD + TALLY_OVERHEAD + elementBytes / tallyCount));
+					distinctCount = count;
+				}
+			}
+			sorter.write(null);
+			if (tallyCount > 0) chargedBytes += lease.acquire((distinctCount(leaves) - distinctCount) * (ELEMENT_OVERHEAD + TALLY_OVERHEAD + elementBytes / tallyCount));
+			sorter.sort();
+
+			for (Tally<String> tally = sorter.read(); tally != null; tally = sorter.read()) {
+				codec.write(tally);
+			}
+			codec.writeEnd();
+			lease.release(chargedBytes);
+		}
+	}
+
+
+	/**
+	 * Returns the number of distinct elements stored within the given tally sorters.
+	 * @param leaves the tally sorters
+	 * @return the distinct element count
+	 */
+	static private int distinctCount (final List<TallySorter<String>> leaves) {
+		int distinctCount = 0;
+		for (final TallySorter<String> leaf : leaves) {
+			distinctCount += leaf.getDistinctCount();
+		}
+		return distinctCount;
+	}
+
+
+	/**
+	 * Serves all subsequent CSP request/response pairs of the given integer codec using the
+	 * given sorter, until the connection is closed. The elements of each request are charged
+	 * to the given lease while they are buffered, which pauses reading while the latter is
+	 * exhausted.
+	 * @param codec the codec
+	 * @param sorter the sorter
+	 * @param lease the connection's memory quota lease
+	 * @throws EOFException if the client side closed the connection
+	 * @throws SocketTimeoutException if the lease remains exhausted for too long
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static private void serve (final LongCodec codec, final LongMergeSorter sorter, final MemoryQuota.Lease lease) throws EOFException, SocketTimeoutException, IOException {
+		final long[] chunk = new long[CHUNK_SIZE];
+		while (true) {
+			long chargedBytes = 0;
+			int chunkLength;
+			do {
+				chunkLength = codec.read(chunk);
+				chargedBytes += lease.acquire(Long.BYTES * chunkLength);
+				sorter.write(chunk, 0, chunkLength);
+			} while (chunkLength == CHUNK_SIZE);
+			sorter.writeEnd();
+			sorter.sort();
+
+			do {
+				chunkLength = sorter.read(chunk);
+				codec.write(chunk, 0, chunkLength);
+			} while (chunkLength == CHUNK_SIZE);
+			codec.writeEnd();
+			lease.release(chargedBytes);
+		}
+	}
+
+
+	/**
+	 * Charges the given chunk of a string request to the given lease. Unlimited requests are
+	 * charged as spillable requests. Limited requests are charged for no more than the given
+	 * limit's number of elements the size of the largest element within the chunk, unless less
+	 * has been received; as the charge never shrinks within a request, it covers the largest
+	 * element seen so far.
+	 * @param lease the connection's memory quota lease
+	 * @param limit the maximum number of elements within responses, or {@code 0} for none
+	 * @param requestBytes the number of bytes the request has already buffered
+	 * @param chargedBytes the number of bytes already charged for the request
+	 * @param chunk the element chunk
+	 * @param chunkLength the number of elements at the beginning of the chunk
+	 * @param chunkBytes the number of bytes the chunk's elements occupy
+	 * @return the number of bytes charged
+	 * @throws SocketTimeoutException if the bytes cannot be charged in time
+	 */
+	static private long acquire (final MemoryQuota.Lease lease, final int limit, final long requestBytes, final long chargedBytes, final String[] chunk, final int chunkLength, final long chunkBytes) throws SocketTimeoutException {
+		if (limit == 0) return lease.acquire(requestBytes, chunkBytes);
+
+		int maxLength = 0;
+		for (int index = 0; index < chunkLength; ++index) {
+			maxLength = Math.max(maxLength, chunk[index].length());
+		}
+		final long retainedBytes = Math.min(requestBytes + chunkBytes, limit * (ELEMENT_OVERHEAD + 2L * maxLength));
+		return lease.acquire(Math.max(0, retainedBytes - chargedBytes));
+	}
+
+
+	/**
+	 * Returns the approximate number of heap bytes the given elements occupy.
+	 * @param chunk the element chunk
+	 * @param chunkLength the number of elements at the beginning of the chunk
+	 * @return the number of bytes
+	 */
+	static private long sizeOf (final String[] chunk, final int chunkLength) {
+		long size = (long) ELEMENT_OVERHEAD * chunkLength;
+		for (int index = 0; index < chunkLength; ++index) {
+			size += 2L * chunk[index].length();
+		}
+		return size;
+	}
+
+
+
+	/**
+	 * Instances of this class collect the elements of a multiplexed stream's request in chunks,
+	 * which are written into the stream's sorter. Every element is charged to the connection's
+	 * memory quota lease as soon as it's received, in addition to the fixed cost of the stream
+	 * itself; otherwise, a client could buffer almost a chunk per stream free of charge.
+	 */
+	static private final class StreamRequest {
+		private final MergeSorter<String> sorter;
+		private final MemoryQuota.Lease lease;
+		private final String[] chunk;
+		private int chunkLength;
+		private long requestBytes;
+		private long chargedBytes;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param sorter the stream's sorter
+		 * @param lease the connection's memory quota lease
+		 * @param chargedBytes the number of bytes already charged for the stream
+		 */
+		public StreamRequest (final MergeSorter<String> sorter, final MemoryQuota.Lease lease, final long chargedBytes) {
+			this.sorter = sorter;
+			this.lease = lease;
+			this.chunk = new String[CHUNK_SIZE];
+			this.chargedBytes = chargedBytes;
+		}
+
+
+		/**
+		 * Charges the given element to the lease, and collects it, writing the current chunk
+		 * into the sorter once it's full.
+		 * @param element the element
+		 * @throws SocketTimeoutException if the lease remains exhausted for too long
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void write (final String element) throws SocketTimeoutException, IOException {
+			final long elementBytes = ELEMENT_OVERHEAD + 2L * element.length();
+			this.chargedBytes += this.lease.acquire(this.requestBytes, elementBytes);
+			this.requestBytes += elementBytes;
+
+			this.chunk[this.chunkLength++] = element;
+			if (this.chunkLength == CHUNK_SIZE) this.flushChunk();
+		}
+
+
+		/**
+		 * Writes the remaining elements into the sorter, followed by the end of the request.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public void flush () throws IOException {
+			this.flushChunk();
+			this.sorter.write(null);
+		}
+
+
+		/**
+		 * Writes the current chunk into the sorter.
+		 * @throws IOException if there is an I/O related problem
+		 */
+		private void flushChunk () throws IOException {
+			this.sorter.write(this.chunk, 0, this.chunkLength);
+			this.chunkLength = 0;
+		}
+	}
+
+
+
+	/**
+	 * Instances of this class account for the heap memory occupied by buffered requests. Each
+	 * connection holds a lease, which is guaranteed the connection quota; beyond that, leases
+	 * borrow from the capacity left vacant by the quotas of unused connection slots. A lease
+	 * that cannot borrow enough waits for others to release memory, and gives up after a while.
+	 * Requests that spill into temporary files are charged no more than the memory budget.
+	 * Note that this class is thread-safe.
+	 */
+	static private final class MemoryQuota {
+		private final long connectionQuota;
+		private final long capacity;
+		private final long spillBudget;
+		private long usage;
+		private long reservation;
+
+
+		/**
+		 * Creates a new instance.
+		 * @param connectionQuota the number of bytes guaranteed to each connection, or {@code 0}
+		 *        for unlimited
+		 * @param connectionLimit the maximum number of concurrent connections
+		 * @param spillBudget the per-connection memory budget beyond which requests are spilled,
+		 *        or {@code 0} for none
+		 */
+		public MemoryQuota (final long connectionQuota, final int connectionLimit, final long spillBudget) {
+			this.connectionQuota = connectionQuota;
+			this.capacity = connectionQuota * connectionLimit;
+			this.spillBudget = spillBudget;
+		}
+
+
+		/**
+		 * Returns the number of bytes currently charged to all leases.
+		 * @return the memory usage
+		 */
+		public synchronized long getUsage () {
+			return this.usage;
+		}
+
+
+		/**
+		 * Returns a new lease, reserving the connection quota for it.
+		 * @return the lease created
+		 */
+		public synchronized Lease newLease () {
+			this.reservation += this.connectionQuota;
+			return new Lease();
+		}
+
+
+
+		/**
+		 * Instances of this inner class represent the memory charged to a connection.
+		 */
+		public final class Lease implements AutoCloseable {
+			private long usage;
+			private boolean closed;
+
+
+			/**
+			 * Charges the given number of bytes of a spillable request, which has already
+			 * buffered the given number of bytes; only the part within the memory budget is
+			 * charged if the request spills into temporary files.
+			 * @param requestBytes the number of bytes the request has already buffered
+			 * @param bytes the number of bytes to be buffered
+			 * @return the number of bytes charged
+			 * @throws SocketTimeoutException if the bytes cannot be charged in time
+			 */
+			public long acquire (final long requestBytes, final long bytes) throws SocketTimeoutException {
+				if (MemoryQuota.this.spillBudget == 0) return this.acquire(bytes);
+				return this.acquire(Math.min(bytes, Math.max(0, MemoryQuota.this.spillBudget - requestBytes)));
+			}
+
+
+			/**
+			 * Charges the given number of bytes, waiting for other leases to release memory
+			 * if this lease would exceed it's quota while the capacity is exhausted.
+			 * @param bytes the number of bytes to be buffered
+			 * @return the number of bytes charged
+			 * @throws SocketTimeoutException if the bytes cannot be charged in time
+			 */
+			public long acquire (final long bytes) throws SocketTimeoutException {
+				if (bytes == 0) return 0;
+
+				synchronized (MemoryQuota.this) {
+					if (MemoryQuota.this.capacity > 0) {
+						final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(ADMISSION_TIMEOUT);
+						for (long excess = this.excess(bytes); MemoryQuota.this.reservation + excess > MemoryQuota.this.capacity; excess = this.excess(bytes)) {
+							try {
+								final long timeout = deadline - System.nanoTime();
+								if (timeout <= 0) throw new TimeoutException();
+								Uninterruptibles.wait(MemoryQuota.this, timeout, TimeUnit.NANOSECONDS);
+							} catch (final TimeoutException exception) {
+								throw new SocketTimeoutException("memory quota exceeded");
+							}
+						}
+						MemoryQuota.this.reservation += this.excess(bytes);
+					}
+
+					this.usage += bytes;
+					MemoryQuota.this.usage += bytes;
+				}
+				return bytes;
+			}
+
+
+			/**
+			 * Releases the given number of bytes, which must have been charged to this lease
+			 * before. Releasing after the lease has been closed has no effect.
+			 * @param bytes the number of bytes no longer buffered
+			 */
+			public void release (final long bytes) {
+				synchronized (MemoryQuota.this) {
+					if (this.closed | bytes == 0) return;
+
+					final long released = Math.min(bytes, this.usage);
+					MemoryQuota.this.reservation -= Math.max(this.usage, MemoryQuota.this.connectionQuota) - Math.max(this.usage - released, MemoryQuota.this.connectionQuota);
+					this.usage -= released;
+					MemoryQuota.this.usage -= released;
+					MemoryQuota.this.notifyAll();
+				}
+			}
+
+
+			/**
+			 * Releases all bytes charged to this lease, and it's reserved quota.
+			 */
+			public void close () {
+				synchronized (MemoryQuota.this) {
+					if (this.closed) return;
+
+					this.release(this.usage);
+					MemoryQuota.this.reservation -= Math.max(this.usage, MemoryQuota.this.connectionQuota);
+					this.closed = true;
+					MemoryQuota.this.notifyAll();
+				}
+			}
+
+
+			/**
+			 * Returns the number of bytes by which charging the given number of bytes would
+			 * increase this lease's reservation beyond it's quota.
+			 * @param bytes the number of bytes to be charged
+			 * @return the excess reservation
+			 */
+			private long excess (final long bytes) {
+				return Math.max(this.usage + bytes, MemoryQuota.this.connectionQuota) - Math.max(this.usage, MemoryQuota.this.connectionQuota);
+			}
+		}
+	}
+
+
+	/**
+	 * Application entry point. The given runtime parameters must be a service port, and
+	 * optionally a per-connection memory budget in bytes beyond which requests are spilled
+	 * into temporary files, followed by the memory and disk capacities in bytes of the
+	 * response cache, the maximum number of concurrent connections, and the memory quota
+	 * in bytes guaranteed to each connection's buffered requests.
 	 * @param args the given runtime arguments
-	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF]
+	 * @throws IllegalArgumentException if the given service port is outside range [0, 0xFFFF],
+	 *         if the given memory budget, any of the given cache capacities, the connection
+	 *         limit or quota is negative, or if there is a connection quota without a limit
 	 * @throws IOException if the given port is already in use, or if there is a problem waiting for
 	 *         the quit signal
 	 */
 	static public void main (final String[] args) throws IOException {
 		final long timestamp = System.currentTimeMillis();
 		final int servicePort = Integer.parseInt(args[0]);
+		final long memoryBudget = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		final long cacheMemoryCapacity = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		final long cacheDiskCapacity = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		final int connectionLimit = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+		final long connectionQuota = args.length > 5 ? Long.parseLong(args[5]) : 0;
 
-		try (SortServer server = new SortServer(servicePort)) {
+		try (SortServer server = new SortServer(servicePort, memoryBudget, cacheMemoryCapacity, cacheDiskCapacity, connectionLimit, connectionQuota)) {
 			System.out.println("Sort server running on one acceptor thread, enter \"quit\" to stop.");
 			System.out.format("Service port is %d.\n", server.getServicePort());
+			if (memoryBudget > 0) System.out.format("Memory budget is %d bytes per connection.\n", memoryBudget);
+			if (connectionLimit > 0) System.out.format("Connection limit is %d, memory quota is %d bytes per connection.\n", connectionLimit, connectionQuota);
+			if (server.getResultCache() != null) System.out.format("Result cache capacity is %d bytes in memory and %d bytes on disk.\n", cacheMemoryCapacity, cacheDiskCapacity);
+			System.out.format("Metrics are published as MBeans, and logged every %ds.\n", LOG_PERIOD);
 			System.out.format("Startup time is %dms.\n", System.currentTimeMillis() - timestamp);
 
 			final BufferedReader charSource = new BufferedReader(new InputStreamReader(System.in));
@@ -0,0 +1,170 @@
+package de.htw.ds.sort;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Thread-safe counters aggregating the phases of one or more sorter nodes, usually recorded
+ * by {@linkplain InstrumentedSorter instrumented sorters} sharing an instance. Additionally, the
+ * network traffic of attached {@linkplain CspCodec codecs} is accounted for; the bytes of an
+ * attached codec are polled whenever the traffic is queried, and accumulated once it's detached.
+ * Instances are standard MBeans, and can therefore be registered with an MBean server.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class SorterMetrics implements SorterMetricsMBean {
+	private final AtomicLong requestCount;
+	private final AtomicLong elementsWritten;
+	private final AtomicLong elementsRead;
+	private final AtomicLong sortNanos;
+	private final AtomicLong readNanos;
+	private final AtomicLong bytesReceived;
+	private final AtomicLong bytesSent;
+	private final Set<CspCodec> codecs;
+
+
+	/**
+	 * Creates a new instance with all counters being zero.
+	 */
+	public SorterMetrics () {
+		this.requestCount = new AtomicLong();
+		this.elementsWritten = new AtomicLong();
+		this.elementsRead = new AtomicLong();
+		this.sortNanos = new AtomicLong();
+		this.readNanos = new AtomicLong();
+		this.bytesReceived = new AtomicLong();
+		this.bytesSent = new AtomicLong();
+		this.codecs = ConcurrentHashMap.newKeySet();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getRequestCount () {
+		return this.requestCount.get();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getElementsWritten () {
+		return this.elementsWritten.get();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getElementsRead () {
+		return this.elementsRead.get();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getSortTime () {
+		return TimeUnit.NANOSECONDS.toMillis(this.sortNanos.get());
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getReadTime () {
+		return TimeUnit.NANOSECONDS.toMillis(this.readNanos.get());
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getBytesReceived () {
+		long bytesReceived = this.bytesReceived.get();
+		for (final CspCodec codec : this.codecs) {
+			bytesReceived += codec.getBytesRead();
+		}
+		return bytesReceived;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getBytesSent () {
+		long bytesSent = this.bytesSent.get();
+		for (final CspCodec codec : this.codecs) {
+			bytesSent += codec.getBytesWritten();
+		}
+		return bytesSent;
+	}
+
+
+	/**
+	 * Records a write and sort phase.
+	 * @param elementCount the number of elements written
+	 * @param nanos the duration of the sort phase in nanoseconds
+	 */
+	public void recordSort (final long elementCount, final long nanos) {
+		this.requestCount.incrementAndGet();
+		this.elementsWritten.addAndGet(elementCount);
+		this.sortNanos.addAndGet(nanos);
+	}
+
+
+	/**
+	 * Records (part of) a read phase.
+	 * @param elementCount the number of elements read
+	 * @param nanos the time spent blocked in read operations in nanoseconds
+	 */
+	public void recordRead (final long elementCount, final long nanos) {
+		this.elementsRead.addAndGet(elementCount);
+		this.readNanos.addAndGet(nanos);
+	}
+
+
+	/**
+	 * Records network traffic.
+	 * @param bytesReceived the number of bytes received
+	 * @param bytesSent the number of bytes sent
+	 */
+	public void recordTraffic (final long bytesReceived, final long bytesSent) {
+		this.bytesReceived.addAndGet(bytesReceived);
+		this.bytesSent.addAndGet(bytesSent);
+	}
+
+
+	/**
+	 * Attaches the given codec, whose traffic is accounted for until it is detached.
+	 * @param codec the codec
+	 * @throws NullPointerException if the given codec is {@code null}
+	 */
+	public void attach (final CspCodec codec) throws NullPointerException {
+		this.codecs.add(codec);
+	}
+
+
+	/**
+	 * Detaches the given codec, accumulating it's traffic.
+	 * @param codec the codec
+	 * @throws NullPointerException if the given codec is {@code null}
+	 */
+	public void detach (final CspCodec codec) throws NullPointerException {
+		if (this.codecs.remove(codec)) this.recordTraffic(codec.getBytesRead(), codec.getBytesWritten());
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString () {
+		return String.format("%d requests, %d elements written, %d elements read, sort %dms, read %dms, %d bytes received, %d bytes sent",
+			this.getRequestCount(), this.getElementsWritten(), this.getElementsRead(), this.getSortTime(), this.getReadTime(), this.getBytesReceived(), this.getBytesSent());
+	}
+}
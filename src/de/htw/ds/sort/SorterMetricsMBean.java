@@ -0,0 +1,60 @@
+package de.htw.ds.sort;
+
+import de.htw.tool.Copyright;
+
+
+/**
+ * Management interface of {@link SorterMetrics}, exposing it's counters as read-only JMX
+ * attributes. All counters grow monotonically, which allows monitoring tools to derive rates.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public interface SorterMetricsMBean {
+
+	/**
+	 * Returns the number of requests sorted.
+	 * @return the number of {@link MergeSorter#sort()} calls
+	 */
+	long getRequestCount ();
+
+
+	/**
+	 * Returns the number of elements written.
+	 * @return the number of elements written
+	 */
+	long getElementsWritten ();
+
+
+	/**
+	 * Returns the number of elements read.
+	 * @return the number of elements read
+	 */
+	long getElementsRead ();
+
+
+	/**
+	 * Returns the time spent sorting.
+	 * @return the accumulated duration of {@link MergeSorter#sort()} calls in milliseconds
+	 */
+	long getSortTime ();
+
+
+	/**
+	 * Returns the time spent blocked while reading.
+	 * @return the accumulated duration of {@link MergeSorter#read()} calls in milliseconds
+	 */
+	long getReadTime ();
+
+
+	/**
+	 * Returns the number of bytes received from the network.
+	 * @return the number of bytes received
+	 */
+	long getBytesReceived ();
+
+
+	/**
+	 * Returns the number of bytes sent to the network.
+	 * @return the number of bytes sent
+	 */
+	long getBytesSent ();
+}
@@ -0,0 +1,146 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.function.Supplier;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Pool of reusable sorter trees. Trees are leased for the duration of a connection, and released
+ * afterwards; released trees in {@link MergeSorter.State#WRITE} state are kept idle up to a given
+ * number, together with whatever element storage their leaves retain across requests, and handed
+ * out again by subsequent leases instead of creating new trees. Idle trees are only softly
+ * referenced, which allows the garbage collector to reclaim them under memory pressure; they may
+ * also be discarded explicitly by {@linkplain #trim() trimming} the pool. Note that this class is
+ * thread-safe.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class SorterPool<E extends Comparable<E>> implements AutoCloseable {
+	private final Supplier<MergeSorter<E>> treeFactory;
+	private final int maxIdleCount;
+	private final Deque<SoftReference<MergeSorter<E>>> idleTrees;
+	private boolean closed;
+
+
+	/**
+	 * Creates a new instance.
+	 * @param treeFactory the factory creating new sorter trees
+	 * @param maxIdleCount the maximum number of idle trees kept for reuse
+	 * @throws NullPointerException if the given factory is {@code null}
+	 * @throws IllegalArgumentException if the given count is negative
+	 */
+	public SorterPool (final Supplier<MergeSorter<E>> treeFactory, final int maxIdleCount) throws NullPointerException, IllegalArgumentException {
+		if (maxIdleCount < 0) throw new IllegalArgumentException();
+
+		this.treeFactory = Objects.requireNonNull(treeFactory);
+		this.maxIdleCount = maxIdleCount;
+		this.idleTrees = new ArrayDeque<>(maxIdleCount);
+	}
+
+
+	/**
+	 * Returns the maximum number of idle trees kept for reuse.
+	 * @return the maximum idle count
+	 */
+	public int getMaxIdleCount () {
+		return this.maxIdleCount;
+	}
+
+
+	/**
+	 * Returns the number of idle trees currently kept, including those already reclaimed
+	 * by the garbage collector but not yet discarded.
+	 * @return the idle count
+	 */
+	public synchronized int getIdleCount () {
+		return this.idleTrees.size();
+	}
+
+
+	/**
+	 * Closes this pool, and all it's idle trees. Trees released afterwards are closed as well.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public void close () throws IOException {
+		synchronized (this) {
+			this.closed = true;
+		}
+		this.trim();
+	}
+
+
+	/**
+	 * Returns an idle sorter tree if available, or a new one otherwise. The tree is guaranteed
+	 * to be in {@link MergeSorter.State#WRITE} state.
+	 * @return the sorter tree leased
+	 * @throws IllegalStateException if this pool is closed
+	 */
+	public MergeSorter<E> lease () throws IllegalStateException {
+		synchronized (this) {
+			if (this.closed) throw new IllegalStateException();
+
+			for (SoftReference<MergeSorter<E>> reference = this.idleTrees.pollFirst(); reference != null; reference = this.idleTrees.pollFirst()) {
+				final MergeSorter<E> tree = reference.get();
+				if (tree != null) return tree;
+			}
+		}
+
+		return Objects.requireNonNull(this.treeFactory.get());
+	}
+
+
+	/**
+	 * Releases the given sorter tree. The tree is kept for reuse if it is in
+	 * {@link MergeSorter.State#WRITE} state, this pool is open, and the maximum number of idle
+	 * trees is not yet reached; otherwise it is closed.
+	 * @param tree the sorter tree
+	 * @throws NullPointerException if the given tree is {@code null}
+	 * @throws IOException if there is an I/O related problem closing the given tree
+	 */
+	public void release (final MergeSorter<E> tree) throws NullPointerException, IOException {
+		if (tree.getState() == MergeSorter.State.WRITE) {
+			synchronized (this) {
+				if (!this.closed && this.idleTrees.size() < this.maxIdleCount) {
+					this.idleTrees.addFirst(new SoftReference<>(tree));
+					return;
+				}
+			}
+		}
+
+		tree.close();
+	}
+
+
+	/**
+	 * Discards and closes all idle trees, releasing the element storage they retain.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	public void trim () throws IOException {
+		final SoftReference<?>[] references;
+		synchronized (this) {
+			references = this.idleTrees.toArray(new SoftReference<?>[this.idleTrees.size()]);
+			this.idleTrees.clear();
+		}
+
+		Throwable failure = null;
+		for (final SoftReference<?> reference : references) {
+			final MergeSorter<?> tree = (MergeSorter<?>) reference.get();
+			if (tree == null) continue;
+
+			try {
+				tree.close();
+			} catch (final IOException | RuntimeException | Error exception) {
+				if (failure == null) failure = exception;
+			}
+		}
+
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof IOException) throw (IOException) failure;
+	}
+}
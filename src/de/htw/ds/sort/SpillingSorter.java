@@ -0,0 +1,331 @@
+package de.htw.ds.sort;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import de.htw.tool.Copyright;
+
+
+/**
+ * String sorter implementation that collects elements into a list until a given memory budget
+ * is exhausted. Whenever this happens, the buffered elements are sorted and spilled as a sorted
+ * run into a temporary file, and the buffer is cleared. During read requests, the sorted runs
+ * and the remaining buffered elements are lazily merged; if there are more than
+ * {@value #MERGE_FAN_IN} runs, they are first merged in groups of that many into longer runs,
+ * which bounds the number of open run files. Note that this implementation therefore
+ * sorts tremendous amounts of elements using constant heap space, at the expense of disk I/O
+ * once the memory budget is exceeded. Also note that each spilled run is stored using the
+ * following format, defined in EBNF:
+ * <pre>
+ * run		:= { length, utf8-bytes }
+ * length	:= 4 byte signed integer &gt; 0
+ * </pre>
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class SpillingSorter implements MergeSorter<String> {
+	static private final int BUFFER_SIZE = 0x10000;
+	static private final int ELEMENT_OVERHEAD = 48;
+	static private final int MERGE_FAN_IN = 64;
+
+	private final long memoryBudget;
+	private final List<String> elements;
+	private final List<Path> runPaths;
+	private final PriorityQueue<RunCursor> readQueue;
+	private long memoryUsage;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link MergeSorter.State#WRITE} state.
+	 * @param memoryBudget the approximate number of heap bytes the buffered elements may occupy
+	 *        before they are spilled into a temporary file
+	 * @throws IllegalArgumentException if the given memory budget is not strictly positive
+	 */
+	public SpillingSorter (final long memoryBudget) throws IllegalArgumentException {
+		if (memoryBudget <= 0) throw new IllegalArgumentException();
+
+		this.memoryBudget = memoryBudget;
+		this.elements = new ArrayList<>();
+		this.runPaths = new ArrayList<>();
+		this.readQueue = new PriorityQueue<>();
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the memory budget.
+	 * @return the approximate number of heap bytes the buffered elements may occupy
+	 */
+	public long getMemoryBudget () {
+		return this.memoryBudget;
+	}
+
+
+	/**
+	 * Returns the number of sorted runs currently stored in temporary files, which are spilled
+	 * since the last time this sorter was in {@link MergeSorter.State#WRITE} state with empty
+	 * storage, and merged into fewer runs while sorting.
+	 * @return the number of spilled runs
+	 */
+	public int getRunCount () {
+		return this.runPaths.size();
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			this.clear();
+		} finally {
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final String element) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.state = State.SORT;
+		} else {
+			this.elements.add(element);
+			this.memoryUsage += ELEMENT_OVERHEAD + 2L * element.length();
+			if (this.memoryUsage > this.memoryBudget) this.spill();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException, IOException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.elements.sort(Comparator.naturalOrder());
+		while (this.runPaths.size() > MERGE_FAN_IN) this.mergeRuns();
+		for (final Path runPath : this.runPaths) {
+			final RunCursor cursor = new RunCursor(runPath);
+			if (cursor.next()) {
+				this.readQueue.add(cursor);
+			} else {
+				cursor.close();
+			}
+		}
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final String bufferHead = this.readIndex < this.elements.size() ? this.elements.get(this.readIndex) : null;
+		final RunCursor cursor = this.readQueue.peek();
+
+		if (cursor != null && (bufferHead == null || cursor.head.compareTo(bufferHead) < 0)) {
+			this.readQueue.remove();
+			final String result = cursor.head;
+			if (cursor.next()) {
+				this.readQueue.add(cursor);
+			} else {
+				cursor.close();
+			}
+			return result;
+		}
+
+		if (bufferHead != null) {
+			this.readIndex += 1;
+			return bufferHead;
+		}
+
+		this.clear();
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Sorts the buffered elements, writes them as a sorted run into a new temporary file, and
+	 * clears the buffer afterwards.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void spill () throws IOException {
+		this.elements.sort(Comparator.naturalOrder());
+
+		final Path runPath = Files.createTempFile("sort-run-", ".tmp");
+		this.runPaths.add(runPath);
+		try (DataOutputStream byteSink = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runPath), BUFFER_SIZE))) {
+			for (final String element : this.elements) {
+				final byte[] bytes = element.getBytes(UTF_8);
+				byteSink.writeInt(bytes.length);
+				byteSink.write(bytes);
+			}
+		}
+
+		this.elements.clear();
+		this.memoryUsage = 0;
+	}
+
+
+	/**
+	 * Merges the {@value #MERGE_FAN_IN} oldest runs into a new run, which is appended to the
+	 * runs, and deletes the merged run files afterwards.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void mergeRuns () throws IOException {
+		final List<Path> mergePaths = new ArrayList<>(this.runPaths.subList(0, MERGE_FAN_IN));
+		final Path runPath = Files.createTempFile("sort-run-", ".tmp");
+		this.runPaths.add(runPath);
+
+		final List<RunCursor> cursors = new ArrayList<>(MERGE_FAN_IN);
+		try {
+			final PriorityQueue<RunCursor> mergeQueue = new PriorityQueue<>();
+			for (final Path mergePath : mergePaths) {
+				final RunCursor cursor = new RunCursor(mergePath);
+				cursors.add(cursor);
+				if (cursor.next()) mergeQueue.add(cursor);
+			}
+
+			try (DataOutputStream byteSink = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runPath), BUFFER_SIZE))) {
+				for (RunCursor cursor = mergeQueue.poll(); cursor != null; cursor = mergeQueue.poll()) {
+					final byte[] bytes = cursor.head.getBytes(UTF_8);
+					byteSink.writeInt(bytes.length);
+					byteSink.write(bytes);
+					if (cursor.next()) mergeQueue.add(cursor);
+				}
+			}
+		} finally {
+			for (final RunCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+
+		for (final Path mergePath : mergePaths) {
+			Files.deleteIfExists(mergePath);
+		}
+		this.runPaths.subList(0, MERGE_FAN_IN).clear();
+	}
+
+
+	/**
+	 * Clears the buffer, closes all run cursors, and deletes all temporary run files.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void clear () throws IOException {
+		this.elements.clear();
+		this.memoryUsage = 0;
+		this.readIndex = 0;
+
+		try {
+			for (final RunCursor cursor : this.readQueue) {
+				cursor.close();
+			}
+		} finally {
+			this.readQueue.clear();
+			try {
+				for (final Path runPath : this.runPaths) {
+					Files.deleteIfExists(runPath);
+				}
+			} finally {
+				this.runPaths.clear();
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a new spilling sorter instance.
+	 * @param memoryBudget the approximate number of heap bytes the buffered elements may occupy
+	 *        before they are spilled into a temporary file
+	 * @return the sorter created
+	 * @throws IllegalArgumentException if the given memory budget is not strictly positive
+	 */
+	static public MergeSorter<String> newInstance (final long memoryBudget) throws IllegalArgumentException {
+		return new SpillingSorter(memoryBudget);
+	}
+
+
+
+	/**
+	 * Instances of this class iterate over the elements of a sorted run file, and order themselves
+	 * by their current head element.
+	 */
+	static private final class RunCursor implements Comparable<RunCursor>, AutoCloseable {
+		private final DataInputStream byteSource;
+		private String head;
+
+
+		/**
+		 * Creates a new instance positioned before the first element of the given run file.
+		 * @param runPath the run file path
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public RunCursor (final Path runPath) throws IOException {
+			this.byteSource = new DataInputStream(new BufferedInputStream(Files.newInputStream(runPath), BUFFER_SIZE));
+		}
+
+
+		/**
+		 * Advances this cursor to the next element of the underlying run.
+		 * @return {@code true} if there is a next element, {@code false} otherwise
+		 * @throws IOException if there is an I/O related problem
+		 */
+		public boolean next () throws IOException {
+			final int length;
+			try {
+				length = this.byteSource.readInt();
+			} catch (final EOFException exception) {
+				this.head = null;
+				return false;
+			}
+
+			final byte[] bytes = new byte[length];
+			this.byteSource.readFully(bytes);
+			this.head = new String(bytes, UTF_8);
+			return true;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public int compareTo (final RunCursor other) {
+			return this.head.compareTo(other.head);
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public void close () throws IOException {
+			this.byteSource.close();
+		}
+	}
+}
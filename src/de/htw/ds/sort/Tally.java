@@ -0,0 +1,99 @@
+package de.htw.ds.sort;
+
+import java.util.Objects;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Instances of this class pair an element with the number of it's occurrences, which allows
+ * sorters to collapse equal elements instead of storing and transmitting each of them. Tallies
+ * are ordered by their elements only, regardless of their counts.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public final class Tally<E extends Comparable<E>> implements Comparable<Tally<E>> {
+	private final E element;
+	private final long count;
+
+
+	/**
+	 * Creates a new instance for a single occurrence of the given element.
+	 * @param element the element
+	 * @throws NullPointerException if the given element is {@code null}
+	 */
+	public Tally (final E element) throws NullPointerException {
+		this(element, 1);
+	}
+
+
+	/**
+	 * Creates a new instance.
+	 * @param element the element
+	 * @param count the number of occurrences
+	 * @throws NullPointerException if the given element is {@code null}
+	 * @throws IllegalArgumentException if the given count is not strictly positive
+	 */
+	public Tally (final E element, final long count) throws NullPointerException, IllegalArgumentException {
+		if (element == null) throw new NullPointerException();
+		if (count <= 0) throw new IllegalArgumentException();
+
+		this.element = element;
+		this.count = count;
+	}
+
+
+	/**
+	 * Returns the element.
+	 * @return the element
+	 */
+	public E getElement () {
+		return this.element;
+	}
+
+
+	/**
+	 * Returns the number of occurrences.
+	 * @return the count
+	 */
+	public long getCount () {
+		return this.count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int compareTo (final Tally<E> tally) {
+		return this.element.compareTo(tally.element);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals (final Object object) {
+		if (!(object instanceof Tally)) return false;
+
+		final Tally<?> tally = (Tally<?>) object;
+		return this.count == tally.count && this.element.equals(tally.element);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode () {
+		return Objects.hash(this.element, this.count);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString () {
+		return this.element + "\t" + this.count;
+	}
+}
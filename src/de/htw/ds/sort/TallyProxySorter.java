@@ -0,0 +1,171 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.ds.sort.CspCodec.TallyCodec;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Aggregating sorter implementation that forwards all requests to a sort server, negotiating
+ * the {@linkplain Framing#COUNTED counted framing} of the custom sort protocol described in
+ * {@link CspCodec}. Written tallies are combined locally until a given number of distinct
+ * elements is reached, and only then transmitted; the server combines them further, and responds
+ * with sorted distinct tallies. Therefore, the network volume scales with the number of distinct
+ * elements instead of the number of elements written. Note that a single connection is reused
+ * for all interactions with the server.
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class TallyProxySorter implements MergeSorter<Tally<String>> {
+	static private final int DEFAULT_COMBINE_LIMIT = 0x10000;
+
+	private final Socket connection;
+	private final TallyCodec codec;
+	private final Map<String,long[]> counts;
+	private final int combineLimit;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address, and combines up to a default number of
+	 * distinct elements locally.
+	 * @param serviceAddress the service address
+	 * @throws NullPointerException if the given service address is {@code null}
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support counted framing
+	 */
+	public TallyProxySorter (final InetSocketAddress serviceAddress) throws NullPointerException, IOException {
+		this(serviceAddress, DEFAULT_COMBINE_LIMIT);
+	}
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state that is able to communicate with
+	 * a sort server using the given service address.
+	 * @param serviceAddress the service address
+	 * @param combineLimit the maximum number of distinct elements combined locally before
+	 *        being transmitted
+	 * @throws NullPointerException if the given service address is {@code null}
+	 * @throws IllegalArgumentException if the given limit is not strictly positive
+	 * @throws IOException if there is an I/O related problem, or if the server does not
+	 *         support counted framing
+	 */
+	public TallyProxySorter (final InetSocketAddress serviceAddress, final int combineLimit) throws NullPointerException, IllegalArgumentException, IOException {
+		if (combineLimit <= 0) throw new IllegalArgumentException();
+
+		this.connection = new Socket(serviceAddress.getAddress(), serviceAddress.getPort());
+		try {
+			this.codec = CspCodec.connectTallies(this.connection);
+		} catch (final IOException | RuntimeException exception) {
+			this.connection.close();
+			throw exception;
+		}
+		this.counts = new HashMap<>();
+		this.combineLimit = combineLimit;
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		try {
+			try {
+				this.codec.close();
+			} finally {
+				this.connection.close();
+			}
+		} finally {
+			this.counts.clear();
+			this.state = State.CLOSED;
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final Tally<String> tally) throws IllegalStateException, IOException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (tally == null) {
+			this.flushCounts();
+			this.codec.writeEnd();
+			this.state = State.SORT;
+		} else {
+			this.counts.computeIfAbsent(tally.getElement(), element -> new long[1])[0] += tally.getCount();
+			if (this.counts.size() == this.combineLimit) this.flushCounts();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Tally<String> read () throws IllegalStateException, IOException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final Tally<String> tally = this.codec.read();
+		if (tally == null) this.state = State.WRITE;
+		return tally;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Transmits the locally combined tallies.
+	 * @throws IOException if there is an I/O related problem
+	 */
+	private void flushCounts () throws IOException {
+		for (final Map.Entry<String,long[]> entry : this.counts.entrySet()) {
+			this.codec.write(new Tally<>(entry.getKey(), entry.getValue()[0]));
+		}
+		this.counts.clear();
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one tally
+	 * proxy sorter instance for each of the given socket addresses. If there is exactly one
+	 * given socket address, the result will be the sole proxy sorter instance created.
+	 * Otherwise, the result will be a combining sorter decorating a k-way merge sorter, which
+	 * sums up the counts of equal elements received from different servers.
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 * @throws IllegalArgumentException if there is no argument given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<Tally<String>> newInstance (final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (serviceAddresses.length == 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<Tally<String>>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new TallyProxySorter(serviceAddress));
+		return leaves.size() == 1 ? leaves.get(0) : new CombiningSorter<>(new KWayMergeSorter<>(leaves));
+	}
+}
@@ -0,0 +1,135 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Single-threaded aggregating sorter implementation that collapses equal elements into tallies
+ * as they are written, and sorts the distinct tallies. Therefore, the memory consumption scales
+ * with the number of distinct elements instead of the number of elements written. Note that
+ * the element type's equality must be consistent with it's natural order.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class TallySorter<E extends Comparable<E>> implements MergeSorter<Tally<E>> {
+	private final Map<E,long[]> counts;
+	private Tally<E>[] tallies;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state.
+	 */
+	public TallySorter () {
+		this.counts = new HashMap<>();
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the number of distinct elements currently stored.
+	 * @return the distinct element count
+	 */
+	public int getDistinctCount () {
+		return this.tallies == null ? this.counts.size() : this.tallies.length;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		this.clear();
+		this.state = State.CLOSED;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final Tally<E> tally) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (tally == null) {
+			this.state = State.SORT;
+		} else {
+			this.counts.computeIfAbsent(tally.getElement(), element -> new long[1])[0] += tally.getCount();
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.tallies = new Tally[this.counts.size()];
+		int index = 0;
+		for (final Map.Entry<E,long[]> entry : this.counts.entrySet()) {
+			this.tallies[index++] = new Tally<>(entry.getKey(), entry.getValue()[0]);
+		}
+		this.counts.clear();
+
+		Arrays.sort(this.tallies);
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Tally<E> read () throws IllegalStateException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readIndex < this.tallies.length) return this.tallies[this.readIndex++];
+
+		this.clear();
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final Tally<E>[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.tallies.length - this.readIndex);
+		System.arraycopy(this.tallies, this.readIndex, buffer, 0, count);
+		this.readIndex += count;
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Discards all tallies.
+	 */
+	private void clear () {
+		this.counts.clear();
+		this.tallies = null;
+		this.readIndex = 0;
+	}
+}
@@ -0,0 +1,185 @@
+package de.htw.ds.sort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import de.htw.ds.sort.CspCodec.Framing;
+import de.htw.tool.Copyright;
+
+
+/**
+ * Single-threaded bounded sorter implementation that retains only the given number of lowest
+ * elements written, using a heap whose root is the greatest element retained. Each element
+ * written is either discarded, or replaces said root. Therefore, the memory consumption is
+ * bounded by the given limit instead of the number of elements written. Trees of such sorters
+ * must be {@linkplain LimitingSorter limited} as well, because each child contributes up to
+ * said number of elements.
+ * @param <E> the element type to be sorted in naturally ascending order
+ */
+@Copyright(year=2010, holders="Sascha Baumeister")
+public class TopKSorter<E extends Comparable<E>> implements MergeSorter<E> {
+	static private final int CORES = Runtime.getRuntime().availableProcessors();
+
+	private final int limit;
+	private final PriorityQueue<E> heap;
+	private E[] elements;
+	private int readIndex;
+	private State state;
+
+
+	/**
+	 * Creates a new instance in {@link State#WRITE} state.
+	 * @param limit the maximum number of lowest elements to be retained
+	 * @throws IllegalArgumentException if the given limit is not strictly positive
+	 */
+	public TopKSorter (final int limit) throws IllegalArgumentException {
+		if (limit <= 0) throw new IllegalArgumentException();
+
+		this.limit = limit;
+		this.heap = new PriorityQueue<>(Math.min(limit, 0x100), Collections.reverseOrder());
+		this.state = State.WRITE;
+	}
+
+
+	/**
+	 * Returns the maximum number of lowest elements to be retained.
+	 * @return the limit
+	 */
+	public int getLimit () {
+		return this.limit;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void close () throws IOException {
+		this.clear();
+		this.state = State.CLOSED;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write (final E element) throws IllegalStateException {
+		if (this.state != State.WRITE) throw new IllegalStateException(this.state.name());
+
+		if (element == null) {
+			this.state = State.SORT;
+		} else if (this.heap.size() < this.limit) {
+			this.heap.add(element);
+		} else if (element.compareTo(this.heap.peek()) < 0) {
+			this.heap.poll();
+			this.heap.add(element);
+		}
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void sort () throws IllegalStateException {
+		if (this.state != State.SORT) throw new IllegalStateException(this.state.name());
+
+		this.elements = this.heap.toArray((E[]) new Comparable[this.heap.size()]);
+		this.heap.clear();
+		Arrays.sort(this.elements);
+		this.state = State.READ;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public E read () throws IllegalStateException {
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		if (this.readIndex < this.elements.length) return this.elements[this.readIndex++];
+
+		this.clear();
+		this.state = State.WRITE;
+		return null;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read (final E[] buffer) throws NullPointerException, IllegalArgumentException, IllegalStateException {
+		if (buffer.length == 0) throw new IllegalArgumentException();
+		if (this.state != State.READ) throw new IllegalStateException(this.state.name());
+
+		final int count = Math.min(buffer.length, this.elements.length - this.readIndex);
+		System.arraycopy(this.elements, this.readIndex, buffer, 0, count);
+		this.readIndex += count;
+
+		if (count < buffer.length) {
+			this.clear();
+			this.state = State.WRITE;
+		}
+		return count;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public State getState () {
+		return this.state;
+	}
+
+
+	/**
+	 * Discards all elements.
+	 */
+	private void clear () {
+		this.heap.clear();
+		this.elements = null;
+		this.readIndex = 0;
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. The tree will contain as many
+	 * bounded leaf sorters as there are processors within this system, merged by a k-way merge
+	 * sorter that is limited to the given number of elements.
+	 * @param limit the maximum number of lowest elements to be retained
+	 * @return the root sorter created
+	 * @throws IllegalArgumentException if the given limit is not strictly positive
+	 */
+	static public <T extends Comparable<T>> MergeSorter<T> newInstance (final int limit) throws IllegalArgumentException {
+		if (limit <= 0) throw new IllegalArgumentException();
+
+		final MergeSorter<T> root = KWayMergeSorter.newInstance(() -> new TopKSorter<T>(limit), CORES);
+		return root instanceof TopKSorter ? root : new LimitingSorter<>(root, limit);
+	}
+
+
+	/**
+	 * Returns the root sorter instance of a new sorter tree. Said tree will contain one proxy
+	 * sorter instance for each of the given socket addresses, each negotiating the given limit
+	 * with it's server. Unless there is exactly one given socket address, said proxies are
+	 * merged by a k-way merge sorter that is limited to the given number of elements.
+	 * @param limit the maximum number of lowest elements to be retained
+	 * @param serviceAddresses the sort server service addresses
+	 * @return the root sorter created
+	 * @throws NullPointerException if any of the given addresses is {@code null}
+	 * @throws IllegalArgumentException if the given limit is not strictly positive, or if there
+	 *         is no address given
+	 * @throws IOException if there is an I/O related problem
+	 */
+	static public MergeSorter<String> newInstance (final int limit, final InetSocketAddress... serviceAddresses) throws NullPointerException, IllegalArgumentException, IOException {
+		if (limit <= 0 | serviceAddresses.length == 0) throw new IllegalArgumentException();
+
+		final List<MergeSorter<String>> leaves = new ArrayList<>(serviceAddresses.length);
+		for (final InetSocketAddress serviceAddress : serviceAddresses) leaves.add(new ProxySorter(serviceAddress, Framing.BINARY, limit));
+		return leaves.size() == 1 ? leaves.get(0) : new LimitingSorter<>(new KWayMergeSorter<>(leaves), limit);
+	}
+}
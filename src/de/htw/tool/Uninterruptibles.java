@@ -461,6 +461,33 @@ public class Uninterruptibles {
 	}
 
 
+	/**
+	 * Repeats the interruptible {@link BlockingQueue#poll(long, TimeUnit)} operation until it ends without being interrupted,
+	 * taking the time already waited into account. Note that this operation cannot be interrupted by another thread, but
+	 * preserves the interrupt status for later use.
+	 * @param queue the blocking queue
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of the timeout argument
+	 * @return the element removed, or {@code null} if the wait timed out
+	 * @throws NullPointerException if any of the given arguments is {@code null}
+	 */
+	static public <T> T poll (final BlockingQueue<? extends T> queue, final long timeout, final TimeUnit unit) throws NullPointerException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} catch (final InterruptedException exception) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+
 	/**
 	 * Repeats the interruptible {@link BlockingQueue#take()} operation until it ends without being interrupted. Note that this
 	 * operation cannot be interrupted by another thread, but preserves the interrupt status for later use.